@@ -0,0 +1,144 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.openid.connect.sdk.claims.IDTokenClaimsSet;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.storage.PregeneratedPools;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.ILightResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.LEGAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createLightRequest;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * OIDC authentication request creation and ID-token claim translation with the default claim mappings of
+ * application.properties. The IDP metadata is read from the mock responses, no IDP is contacted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpecificProxyServiceBenchmark {
+    private static final String MOCK_OPENID_CONFIGURATION = "/__files/mock_responses/idp/openid-configuration.json";
+    private static final String NATURAL_PERSON_CLAIMS = "{\"jti\":\"7d02cecd-6a63-4124-97fa-74999817fb08\"," +
+            "\"iss\":\"https://localhost:9877\",\"aud\":\"openIdDemo\",\"exp\":4745035342,\"iat\":1589358983," +
+            "\"nbf\":1589358683,\"sub\":\"EE60001019906\",\"profile_attributes\":{\"date_of_birth\":\"2000-01-01\"," +
+            "\"family_name\":\"O’CONNEŽ-ŠUSLIK TESTNUMBER\",\"given_name\":\"MARY ÄNN\"},\"amr\":[\"mID\"]," +
+            "\"acr\":\"high\",\"state\":\"f568b994-8939-4fea-8323-a62f57e21308\"," +
+            "\"nonce\":\"645ce702-08b4-4778-8c01-b76e923e42ba\",\"at_hash\":\"7iXUyFcsZ0dm88EisVQfMA==\"}";
+    private static final String LEGAL_PERSON_CLAIMS = "{\"jti\":\"7d02cecd-6a63-4124-97fa-74999817fb08\"," +
+            "\"iss\":\"https://localhost:9877\",\"aud\":\"openIdDemo\",\"exp\":4745035342,\"iat\":1589358983," +
+            "\"nbf\":1589358683,\"sub\":\"EE60001019906\",\"profile_attributes\":{\"date_of_birth\":\"2000-01-01\"," +
+            "\"family_name\":\"O’CONNEŽ-ŠUSLIK TESTNUMBER\",\"given_name\":\"MARY ÄNN\"," +
+            "\"represents_legal_person\":{\"name\":\"Legal Name\",\"registry_code\":\"test123\"}}," +
+            "\"amr\":[\"mID\"],\"acr\":\"high\",\"state\":\"f568b994-8939-4fea-8323-a62f57e21308\"," +
+            "\"nonce\":\"645ce702-08b4-4778-8c01-b76e923e42ba\",\"at_hash\":\"7iXUyFcsZ0dm88EisVQfMA==\"}";
+
+    private IdpHttpClient idpHttpClient;
+    private SpecificProxyService specificProxyService;
+    private ILightRequest naturalPersonLightRequest;
+    private ILightRequest legalPersonLightRequest;
+    private IDTokenClaimsSet naturalPersonClaims;
+    private IDTokenClaimsSet legalPersonClaims;
+
+    @Setup
+    public void setup() throws IOException, ParseException {
+        SpecificProxyServiceProperties properties = createProperties();
+        OIDCProviderMetadata metadata = readProviderMetadata();
+        idpHttpClient = new IdpHttpClient(properties.getOidc());
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        OIDCProviderMetadataService metadataService = new OIDCProviderMetadataService(properties, idpHttpClient,
+                new IdpJwksKeySelector(properties, idpHttpClient, meterRegistry), meterRegistry) {
+            @Override
+            public OIDCProviderMetadata getOidcProviderMetadata() {
+                return metadata;
+            }
+        };
+        ClaimMappingPlan claimMappingPlan = new ClaimMappingPlan(properties.getOidc().getResponseClaimMapping(),
+                new AttributeRegistryIndex(SpecificProxyServiceConfiguration.EIDAS_ATTRIBUTE_REGISTRY));
+        IssuerIpResolver issuerIpResolver = new IssuerIpResolver(properties, meterRegistry);
+        issuerIpResolver.refreshIssuerIp();
+        OidcProviderRegistry oidcProviderRegistry = new OidcProviderRegistry(properties, metadataService,
+                new IdpEndpointRouter(properties, meterRegistry), idpHttpClient, meterRegistry);
+        specificProxyService = new SpecificProxyService(oidcProviderRegistry, claimMappingPlan, issuerIpResolver,
+                new ScopePlan(properties.getOidc()), new LightRequestRules(properties), idpHttpClient,
+                new PregeneratedPools(properties).create("oidc-state", () -> UUID.randomUUID().toString()));
+        naturalPersonLightRequest = createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES);
+        legalPersonLightRequest = createLightRequest(LEGAL_PERSON_MANDATORY_ATTRIBUTES);
+        naturalPersonClaims = IDTokenClaimsSet.parse(NATURAL_PERSON_CLAIMS);
+        legalPersonClaims = IDTokenClaimsSet.parse(LEGAL_PERSON_CLAIMS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        idpHttpClient.close();
+    }
+
+    @Benchmark
+    public CorrelatedRequestsHolder createOidcAuthenticationRequest() {
+        return specificProxyService.createOidcAuthenticationRequest(naturalPersonLightRequest);
+    }
+
+    @Benchmark
+    public CorrelatedRequestsHolder createLegalPersonOidcAuthenticationRequest() {
+        return specificProxyService.createOidcAuthenticationRequest(legalPersonLightRequest);
+    }
+
+    @Benchmark
+    public ILightResponse translateNaturalPersonToLightResponse() throws MalformedURLException, UnknownHostException {
+        return specificProxyService.translateToLightResponse(naturalPersonClaims, naturalPersonLightRequest);
+    }
+
+    @Benchmark
+    public ILightResponse translateLegalPersonToLightResponse() throws MalformedURLException, UnknownHostException {
+        return specificProxyService.translateToLightResponse(legalPersonClaims, legalPersonLightRequest);
+    }
+
+    private static SpecificProxyServiceProperties createProperties() {
+        SpecificProxyServiceProperties properties = new SpecificProxyServiceProperties();
+        properties.getOidc().setClientId("openIdDemo");
+        properties.getOidc().setClientSecret("youNeedToChangeThis");
+        properties.getOidc().setRedirectUri("https://localhost:9877/redirect");
+        properties.getOidc().setIssuerUrl("https://localhost:9877");
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("LegalName", "$.profile_attributes.represents_legal_person.name");
+        attributes.put("LegalPersonIdentifier", "$.profile_attributes.represents_legal_person.registry_code");
+        attributes.put("FirstName", "$.profile_attributes.given_name");
+        attributes.put("FamilyName", "$.profile_attributes.family_name");
+        attributes.put("DateOfBirth", "$.profile_attributes.date_of_birth");
+        attributes.put("PersonIdentifier", "$.sub");
+        properties.getOidc().getResponseClaimMapping().setAttributes(attributes);
+        Map<String, String> attributesPostProcessing = new HashMap<>();
+        attributesPostProcessing.put("PersonIdentifier", "^EE(?<attributeValue>[\\d]{11,11})$");
+        properties.getOidc().getResponseClaimMapping().setAttributesPostProcessing(attributesPostProcessing);
+        return properties;
+    }
+
+    private OIDCProviderMetadata readProviderMetadata() throws IOException, ParseException {
+        try (InputStream input = getClass().getResourceAsStream(MOCK_OPENID_CONFIGURATION)) {
+            return OIDCProviderMetadata.parse(new String(input.readAllBytes(), UTF_8));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import eu.eidas.auth.commons.tx.BinaryLightToken;
+import eu.eidas.specificcommunication.BinaryLightTokenHelper;
+import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Light token creation and verification with the issuer, secret and algorithm of the test configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BinaryLightTokenBenchmark {
+    private static final String ISSUER = "specificCommunicationDefinitionProxyserviceResponse";
+    private static final String SECRET = "mySecretProxyserviceResponse";
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final String INVALID_TOKEN = "YXNkZmZzZGZzZGZkc2ZzZmQ";
+
+    private final BinaryLightTokenVerifier verifier = new BinaryLightTokenVerifier(SECRET, ALGORITHM);
+    private String tokenBase64;
+
+    @Setup
+    public void setup() throws SpecificCommunicationException {
+        tokenBase64 = createToken();
+    }
+
+    @Benchmark
+    public String createToken() throws SpecificCommunicationException {
+        BinaryLightToken binaryLightToken = BinaryLightTokenHelper.createBinaryLightToken(ISSUER, SECRET, ALGORITHM);
+        return BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken);
+    }
+
+    @Benchmark
+    public String verifyToken() throws SpecificCommunicationException {
+        return BinaryLightTokenHelper.getBinaryLightTokenId(tokenBase64, SECRET, ALGORITHM);
+    }
+
+    @Benchmark
+    public String verifyTokenWithVerifier() {
+        return verifier.getTokenId(tokenBase64);
+    }
+
+    @Benchmark
+    public String rejectInvalidTokenWithVerifier() {
+        return verifier.getTokenId(INVALID_TOKEN);
+    }
+}
@@ -0,0 +1,73 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties.LightRequestReader;
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.ILightResponse;
+import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createDefaultLightRequest;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createDefaultLightResponse;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LightJAXBCodecBenchmark {
+    private static final String MOCK_LIGHT_REQUEST = "/__files/mock_requests/light-request.xml";
+
+    @Param({"JAXB", "STAX"})
+    private LightRequestReader lightRequestReader;
+
+    @Param({"false", "true"})
+    private boolean formattedOutput;
+
+    private LightJAXBCodec codec;
+    private AttributeRegistryIndex registryIndex;
+    private String lightRequestXml;
+    private ILightRequest lightRequest;
+    private ILightResponse lightResponse;
+
+    @Setup
+    public void setup() throws IOException {
+        CacheProperties properties = new CacheProperties();
+        properties.setLightRequestReader(lightRequestReader);
+        properties.setFormattedOutput(formattedOutput);
+        codec = LightJAXBCodec.build(properties);
+        registryIndex = new AttributeRegistryIndex(SpecificProxyServiceConfiguration.EIDAS_ATTRIBUTE_REGISTRY);
+        try (InputStream input = getClass().getResourceAsStream(MOCK_LIGHT_REQUEST)) {
+            lightRequestXml = new String(input.readAllBytes(), UTF_8);
+        }
+        lightRequest = createDefaultLightRequest();
+        lightResponse = createDefaultLightResponse();
+    }
+
+    @Benchmark
+    public ILightRequest unmarshallRequest() throws SpecificCommunicationException {
+        return codec.unmarshallRequest(lightRequestXml, registryIndex);
+    }
+
+    @Benchmark
+    public String marshallRequest() throws SpecificCommunicationException {
+        return codec.marshall(lightRequest);
+    }
+
+    @Benchmark
+    public String marshallResponse() throws SpecificCommunicationException {
+        return codec.marshall(lightResponse);
+    }
+}
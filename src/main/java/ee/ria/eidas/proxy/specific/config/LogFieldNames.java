@@ -11,6 +11,7 @@ public class LogFieldNames {
 
     public static final String LIGHT_RESPONSE = "light_response";
     public static final String LIGHT_RESPONSE_LIGHT_TOKEN_ID = "light_response.light_token_id";
+    public static final String LIGHT_RESPONSE_IN_RESPONSE_TO_ID = "light_response.in_response_to_id";
 
     public static final String IGNITE_CACHE_NAME = "communication_cache.name";
 
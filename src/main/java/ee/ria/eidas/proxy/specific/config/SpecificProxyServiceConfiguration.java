@@ -1,12 +1,23 @@
 package ee.ria.eidas.proxy.specific.config;
 
-import ee.ria.eidas.proxy.specific.service.OIDCProviderMetadataService;
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
+import ee.ria.eidas.proxy.specific.service.ClaimMappingPlan;
+import ee.ria.eidas.proxy.specific.service.IdpHttpClient;
+import ee.ria.eidas.proxy.specific.service.IssuerIpResolver;
+import ee.ria.eidas.proxy.specific.service.LightRequestRules;
+import ee.ria.eidas.proxy.specific.service.OidcProviderRegistry;
+import ee.ria.eidas.proxy.specific.service.RedirectUrlTemplate;
+import ee.ria.eidas.proxy.specific.service.ScopePlan;
 import ee.ria.eidas.proxy.specific.service.SpecificProxyService;
+import ee.ria.eidas.proxy.specific.storage.CacheEntryCompression;
 import ee.ria.eidas.proxy.specific.storage.IgniteInstanceInitializer;
-import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication;
+import ee.ria.eidas.proxy.specific.storage.LightJAXBCodec;
+import ee.ria.eidas.proxy.specific.storage.OidcMetadataClusterCache;
+import ee.ria.eidas.proxy.specific.storage.PregeneratedPools;
+import ee.ria.eidas.proxy.specific.web.IdpCallbackExecutors;
+import ee.ria.eidas.proxy.specific.web.RequestParametersResolver;
 import eu.eidas.auth.commons.attribute.AttributeRegistries;
 import eu.eidas.auth.commons.attribute.AttributeRegistry;
-import eu.eidas.auth.commons.light.ILightResponse;
 import eu.eidas.auth.commons.protocol.eidas.spec.LegalPersonSpec;
 import eu.eidas.auth.commons.protocol.eidas.spec.NaturalPersonSpec;
 import eu.eidas.auth.commons.protocol.eidas.spec.RepresentativeLegalPersonSpec;
@@ -14,6 +25,7 @@ import eu.eidas.auth.commons.protocol.eidas.spec.RepresentativeNaturalPersonSpec
 import lombok.extern.slf4j.Slf4j;
 import org.apache.ignite.Ignite;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
@@ -23,6 +35,7 @@ import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
 import org.springframework.core.io.FileUrlResource;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.util.Assert;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.ViewResolver;
 import org.springframework.web.servlet.config.annotation.DefaultServletHandlerConfigurer;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
@@ -35,7 +48,9 @@ import javax.cache.Cache;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import static ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties.*;
 
@@ -45,6 +60,9 @@ import static ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.
 @EnableConfigurationProperties(SpecificProxyServiceProperties.class)
 public class SpecificProxyServiceConfiguration implements WebMvcConfigurer {
 
+    public static final AttributeRegistry EIDAS_ATTRIBUTE_REGISTRY = AttributeRegistries.copyOf(NaturalPersonSpec.REGISTRY,
+            RepresentativeNaturalPersonSpec.REGISTRY, LegalPersonSpec.REGISTRY, RepresentativeLegalPersonSpec.REGISTRY);
+
     @Override
     public void configureDefaultServletHandling(DefaultServletHandlerConfigurer configurer) {
         configurer.enable();
@@ -59,6 +77,11 @@ public class SpecificProxyServiceConfiguration implements WebMvcConfigurer {
         return bean;
     }
 
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new RequestParametersResolver());
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler("/resources/**")
@@ -84,8 +107,22 @@ public class SpecificProxyServiceConfiguration implements WebMvcConfigurer {
 
     @Bean
     public AttributeRegistry eidasAttributeRegistry() {
-        return AttributeRegistries.copyOf(NaturalPersonSpec.REGISTRY, RepresentativeNaturalPersonSpec.REGISTRY,
-                LegalPersonSpec.REGISTRY, RepresentativeLegalPersonSpec.REGISTRY);
+        return EIDAS_ATTRIBUTE_REGISTRY;
+    }
+
+    @Bean
+    public AttributeRegistryIndex eidasAttributeRegistryIndex(AttributeRegistry eidasAttributeRegistry) {
+        return new AttributeRegistryIndex(eidasAttributeRegistry);
+    }
+
+    @Bean
+    public LightJAXBCodec lightJAXBCodec(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        return LightJAXBCodec.build(specificProxyServiceProperties.getCommunicationCache());
+    }
+
+    @Bean
+    public CacheEntryCompression cacheEntryCompression(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        return CacheEntryCompression.build(specificProxyServiceProperties.getCommunicationCache().getCompression());
     }
 
     @Lazy
@@ -119,7 +156,7 @@ public class SpecificProxyServiceConfiguration implements WebMvcConfigurer {
 
     @Lazy
     @Bean
-    public Cache<String, SpecificProxyServiceCommunication.CorrelatedRequestsHolder> specificMSIdpRequestCorrelationMap(
+    public Cache<String, Object> specificMSIdpRequestCorrelationMap(
             Ignite igniteInstance, SpecificProxyServiceProperties specificProxyServiceProperties) {
 
         String cacheName = getCacheName(specificProxyServiceProperties, IDP_PENDING_REQUESTS_CACHE);
@@ -128,17 +165,61 @@ public class SpecificProxyServiceConfiguration implements WebMvcConfigurer {
 
     @Lazy
     @Bean
-    public Cache<String, ILightResponse> specificMSIdpConsentCorrelationMap(
+    public Cache<String, Object> specificMSIdpConsentCorrelationMap(
             Ignite igniteInstance, SpecificProxyServiceProperties specificProxyServiceProperties) {
 
         String cacheName = getCacheName(specificProxyServiceProperties, IDP_PENDING_CONSENT_MAP);
         return igniteInstance.cache(cacheName);
     }
 
+    @Lazy
+    @Bean
+    @ConditionalOnProperty(value = "eidas.proxy.oidc.metadata.cluster.enabled", havingValue = "true")
+    public OidcMetadataClusterCache oidcMetadataClusterCache(
+            Ignite igniteInstance, SpecificProxyServiceProperties specificProxyServiceProperties) {
+
+        String cacheName = getCacheName(specificProxyServiceProperties, OIDC_METADATA_CACHE);
+        return new OidcMetadataClusterCache(igniteInstance, cacheName,
+                specificProxyServiceProperties.getOidc().getMetadata().getCluster().getLeaseDurationInMilliseconds());
+    }
+
+    @Bean
+    public SpecificProxyService specificProxyService(OidcProviderRegistry oidcProviderRegistry, ClaimMappingPlan claimMappingPlan,
+                                                     IssuerIpResolver issuerIpResolver, ScopePlan scopePlan, LightRequestRules lightRequestRules,
+                                                     IdpHttpClient idpHttpClient, PregeneratedPools pregeneratedPools) {
+        return new SpecificProxyService(oidcProviderRegistry, claimMappingPlan, issuerIpResolver, scopePlan, lightRequestRules,
+                idpHttpClient, pregeneratedPools.create("oidc-state", () -> UUID.randomUUID().toString()));
+    }
+
+    @Bean
+    public IdpHttpClient idpHttpClient(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        return new IdpHttpClient(specificProxyServiceProperties.getOidc());
+    }
+
+    @Bean
+    public RedirectUrlTemplate nodeSpecificResponseUrlTemplate(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        return RedirectUrlTemplate.builder(specificProxyServiceProperties.getNodeSpecificResponseUrl()).build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "eidas.proxy.async-idp-callback.enabled", havingValue = "true")
+    public IdpCallbackExecutors idpCallbackExecutors(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        return new IdpCallbackExecutors(specificProxyServiceProperties.getAsyncIdpCallback());
+    }
+
+    @Bean
+    public ScopePlan scopePlan(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        return new ScopePlan(specificProxyServiceProperties.getOidc());
+    }
+
+    @Bean
+    public LightRequestRules lightRequestRules(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        return new LightRequestRules(specificProxyServiceProperties);
+    }
+
     @Bean
-    public SpecificProxyService specificProxyService(SpecificProxyServiceProperties specificProxyServiceProperties,
-                                                     OIDCProviderMetadataService oidcProviderMetadataService, AttributeRegistry eidasAttributesRegistry) {
-        return new SpecificProxyService(specificProxyServiceProperties, oidcProviderMetadataService, eidasAttributesRegistry);
+    public ClaimMappingPlan claimMappingPlan(SpecificProxyServiceProperties specificProxyServiceProperties, AttributeRegistryIndex eidasAttributeRegistryIndex) {
+        return new ClaimMappingPlan(specificProxyServiceProperties.getOidc().getResponseClaimMapping(), eidasAttributeRegistryIndex);
     }
 
     private String getCacheName(SpecificProxyServiceProperties properties, String cacheName) {
@@ -1,10 +1,15 @@
 package ee.ria.eidas.proxy.specific.config;
 
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
 import eu.eidas.auth.commons.protocol.eidas.spec.EidasSpec;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.http.HttpMethod;
 import org.springframework.util.Assert;
@@ -12,6 +17,8 @@ import org.springframework.validation.annotation.Validated;
 
 import javax.annotation.PostConstruct;
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import java.util.*;
@@ -37,6 +44,8 @@ public class SpecificProxyServiceProperties {
             EidasSpec.Definitions.CURRENT_FAMILY_NAME.getFriendlyName(),
             EidasSpec.Definitions.CURRENT_GIVEN_NAME.getFriendlyName()));
 
+    public static final String DEFAULT_OIDC_PROVIDER_ID = "default";
+
     @PostConstruct
     public void init() {
         if (askConsent) {
@@ -45,13 +54,17 @@ public class SpecificProxyServiceProperties {
 
         assertScopeMappingsIfPresent();
         assertOidcClaimMappingsConfigurationPresent();
+        assertOidcClaimMappingJsonPaths();
         assertOidcClaimMappingPostProcessingRules();
+        assertOidcProvidersIfPresent();
 
         log.info("Configuration: {}", toString());
     }
 
     private boolean askConsent = true;
 
+    private boolean storeMarshalledConsentResponse = false;
+
     private List<String> supportedSpTypes = asList("public");
 
     @NotNull
@@ -66,12 +79,21 @@ public class SpecificProxyServiceProperties {
     @Valid
     private OidcProviderProperties oidc = new OidcProviderProperties();
 
+    @Valid
+    private List<RoutedOidcProviderProperties> oidcProviders = new ArrayList<>();
+
     @Valid
     private CacheProperties communicationCache = new CacheProperties();
 
     @Valid
     private WebappProperties webapp = new WebappProperties();
 
+    @Valid
+    private AsyncIdpCallbackProperties asyncIdpCallback = new AsyncIdpCallbackProperties();
+
+    @Valid
+    private PregeneratedPoolProperties pregeneratedPool = new PregeneratedPoolProperties();
+
     @Valid
     @ToString
     @Data
@@ -86,6 +108,51 @@ public class SpecificProxyServiceProperties {
         private String contentSecurityPolicy = DEFAULT_CONTENT_SECURITY_POLICY;
     }
 
+    @Data
+    @ToString
+    public static class AsyncIdpCallbackProperties {
+
+        private boolean enabled = false;
+
+        @Min(1)
+        private long timeoutInMilliseconds = 30000;
+
+        @Valid
+        private ExecutorProperties idpExecutor = new ExecutorProperties(32, 256);
+
+        @Valid
+        private ExecutorProperties cacheExecutor = new ExecutorProperties(16, 256);
+
+        @Data
+        @ToString
+        @NoArgsConstructor
+        @AllArgsConstructor
+        public static class ExecutorProperties {
+
+            @Min(1)
+            private int poolSize;
+
+            @Min(1)
+            private int queueCapacity;
+        }
+    }
+
+    @Data
+    @ToString
+    public static class PregeneratedPoolProperties {
+
+        private boolean enabled = false;
+
+        @Min(1)
+        private int depth = 256;
+
+        @Min(0)
+        private int refillThreshold = 64;
+
+        @Min(1)
+        private long maxAgeInMilliseconds = 60000;
+    }
+
     @Data
     @ToString
     @NoArgsConstructor
@@ -118,10 +185,114 @@ public class SpecificProxyServiceProperties {
 
         private Map<String, String> attributeScopeMapping = new HashMap<>();
 
+        private boolean requestAttributeScopes = false;
+
+        private boolean requestClaims = false;
+
         private SpecificProxyServiceProperties.IdTokenClaimMappingProperties responseClaimMapping = new SpecificProxyServiceProperties.IdTokenClaimMappingProperties();
 
         private String errorCodeUserCancel = "user_cancel";
 
+        @Valid
+        private HttpClientProperties httpClient = new HttpClientProperties();
+
+        @Valid
+        private JwksProperties jwks = new JwksProperties();
+
+        @Valid
+        private MetadataProperties metadata = new MetadataProperties();
+
+        @Valid
+        private List<IdpEndpointProperties> endpoints = new ArrayList<>();
+
+        @Min(1)
+        private int endpointFailureThreshold = 3;
+
+        @Min(0)
+        private long endpointRecoveryIntervalInMilliseconds = 30000;
+
+        @Data
+        @ToString
+        public static class HttpClientProperties {
+
+            @Min(1)
+            private int maxConnections = 20;
+
+            @Min(1)
+            private int maxConnectionsPerRoute = 20;
+
+            @Min(0)
+            private int connectionRequestTimeoutInMilliseconds = 5000;
+
+            @Min(1)
+            private int idleConnectionTimeoutInMilliseconds = 30000;
+        }
+
+        @Data
+        @ToString
+        public static class JwksProperties {
+
+            @Min(0)
+            private long minRefreshIntervalInMilliseconds = 60000;
+        }
+
+        @Data
+        @ToString
+        public static class MetadataProperties {
+
+            private String snapshotFile;
+
+            @Min(0)
+            private long refreshJitterInMilliseconds = 300000;
+
+            @Min(1)
+            private int maxAttempts = 3;
+
+            @Min(0)
+            private long backoffDelayInMilliseconds = 60000;
+
+            @Valid
+            private ClusterProperties cluster = new ClusterProperties();
+
+            @Data
+            @ToString
+            public static class ClusterProperties {
+
+                private boolean enabled = false;
+
+                @Min(1)
+                private long leaseDurationInMilliseconds = 600000;
+            }
+        }
+
+        @Data
+        @ToString
+        public static class IdpEndpointProperties {
+
+            @NotNull
+            private String id;
+
+            @NotNull
+            private String baseUrl;
+
+            @Min(1)
+            private int weight = 1;
+        }
+    }
+
+    @Data
+    @ToString(callSuper = true)
+    @EqualsAndHashCode(callSuper = true)
+    public static class RoutedOidcProviderProperties extends OidcProviderProperties {
+
+        @NotNull
+        private String id;
+
+        private List<String> citizenCountries = new ArrayList<>();
+
+        private List<String> levelsOfAssurance = new ArrayList<>();
+
+        private List<String> requestedAttributes = new ArrayList<>();
     }
 
     @Data
@@ -163,21 +334,78 @@ public class SpecificProxyServiceProperties {
         public static final String OUTGOING_NODE_RESPONSES_CACHE = "outgoing-node-responses-cache";
         public static final String IDP_PENDING_REQUESTS_CACHE = "pending-idp-requests-cache";
         public static final String IDP_PENDING_CONSENT_MAP = "pending-user-consents-cache";
+        public static final String OIDC_METADATA_CACHE = "oidc-metadata-cache";
 
         private Map<String, String> cacheNameMapping = Stream.of(
                 new AbstractMap.SimpleEntry<>(INCOMING_NODE_REQUESTS_CACHE, "nodeSpecificProxyserviceRequestCache"),
                 new AbstractMap.SimpleEntry<>(OUTGOING_NODE_RESPONSES_CACHE, "specificNodeProxyserviceResponseCache"),
                 new AbstractMap.SimpleEntry<>(IDP_PENDING_REQUESTS_CACHE, "specificMSIdpRequestCorrelationMap"),
-                new AbstractMap.SimpleEntry<>(IDP_PENDING_CONSENT_MAP, "specificMSIdpConsentCorrelationMap"))
+                new AbstractMap.SimpleEntry<>(IDP_PENDING_CONSENT_MAP, "specificMSIdpConsentCorrelationMap"),
+                new AbstractMap.SimpleEntry<>(OIDC_METADATA_CACHE, "specificProxyserviceOidcMetadataCache"))
                 .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
 
         @NotNull
         private String igniteConfigurationFileLocation;
 
         private String igniteConfigurationBeanName = "igniteSpecificCommunication.cfg";
+
+        @Min(1)
+        private int codecPoolSize = 32;
+
+        private boolean formattedOutput = false;
+
+        private boolean compactEntryFormat = false;
+
+        @NotNull
+        private LightRequestReader lightRequestReader = LightRequestReader.JAXB;
+
+        @Valid
+        private CompressionProperties compression = new CompressionProperties();
+
+        public enum LightRequestReader {
+            JAXB,
+            STAX
+        }
+
+        @Data
+        @ToString
+        public static class CompressionProperties {
+
+            private boolean enabled = false;
+
+            @Min(0)
+            private int thresholdBytes = 2048;
+
+            @NotNull
+            private Algorithm algorithm = Algorithm.DEFLATE;
+
+            @Min(1)
+            @Max(9)
+            private int level = 1;
+
+            public enum Algorithm {
+                DEFLATE
+            }
+        }
     }
 
 
+    private void assertOidcClaimMappingJsonPaths() {
+        IdTokenClaimMappingProperties claimMapping = oidc.getResponseClaimMapping();
+        List<String> jsonPaths = new ArrayList<>(asList(claimMapping.getNaturalPersonSubject(), claimMapping.getLegalPersonSubject(),
+                claimMapping.getId(), claimMapping.getIssuer(), claimMapping.getAcr()));
+        claimMapping.getAttributes().values().stream().filter(StringUtils::isNotEmpty).forEach(jsonPaths::add);
+        List<String> invalidJsonPaths = jsonPaths.stream().filter(item -> {
+            try {
+                JsonPath.compile(item);
+                return false;
+            } catch (IllegalArgumentException | InvalidPathException e) {
+                return true;
+            }
+        }).collect(Collectors.toList());
+        Assert.isTrue(invalidJsonPaths.isEmpty(), format("Invalid claim mappings detected. The following configuration values are not valid jsonpath expressions: %s. Please check your configuration", invalidJsonPaths));
+    }
+
     private void assertOidcClaimMappingPostProcessingRules() {
         if (!oidc.getResponseClaimMapping().getAttributesPostProcessing().isEmpty()) {
             List<String> invalidRegexValues = oidc.getResponseClaimMapping().getAttributesPostProcessing().values().stream().filter(item -> {
@@ -212,6 +440,20 @@ public class SpecificProxyServiceProperties {
         Assert.isTrue(missingMandatoryParameters.isEmpty(), "Missing claim mapping for the following mandatory attributes: " + missingMandatoryParameters + ". Please check your configuration");
     }
 
+    private void assertOidcProvidersIfPresent() {
+        Set<String> providerIds = new HashSet<>();
+        providerIds.add(DEFAULT_OIDC_PROVIDER_ID);
+        for (RoutedOidcProviderProperties provider : oidcProviders) {
+            Assert.isTrue(providerIds.add(provider.getId()), "Duplicate OIDC provider id: " + provider.getId() + ". Please check your configuration");
+            Assert.isTrue(!provider.getCitizenCountries().isEmpty() || !provider.getLevelsOfAssurance().isEmpty() || !provider.getRequestedAttributes().isEmpty(),
+                    "Missing routing rules for OIDC provider: " + provider.getId() + ". Please check your configuration");
+            List<String> invalidLevelsOfAssurance = provider.getLevelsOfAssurance().stream()
+                    .filter(item -> !asList("low", "substantial", "high").contains(item))
+                    .collect(Collectors.toList());
+            Assert.isTrue(invalidLevelsOfAssurance.isEmpty(), format("Invalid levels of assurance for OIDC provider %s: %s. Allowed values: low, substantial, high. Please check your configuration", provider.getId(), invalidLevelsOfAssurance));
+        }
+    }
+
     private void assertConsentCommunicationDefinitionsPresent() {
         Assert.notNull(consentBinaryLightToken.issuer, "eidas.proxy.consent-binary-light-token.issuer cannot be null when eidas.proxy.ask-consent is 'true'");
         Assert.notNull(consentBinaryLightToken.algorithm, "eidas.proxy.consent-binary-light-token.algorithm cannot be null when eidas.proxy.ask-consent is 'true'");
@@ -1,7 +1,8 @@
 package ee.ria.eidas.proxy.specific.error;
 
-import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.service.RedirectUrlTemplate;
 import ee.ria.eidas.proxy.specific.storage.EidasNodeCommunication;
+import ee.ria.eidas.proxy.specific.web.DirectRedirectView;
 import eu.eidas.auth.commons.EidasParameterKeys;
 import eu.eidas.auth.commons.tx.BinaryLightToken;
 import eu.eidas.specificcommunication.BinaryLightTokenHelper;
@@ -12,16 +13,11 @@ import org.springframework.validation.BindException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.servlet.ModelAndView;
-import org.springframework.web.servlet.view.RedirectView;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URL;
 
 import static java.lang.String.format;
-import static org.springframework.web.util.UriComponentsBuilder.fromUri;
 
 @Slf4j
 @ControllerAdvice
@@ -30,20 +26,18 @@ public class SpecificProxyServiceExceptionHandler {
     public static final String BAD_REQUEST_ERROR_MESSAGE = "Bad request: %s";
 
     @Autowired
-    private SpecificProxyServiceProperties specificProxyServiceProperties;
+    private RedirectUrlTemplate nodeSpecificResponseUrlTemplate;
 
     @Autowired
     private EidasNodeCommunication eidasNodeCommunication;
 
     @ExceptionHandler({RequestDeniedException.class})
-    public RedirectView handleRequestDeniedException(RequestDeniedException ex) throws MalformedURLException,
-            SpecificCommunicationException {
+    public ModelAndView handleRequestDeniedException(RequestDeniedException ex) throws SpecificCommunicationException {
         BinaryLightToken binaryLightToken = eidasNodeCommunication.putErrorResponse(ex);
         String token = BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken);
-        URL redirectUrl = fromUri(URI.create(specificProxyServiceProperties.getNodeSpecificResponseUrl()))
+        return DirectRedirectView.redirect(nodeSpecificResponseUrlTemplate.expand()
                 .queryParam(EidasParameterKeys.TOKEN.getValue(), token)
-                .build().toUri().toURL();
-        return new RedirectView(redirectUrl.toString());
+                .toUriString());
     }
 
     @ExceptionHandler({BindException.class})
@@ -1,14 +1,15 @@
 package ee.ria.eidas.proxy.specific.monitoring.health;
 
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
 import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.service.IdpHttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.AbstractHealthIndicator;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.stereotype.Component;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSocketFactory;
 import java.net.URI;
 import java.time.Duration;
 
@@ -23,6 +24,9 @@ public class AuthenticationServiceHealthIndicator extends AbstractHealthIndicato
     @Autowired
     private SpecificProxyServiceProperties specificProxyServiceProperties;
 
+    @Autowired
+    private IdpHttpClient idpHttpClient;
+
     @Value("${eidas.proxy.health.dependencies.connect-timeout:3}")
     private Duration connectTimeout;
 
@@ -34,17 +38,12 @@ public class AuthenticationServiceHealthIndicator extends AbstractHealthIndicato
     protected void doHealthCheck(Health.Builder builder) throws Exception {
         URI uri = create(removeTrailingSlash(create(specificProxyServiceProperties.getOidc().getIssuerUrl()))
                 + OPENID_PROVIDER_WELL_KNOWN_PATH);
-        HttpsURLConnection con = (HttpsURLConnection) uri.toURL().openConnection();
-        con.setConnectTimeout(toIntExact(connectTimeout.toMillis()));
-        con.setSSLSocketFactory((SSLSocketFactory) SSLSocketFactory.getDefault());
-        try {
-            if (con.getResponseCode() == HttpsURLConnection.HTTP_OK) {
-                builder.up();
-            } else {
-                builder.down();
-            }
-        } finally {
-            con.disconnect();
+        HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, uri.toURL());
+        request.setConnectTimeout(toIntExact(connectTimeout.toMillis()));
+        if (idpHttpClient.send(request).getStatusCode() == HTTPResponse.SC_OK) {
+            builder.up();
+        } else {
+            builder.down();
         }
     }
 }
@@ -1,7 +1,5 @@
 package ee.ria.eidas.proxy.specific.monitoring.health;
 
-import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
-import eu.eidas.auth.commons.light.ILightResponse;
 import org.apache.ignite.Ignite;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -22,11 +20,13 @@ public class IgniteClusterHealthIndicator extends AbstractHealthIndicator {
 
     @Lazy
     @Autowired
-    private Cache<String, CorrelatedRequestsHolder> idpRequestCommunicationCache;
+    @Qualifier("specificMSIdpRequestCorrelationMap")
+    private Cache<String, Object> idpRequestCommunicationCache;
 
     @Lazy
     @Autowired
-    private Cache<String, ILightResponse> idpConsentCommunicationCache;
+    @Qualifier("specificMSIdpConsentCorrelationMap")
+    private Cache<String, Object> idpConsentCommunicationCache;
 
     @Lazy
     @Autowired
@@ -0,0 +1,44 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeRegistry;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable lookup index over an {@link AttributeRegistry}, built once at startup. Resolves attribute definitions by
+ * name URI and by friendly name without traversing the registry. A friendly name resolves to the same definition as
+ * {@code registry.getByFriendlyName(friendlyName).first()}.
+ */
+public class AttributeRegistryIndex {
+    private final Collection<AttributeDefinition<?>> attributes;
+    private final Map<String, AttributeDefinition<?>> byNameUri;
+    private final Map<String, AttributeDefinition<?>> byFriendlyName;
+
+    public AttributeRegistryIndex(AttributeRegistry registry) {
+        this.attributes = Collections.unmodifiableCollection(registry.getAttributes());
+        Map<String, AttributeDefinition<?>> nameUriIndex = new HashMap<>();
+        Map<String, AttributeDefinition<?>> friendlyNameIndex = new HashMap<>();
+        for (AttributeDefinition<?> definition : attributes) {
+            nameUriIndex.putIfAbsent(definition.getNameUri().toASCIIString(), definition);
+            friendlyNameIndex.computeIfAbsent(definition.getFriendlyName(), name -> registry.getByFriendlyName(name).first());
+        }
+        this.byNameUri = Collections.unmodifiableMap(nameUriIndex);
+        this.byFriendlyName = Collections.unmodifiableMap(friendlyNameIndex);
+    }
+
+    public AttributeDefinition<?> getByNameUri(String nameUri) {
+        return nameUri == null ? null : byNameUri.get(nameUri);
+    }
+
+    public AttributeDefinition<?> getByFriendlyName(String friendlyName) {
+        return friendlyName == null ? null : byFriendlyName.get(friendlyName);
+    }
+
+    public Collection<AttributeDefinition<?>> getAttributes() {
+        return attributes;
+    }
+}
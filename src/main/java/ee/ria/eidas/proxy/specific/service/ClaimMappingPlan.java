@@ -0,0 +1,175 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSet;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.IdTokenClaimMappingProperties;
+import ee.ria.eidas.proxy.specific.service.IdTokenClaimExtractor.Claims;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.light.ILightRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ID-token claim mapping of {@link IdTokenClaimMappingProperties} prepared at startup. Claim paths are registered
+ * with an {@link IdTokenClaimExtractor}, post processing rules are compiled once and the eIDAS attribute definitions
+ * are resolved once. The attribute extractors for a LightRequest are cached per distinct list of requested attributes
+ * in a {@link RequestedAttributesCache}.
+ */
+@Slf4j
+public class ClaimMappingPlan implements MeterBinder {
+
+    private final IdTokenClaimExtractor claimExtractor = new IdTokenClaimExtractor();
+    private final ClaimPath naturalPersonSubject;
+    private final ClaimPath legalPersonSubject;
+    private final ClaimPath id;
+    private final ClaimPath issuer;
+    private final ClaimPath acr;
+    private final Map<String, ClaimPath> attributeClaims;
+    private final Map<String, Pattern> attributePostProcessing;
+    private final AttributeRegistryIndex eidasAttributeRegistryIndex;
+    private final RequestedAttributesCache<List<AttributeExtractor>> extractorsByRequestedAttributes;
+
+    public ClaimMappingPlan(IdTokenClaimMappingProperties mappingProperties, AttributeRegistryIndex eidasAttributeRegistryIndex) {
+        this(mappingProperties, eidasAttributeRegistryIndex, RequestedAttributesCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    ClaimMappingPlan(IdTokenClaimMappingProperties mappingProperties, AttributeRegistryIndex eidasAttributeRegistryIndex, int maxCachedAttributeLists) {
+        this.naturalPersonSubject = new ClaimPath("subject", mappingProperties.getNaturalPersonSubject(), claimExtractor);
+        this.legalPersonSubject = new ClaimPath("subject", mappingProperties.getLegalPersonSubject(), claimExtractor);
+        this.id = new ClaimPath("responseId", mappingProperties.getId(), claimExtractor);
+        this.issuer = new ClaimPath("issuer", mappingProperties.getIssuer(), claimExtractor);
+        this.acr = new ClaimPath("loa", mappingProperties.getAcr(), claimExtractor);
+        Map<String, ClaimPath> attributes = new HashMap<>();
+        mappingProperties.getAttributes().forEach((friendlyName, jsonPath) -> {
+            if (StringUtils.isNotEmpty(jsonPath)) {
+                attributes.put(friendlyName, new ClaimPath(friendlyName, jsonPath, claimExtractor));
+            }
+        });
+        this.attributeClaims = Collections.unmodifiableMap(attributes);
+        Map<String, Pattern> postProcessing = new HashMap<>();
+        mappingProperties.getAttributesPostProcessing().forEach((friendlyName, regexp) -> postProcessing.put(friendlyName, Pattern.compile(regexp)));
+        this.attributePostProcessing = Collections.unmodifiableMap(postProcessing);
+        this.eidasAttributeRegistryIndex = eidasAttributeRegistryIndex;
+        this.extractorsByRequestedAttributes = new RequestedAttributesCache<>("id-token-claim-mapping-plan", maxCachedAttributeLists);
+    }
+
+    Claims extract(ClaimsSet claimsSet) {
+        return claimExtractor.extract(claimsSet);
+    }
+
+    String getSubject(Claims claims, boolean legalPerson) {
+        return legalPerson ? legalPersonSubject.read(claims) : naturalPersonSubject.read(claims);
+    }
+
+    String getId(Claims claims) {
+        return id.read(claims);
+    }
+
+    String getIssuer(Claims claims) {
+        return issuer.read(claims);
+    }
+
+    String getAcr(Claims claims) {
+        return acr.read(claims);
+    }
+
+    ImmutableAttributeMap getAttributes(ILightRequest lightRequest, Claims claims) {
+        ImmutableAttributeMap.Builder builder = ImmutableAttributeMap.builder();
+        for (AttributeExtractor extractor : getExtractors(lightRequest)) {
+            extractor.extract(claims, builder);
+        }
+        return builder.build();
+    }
+
+    List<AttributeExtractor> getExtractors(ILightRequest lightRequest) {
+        return extractorsByRequestedAttributes.get(lightRequest, this::createExtractors);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        extractorsByRequestedAttributes.bindTo(registry);
+    }
+
+    private List<AttributeExtractor> createExtractors(List<AttributeDefinition<?>> requestedAttributes) {
+        List<AttributeExtractor> extractors = new ArrayList<>(requestedAttributes.size());
+        for (AttributeDefinition<?> requestedAttribute : requestedAttributes) {
+            String friendlyName = requestedAttribute.getFriendlyName();
+            extractors.add(new AttributeExtractor(friendlyName, requestedAttribute.isRequired(), attributeClaims.get(friendlyName),
+                    attributePostProcessing.get(friendlyName), eidasAttributeRegistryIndex.getByFriendlyName(friendlyName)));
+        }
+        return Collections.unmodifiableList(extractors);
+    }
+
+    private static final class ClaimPath {
+        private final String name;
+        private final String jsonPath;
+        private final int slot;
+
+        ClaimPath(String name, String jsonPath, IdTokenClaimExtractor claimExtractor) {
+            this.name = name;
+            this.jsonPath = jsonPath;
+            this.slot = claimExtractor.register(jsonPath);
+        }
+
+        String read(Claims claims) {
+            Object value = claims.get(slot);
+            if (value == IdTokenClaimExtractor.MISSING) {
+                throw new IllegalStateException(String.format("Failed to read attribute (%s) value from ID-token with jsonpath (%s). Please check your configuration", name, jsonPath));
+            }
+            return (String) value;
+        }
+    }
+
+    static final class AttributeExtractor {
+        private final String friendlyName;
+        private final boolean required;
+        private final ClaimPath claim;
+        private final Pattern postProcessing;
+        private final AttributeDefinition<?> definition;
+
+        AttributeExtractor(String friendlyName, boolean required, ClaimPath claim, Pattern postProcessing, AttributeDefinition<?> definition) {
+            this.friendlyName = friendlyName;
+            this.required = required;
+            this.claim = claim;
+            this.postProcessing = postProcessing;
+            this.definition = definition;
+        }
+
+        void extract(Claims claims, ImmutableAttributeMap.Builder builder) {
+            if (claim == null) {
+                Assert.isTrue(!required, "Required attribute " + friendlyName + " has no jsonpath configured to extract claim from id-token");
+                log.warn("Ignoring optional attribute {} - no mapping configured to extract it's corresponding value from id-token", friendlyName);
+                return;
+            }
+            String claimValue = claim.read(claims);
+            if (claimValue == null) {
+                return;
+            }
+            String attributeValue = postProcessing == null ? claimValue : postProcess(claimValue);
+            if (definition == null) {
+                throw new IllegalStateException(String.format("Attribute %s not present in the registry", friendlyName));
+            }
+            builder.put(definition, attributeValue);
+        }
+
+        private String postProcess(String value) {
+            Matcher matcher = postProcessing.matcher(value);
+            if (matcher.find()) {
+                return matcher.group("attributeValue");
+            } else {
+                throw new IllegalStateException(String.format("Attribute '%s' with value '%s' does not match the expected format %s", friendlyName, value, postProcessing.pattern()));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSet;
+import net.minidev.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads all configured ID-token claims in a single traversal of the claims set. Claim paths in dot or bracket
+ * notation ({@code $.a.b}, {@code $['a']['b']}) are merged into a tree of property names, so that shared prefixes
+ * such as {@code $.profile_attributes} are looked up once. Other JsonPath expressions are evaluated with JsonPath.
+ * <p>
+ * A claim is missing when JsonPath would fail with {@link PathNotFoundException}: a property on the path does not
+ * exist, or an intermediate value is not a JSON object. A property that exists with a {@code null} value is read as
+ * {@code null}.
+ */
+class IdTokenClaimExtractor {
+    static final Object MISSING = new Object();
+    private static final Object NOT_READ = new Object();
+    private static final Pattern SIMPLE_PATH = Pattern.compile("^\\$((?:\\.[A-Za-z0-9_-]+|\\['[^'\\\\]+'])+)$");
+    private static final Pattern PATH_SEGMENT = Pattern.compile("\\.([A-Za-z0-9_-]+)|\\['([^'\\\\]+)']");
+
+    private final Node root = new Node();
+    private final List<JsonPath> jsonPathsBySlot = new ArrayList<>();
+
+    /**
+     * Registers a claim path and returns the slot of its value in {@link Claims}.
+     */
+    int register(String jsonPath) {
+        int slot = jsonPathsBySlot.size();
+        Matcher simplePath = SIMPLE_PATH.matcher(jsonPath);
+        if (simplePath.matches()) {
+            Node node = root;
+            Matcher segment = PATH_SEGMENT.matcher(simplePath.group(1));
+            while (segment.find()) {
+                String name = segment.group(1) != null ? segment.group(1) : segment.group(2);
+                node = node.children.computeIfAbsent(name, n -> new Node());
+            }
+            node.slots.add(slot);
+            jsonPathsBySlot.add(null);
+        } else {
+            jsonPathsBySlot.add(JsonPath.compile(jsonPath));
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the name of the top-level claim of a dot or bracket notation path, or {@code null} for other paths.
+     */
+    static String getTopLevelClaimName(String jsonPath) {
+        Matcher simplePath = SIMPLE_PATH.matcher(jsonPath);
+        if (!simplePath.matches()) {
+            return null;
+        }
+        Matcher segment = PATH_SEGMENT.matcher(simplePath.group(1));
+        segment.find();
+        return segment.group(1) != null ? segment.group(1) : segment.group(2);
+    }
+
+    Claims extract(ClaimsSet claimsSet) {
+        Object[] values = new Object[jsonPathsBySlot.size()];
+        for (int slot = 0; slot < values.length; slot++) {
+            values[slot] = jsonPathsBySlot.get(slot) == null ? MISSING : NOT_READ;
+        }
+        Claims claims = new Claims(claimsSet, values);
+        for (Map.Entry<String, Node> child : root.children.entrySet()) {
+            Object value = claimsSet.getClaim(child.getKey());
+            if (value != null || claims.getJsonObject().containsKey(child.getKey())) {
+                collect(child.getValue(), value, values);
+            }
+        }
+        return claims;
+    }
+
+    private static void collect(Node node, Object value, Object[] values) {
+        for (int slot : node.slots) {
+            values[slot] = value;
+        }
+        if (node.children.isEmpty() || !(value instanceof Map)) {
+            return;
+        }
+        Map<?, ?> object = (Map<?, ?>) value;
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            Object childValue = object.get(child.getKey());
+            if (childValue != null || object.containsKey(child.getKey())) {
+                collect(child.getValue(), childValue, values);
+            }
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new LinkedHashMap<>();
+        private final List<Integer> slots = new ArrayList<>(1);
+    }
+
+    final class Claims {
+        private final ClaimsSet claimsSet;
+        private final Object[] values;
+        private JSONObject jsonObject;
+
+        private Claims(ClaimsSet claimsSet, Object[] values) {
+            this.claimsSet = claimsSet;
+            this.values = values;
+        }
+
+        /**
+         * Returns the claim value of the slot or {@link #MISSING}.
+         */
+        Object get(int slot) {
+            Object value = values[slot];
+            if (value == NOT_READ) {
+                value = readJsonPath(jsonPathsBySlot.get(slot));
+                values[slot] = value;
+            }
+            return value;
+        }
+
+        /**
+         * {@link ClaimsSet} does not expose its claims map, and {@link ClaimsSet#toJSONObject()} copies it. The copy
+         * is made at most once per claims set, and only for claims with a {@code null} value or for JsonPath
+         * expressions.
+         */
+        private JSONObject getJsonObject() {
+            if (jsonObject == null) {
+                jsonObject = claimsSet.toJSONObject();
+            }
+            return jsonObject;
+        }
+
+        private Object readJsonPath(JsonPath jsonPath) {
+            try {
+                return jsonPath.read(getJsonObject());
+            } catch (PathNotFoundException e) {
+                return MISSING;
+            }
+        }
+    }
+}
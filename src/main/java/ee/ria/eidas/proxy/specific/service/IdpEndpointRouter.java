@@ -0,0 +1,221 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties.IdpEndpointProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.DEFAULT_OIDC_PROVIDER_ID;
+
+/**
+ * Routes requests between equivalent deployments of the OpenID Connect provider, configured with
+ * {@code eidas.proxy.oidc.endpoints}. All deployments share the issuer, metadata and signing keys. Only the scheme,
+ * host and port of the endpoint URLs from the metadata are replaced.
+ * <p>
+ * Authentication requests go to an endpoint chosen at random, weighted by the configured weight divided by the
+ * average token request latency of the endpoint. An endpoint that fails to respond a number of times in a row is
+ * skipped until the recovery interval has passed. Token requests go to the endpoint that received the authentication
+ * request. The other endpoints follow, in the order of their score, in case it cannot be connected to. The endpoint
+ * id is stored with the pending authentication request, so the ids must be unique.
+ * <p>
+ * The bean routes the endpoints of the default OIDC provider. The routers of the additional providers are created by
+ * {@link OidcProviderRegistry} from their own {@code endpoints} configuration.
+ */
+@Slf4j
+@Service
+public class IdpEndpointRouter {
+    private static final String METRIC_REQUESTS = "eidas.proxy.idp.endpoint.requests";
+    private static final String METRIC_SELECTIONS = "eidas.proxy.idp.endpoint.selections";
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final String providerId;
+    private final List<IdpEndpoint> endpoints;
+    private final MeterRegistry meterRegistry;
+    private final int failureThreshold;
+    private final long recoveryIntervalNanos;
+
+    @Autowired
+    public IdpEndpointRouter(SpecificProxyServiceProperties specificProxyServiceProperties, MeterRegistry meterRegistry) {
+        this(DEFAULT_OIDC_PROVIDER_ID, specificProxyServiceProperties.getOidc(), meterRegistry);
+    }
+
+    public IdpEndpointRouter(String providerId, OidcProviderProperties oidcProperties, MeterRegistry meterRegistry) {
+        List<IdpEndpoint> configuredEndpoints = new ArrayList<>();
+        Set<String> endpointIds = new HashSet<>();
+        for (IdpEndpointProperties endpointProperties : oidcProperties.getEndpoints()) {
+            Assert.isTrue(endpointIds.add(endpointProperties.getId()),
+                    "Duplicate IDP endpoint id: " + endpointProperties.getId() + ". Please check your configuration");
+            configuredEndpoints.add(new IdpEndpoint(endpointProperties));
+        }
+        this.providerId = providerId;
+        this.endpoints = Collections.unmodifiableList(configuredEndpoints);
+        this.meterRegistry = meterRegistry;
+        this.failureThreshold = oidcProperties.getEndpointFailureThreshold();
+        this.recoveryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(oidcProperties.getEndpointRecoveryIntervalInMilliseconds());
+    }
+
+    public boolean isEnabled() {
+        return !endpoints.isEmpty();
+    }
+
+    /**
+     * Chooses the endpoint for a new authentication request.
+     */
+    public IdpEndpoint select() {
+        long now = System.nanoTime();
+        List<IdpEndpoint> candidates = new ArrayList<>(endpoints.size());
+        for (IdpEndpoint endpoint : endpoints) {
+            if (endpoint.isAvailable(now)) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = endpoints;
+        }
+        double totalScore = 0;
+        for (IdpEndpoint endpoint : candidates) {
+            totalScore += endpoint.getScore();
+        }
+        double random = ThreadLocalRandom.current().nextDouble(totalScore);
+        IdpEndpoint selected = candidates.get(candidates.size() - 1);
+        for (IdpEndpoint endpoint : candidates) {
+            random -= endpoint.getScore();
+            if (random < 0) {
+                selected = endpoint;
+                break;
+            }
+        }
+        meterRegistry.counter(METRIC_SELECTIONS, "provider", providerId, "endpoint", selected.getId()).increment();
+        return selected;
+    }
+
+    /**
+     * Returns the endpoints to try for a token request: the endpoint with the given id first, then the other
+     * available endpoints by descending score, then the unavailable ones.
+     */
+    public List<IdpEndpoint> getFailoverOrder(String preferredEndpointId) {
+        long now = System.nanoTime();
+        List<IdpEndpoint> order = new ArrayList<>(endpoints);
+        order.sort(Comparator.<IdpEndpoint, Boolean>comparing(endpoint -> !endpoint.getId().equals(preferredEndpointId))
+                .thenComparing(endpoint -> !endpoint.isAvailable(now))
+                .thenComparing(IdpEndpoint::getScore, Comparator.reverseOrder()));
+        return order;
+    }
+
+    public void recordSuccess(IdpEndpoint endpoint, long durationNanos) {
+        endpoint.recordLatency(durationNanos);
+        endpoint.consecutiveFailures.set(0);
+        requestTimer(endpoint, "success").record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a request that reached the endpoint but returned an error, which does not affect the endpoint
+     * availability.
+     */
+    public void recordError(IdpEndpoint endpoint, long durationNanos) {
+        endpoint.recordLatency(durationNanos);
+        endpoint.consecutiveFailures.set(0);
+        requestTimer(endpoint, "error").record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordUnavailable(IdpEndpoint endpoint, long durationNanos) {
+        int failures = endpoint.consecutiveFailures.incrementAndGet();
+        if (failures >= failureThreshold) {
+            endpoint.unavailableUntilNanos = System.nanoTime() + recoveryIntervalNanos;
+            endpoint.unavailable = true;
+            log.warn("IDP endpoint '{}' of OIDC provider '{}' marked unavailable after {} consecutive failures", endpoint.getId(), providerId, failures);
+        }
+        requestTimer(endpoint, "unavailable").record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * A token request is retried on another endpoint only when the connection could not be established, because the
+     * authorization code may already have been used otherwise. A timeout waiting for a pooled connection is local and
+     * says nothing about the endpoint.
+     */
+    public static boolean isConnectFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectionPoolTimeoutException) {
+                return false;
+            }
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Timer requestTimer(IdpEndpoint endpoint, String outcome) {
+        return Timer.builder(METRIC_REQUESTS)
+                .tag("provider", providerId)
+                .tag("endpoint", endpoint.getId())
+                .tag("outcome", outcome)
+                .description("Token requests sent to the IDP endpoint")
+                .register(meterRegistry);
+    }
+
+    public static final class IdpEndpoint {
+        @Getter
+        private final String id;
+        private final URI baseUri;
+        private final int weight;
+        private volatile double averageLatencyMillis;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long unavailableUntilNanos;
+        private volatile boolean unavailable;
+
+        IdpEndpoint(IdpEndpointProperties properties) {
+            this.id = properties.getId();
+            this.baseUri = URI.create(properties.getBaseUrl());
+            this.weight = properties.getWeight();
+        }
+
+        /**
+         * Replaces the scheme, host and port of an endpoint URI from the provider metadata with those of this
+         * endpoint.
+         */
+        public URI rewrite(URI uri) {
+            return UriComponentsBuilder.fromUri(uri)
+                    .scheme(baseUri.getScheme())
+                    .host(baseUri.getHost())
+                    .port(baseUri.getPort())
+                    .build(true)
+                    .toUri();
+        }
+
+        double getScore() {
+            return weight / Math.max(averageLatencyMillis, 1.0);
+        }
+
+        boolean isAvailable(long now) {
+            return !unavailable || now - unavailableUntilNanos >= 0;
+        }
+
+        private void recordLatency(long durationNanos) {
+            double latencyMillis = durationNanos / 1_000_000.0;
+            double average = averageLatencyMillis;
+            averageLatencyMillis = average == 0 ? latencyMillis : average + LATENCY_SMOOTHING * (latencyMillis - average);
+        }
+    }
+}
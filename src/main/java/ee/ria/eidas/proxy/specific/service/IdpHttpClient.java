@@ -0,0 +1,205 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jose.util.ResourceRetriever;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties.HttpClientProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared HTTP client for all outbound IdP traffic: discovery, JWKS, token requests and the health check. Connections
+ * are pooled and kept alive, and all TLS connections are created from the same SSL context, so that the TLS session
+ * cache is shared and sessions can be resumed when a new connection is needed.
+ * <p>
+ * Nimbus {@link HTTPRequest}s are executed with this client instead of {@link HTTPRequest#send()}, which opens a new
+ * {@code HttpURLConnection} for each request. Connect and read timeouts set on the {@link HTTPRequest} override the
+ * configured defaults.
+ */
+@Slf4j
+public class IdpHttpClient implements MeterBinder, Closeable {
+    private static final String METRIC_NAME = "idp";
+    private static final String METRIC_TLS_HANDSHAKES = "eidas.proxy.idp.http.tls.handshakes";
+    private static final int MAX_RESOURCE_SIZE_BYTES = 51200;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final RequestConfig defaultRequestConfig;
+    private final ResourceRetriever resourceRetriever = this::retrieveResource;
+    private volatile Counter tlsHandshakes;
+
+    public IdpHttpClient(OidcProviderProperties oidcProperties) {
+        HttpClientProperties properties = oidcProperties.getHttpClient();
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new CountingSSLConnectionSocketFactory())
+                .build();
+        connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(properties.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(properties.getMaxConnectionsPerRoute());
+        defaultRequestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(properties.getConnectionRequestTimeoutInMilliseconds())
+                .setConnectTimeout(oidcProperties.getConnectTimeoutInMilliseconds())
+                .setSocketTimeout(oidcProperties.getReadTimeoutInMilliseconds())
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(defaultRequestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(properties.getIdleConnectionTimeoutInMilliseconds(), TimeUnit.MILLISECONDS)
+                .disableCookieManagement()
+                .build();
+    }
+
+    public HTTPResponse send(HTTPRequest httpRequest) throws IOException {
+        RequestBuilder requestBuilder = RequestBuilder.create(httpRequest.getMethod().name())
+                .setConfig(getRequestConfig(httpRequest));
+        String query = httpRequest.getQuery();
+        if (query != null && (httpRequest.getMethod() == HTTPRequest.Method.GET || httpRequest.getMethod() == HTTPRequest.Method.DELETE)) {
+            requestBuilder.setUri(httpRequest.getURL().toString() + '?' + query);
+        } else {
+            requestBuilder.setUri(httpRequest.getURL().toString());
+            if (query != null) {
+                requestBuilder.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
+            }
+        }
+        for (Map.Entry<String, List<String>> header : httpRequest.getHeaderMap().entrySet()) {
+            for (String value : header.getValue()) {
+                requestBuilder.addHeader(header.getKey(), value);
+            }
+        }
+
+        try (CloseableHttpResponse response = httpClient.execute(requestBuilder.build())) {
+            HTTPResponse httpResponse = new HTTPResponse(response.getStatusLine().getStatusCode());
+            httpResponse.setStatusMessage(response.getStatusLine().getReasonPhrase());
+            for (Header header : response.getAllHeaders()) {
+                httpResponse.setHeader(header.getName(), header.getValue());
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                String content = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+                if (!content.isEmpty()) {
+                    httpResponse.setContent(content);
+                }
+            }
+            return httpResponse;
+        }
+    }
+
+    /**
+     * Returns a retriever for fetching the JWKS with this client.
+     */
+    public ResourceRetriever getResourceRetriever() {
+        return resourceRetriever;
+    }
+
+    private Resource retrieveResource(URL url) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(RequestBuilder.get(url.toString()).build())) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (statusCode != 200) {
+                EntityUtils.consumeQuietly(entity);
+                throw new IOException("HTTP " + statusCode + ": " + response.getStatusLine().getReasonPhrase());
+            }
+            if (entity == null) {
+                throw new IOException("Empty response from " + url);
+            }
+            ContentType contentType = ContentType.get(entity);
+            Charset charset = contentType != null && contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+            return new Resource(new String(readLimited(entity), charset), contentType != null ? contentType.toString() : null);
+        }
+    }
+
+    private static byte[] readLimited(HttpEntity entity) throws IOException {
+        try (InputStream in = entity.getContent()) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+                if (content.size() > MAX_RESOURCE_SIZE_BYTES) {
+                    throw new IOException("Exceeded configured input limit of " + MAX_RESOURCE_SIZE_BYTES + " bytes");
+                }
+            }
+            return content.toByteArray();
+        }
+    }
+
+    private RequestConfig getRequestConfig(HTTPRequest httpRequest) {
+        if (httpRequest.getConnectTimeout() <= 0 && httpRequest.getReadTimeout() <= 0) {
+            return defaultRequestConfig;
+        }
+        RequestConfig.Builder requestConfig = RequestConfig.copy(defaultRequestConfig);
+        if (httpRequest.getConnectTimeout() > 0) {
+            requestConfig.setConnectTimeout(httpRequest.getConnectTimeout());
+        }
+        if (httpRequest.getReadTimeout() > 0) {
+            requestConfig.setSocketTimeout(httpRequest.getReadTimeout());
+        }
+        return requestConfig.build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, METRIC_NAME).bindTo(registry);
+        tlsHandshakes = Counter.builder(METRIC_TLS_HANDSHAKES)
+                .description("Number of TLS handshakes completed on connections to the IdP")
+                .register(registry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    private final class CountingSSLConnectionSocketFactory extends SSLConnectionSocketFactory {
+
+        CountingSSLConnectionSocketFactory() {
+            super(SSLContexts.createSystemDefault(), SSLConnectionSocketFactory.getDefaultHostnameVerifier());
+        }
+
+        @Override
+        protected void prepareSocket(SSLSocket socket) {
+            socket.addHandshakeCompletedListener(event -> {
+                Counter counter = tlsHandshakes;
+                if (counter != null) {
+                    counter.increment();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.proc.JWSKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.URL;
+import java.security.Key;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.nimbusds.jose.JWSAlgorithm.RS256;
+import static ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.DEFAULT_OIDC_PROVIDER_ID;
+
+/**
+ * Selects the ID-token signature verification keys from the IdP JWKS. The JWKS is fetched when the OIDC metadata is
+ * updated and refreshed in the background, and its RSA keys are converted to {@link RSAPublicKey}s once per refresh,
+ * so that token validation never waits for the JWKS endpoint.
+ * <p>
+ * A token signed with an unknown key id triggers a refetch, for example after a key rotation at the IdP, and so does a
+ * token without a key id while no keys are loaded. Concurrent refetches are coalesced into one request, and at most
+ * one refetch is made per configured minimum interval.
+ * <p>
+ * The bean serves the default OIDC provider. The key selectors of the additional providers are created and refreshed
+ * by {@link OidcProviderRegistry}.
+ */
+@Slf4j
+@Service
+public class IdpJwksKeySelector implements JWSKeySelector<SecurityContext> {
+    private static final String METRIC_REFRESH = "eidas.proxy.oidc.jwks.refresh";
+    private static final String METRIC_KID_MISSES = "eidas.proxy.oidc.jwks.kid.misses";
+    private static final String TRIGGER_SCHEDULED = "scheduled";
+    private static final String TRIGGER_METADATA_UPDATE = "metadata_update";
+    private static final String TRIGGER_UNKNOWN_KID = "unknown_kid";
+
+    private final String providerId;
+    private final OidcProviderProperties oidcProperties;
+    private final IdpHttpClient idpHttpClient;
+    private final MeterRegistry meterRegistry;
+    private volatile JwksKeys jwksKeys = JwksKeys.EMPTY;
+    private volatile URL jwkSetUrl;
+    private volatile long lastFetchNanos;
+
+    @Autowired
+    public IdpJwksKeySelector(SpecificProxyServiceProperties specificProxyServiceProperties, IdpHttpClient idpHttpClient,
+                              MeterRegistry meterRegistry) {
+        this(DEFAULT_OIDC_PROVIDER_ID, specificProxyServiceProperties.getOidc(), idpHttpClient, meterRegistry);
+    }
+
+    public IdpJwksKeySelector(String providerId, OidcProviderProperties oidcProperties, IdpHttpClient idpHttpClient,
+                              MeterRegistry meterRegistry) {
+        this.providerId = providerId;
+        this.oidcProperties = oidcProperties;
+        this.idpHttpClient = idpHttpClient;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Sets the JWKS URL from the updated OIDC metadata and fetches its keys. When the fetch fails, the previous keys
+     * are kept until the next refresh.
+     *
+     * @throws IllegalStateException if the fetch fails and no keys have been loaded yet
+     */
+    public synchronized void update(URL jwkSetUrl) {
+        this.jwkSetUrl = jwkSetUrl;
+        try {
+            fetchKeys(TRIGGER_METADATA_UPDATE);
+        } catch (Exception e) {
+            if (jwksKeys == JwksKeys.EMPTY) {
+                throw new IllegalStateException("Unable to load OIDC JWKS: " + jwkSetUrl, e);
+            }
+            log.warn("Unable to update OIDC JWKS, keeping previous keys: {}", jwkSetUrl, e);
+        }
+    }
+
+    /**
+     * Sets the JWKS URL and keys from a previously fetched JWKS without contacting the IdP.
+     */
+    public synchronized void load(URL jwkSetUrl, JWKSet jwkSet) throws JOSEException {
+        this.jwkSetUrl = jwkSetUrl;
+        jwksKeys = JwksKeys.from(jwkSet);
+    }
+
+    /**
+     * Returns the JWKS the current keys were selected from, or {@code null} if no JWKS has been loaded yet.
+     */
+    public JWKSet getJwkSet() {
+        return jwksKeys.jwkSet;
+    }
+
+    @Scheduled(fixedDelayString = "${eidas.proxy.oidc.jwks.refresh-interval-in-milliseconds:300000}",
+            initialDelayString = "${eidas.proxy.oidc.jwks.refresh-interval-in-milliseconds:300000}")
+    public synchronized void refreshKeys() {
+        if (jwkSetUrl != null) {
+            refreshKeys(TRIGGER_SCHEDULED);
+        }
+    }
+
+    @Override
+    public List<? extends Key> selectJWSKeys(JWSHeader header, SecurityContext context) {
+        if (!RS256.equals(header.getAlgorithm())) {
+            return Collections.emptyList();
+        }
+        String kid = header.getKeyID();
+        JwksKeys keys = jwksKeys;
+        if (kid == null) {
+            return keys.allKeys.isEmpty() ? refreshOnUnknownKid(keys).allKeys : keys.allKeys;
+        }
+        List<RSAPublicKey> selectedKeys = keys.keysById.get(kid);
+        if (selectedKeys == null) {
+            meterRegistry.counter(METRIC_KID_MISSES, "provider", providerId).increment();
+            selectedKeys = refreshOnUnknownKid(keys).keysById.get(kid);
+        }
+        return selectedKeys != null ? selectedKeys : Collections.emptyList();
+    }
+
+    private synchronized JwksKeys refreshOnUnknownKid(JwksKeys seenKeys) {
+        if (jwksKeys != seenKeys || jwkSetUrl == null) {
+            return jwksKeys;
+        }
+        long minRefreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(oidcProperties.getJwks().getMinRefreshIntervalInMilliseconds());
+        if (System.nanoTime() - lastFetchNanos < minRefreshIntervalNanos) {
+            return jwksKeys;
+        }
+        refreshKeys(TRIGGER_UNKNOWN_KID);
+        return jwksKeys;
+    }
+
+    private void refreshKeys(String trigger) {
+        try {
+            fetchKeys(trigger);
+        } catch (Exception e) {
+            log.warn("Unable to update OIDC JWKS, keeping previous keys: {}", jwkSetUrl, e);
+        }
+    }
+
+    private void fetchKeys(String trigger) throws Exception {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        lastFetchNanos = System.nanoTime();
+        try {
+            JWKSet jwkSet = JWKSet.parse(idpHttpClient.getResourceRetriever().retrieve(jwkSetUrl).getContent());
+            jwksKeys = JwksKeys.from(jwkSet);
+            sample.stop(refreshTimer(trigger, "success"));
+            log.info("Successfully updated OIDC JWKS with {} signing keys: {}", jwksKeys.allKeys.size(), jwkSetUrl);
+        } catch (Exception e) {
+            sample.stop(refreshTimer(trigger, "failure"));
+            throw e;
+        }
+    }
+
+    private Timer refreshTimer(String trigger, String outcome) {
+        return Timer.builder(METRIC_REFRESH)
+                .tag("provider", providerId)
+                .tag("trigger", trigger)
+                .tag("outcome", outcome)
+                .description("Time spent fetching the OIDC provider JWKS")
+                .register(meterRegistry);
+    }
+
+    private static final class JwksKeys {
+        private static final JwksKeys EMPTY = new JwksKeys(null, Collections.emptyMap(), Collections.emptyList());
+        private final JWKSet jwkSet;
+        private final Map<String, List<RSAPublicKey>> keysById;
+        private final List<RSAPublicKey> allKeys;
+
+        private JwksKeys(JWKSet jwkSet, Map<String, List<RSAPublicKey>> keysById, List<RSAPublicKey> allKeys) {
+            this.jwkSet = jwkSet;
+            this.keysById = keysById;
+            this.allKeys = allKeys;
+        }
+
+        static JwksKeys from(JWKSet jwkSet) throws JOSEException {
+            Map<String, List<RSAPublicKey>> keysById = new HashMap<>();
+            List<RSAPublicKey> allKeys = new ArrayList<>();
+            for (JWK jwk : jwkSet.getKeys()) {
+                if (!isRsaSigningKey(jwk)) {
+                    continue;
+                }
+                RSAPublicKey publicKey = jwk.toRSAKey().toRSAPublicKey();
+                allKeys.add(publicKey);
+                if (jwk.getKeyID() != null) {
+                    keysById.computeIfAbsent(jwk.getKeyID(), kid -> new ArrayList<>()).add(publicKey);
+                }
+            }
+            keysById.replaceAll((kid, keys) -> Collections.unmodifiableList(keys));
+            return new JwksKeys(jwkSet, Collections.unmodifiableMap(keysById), Collections.unmodifiableList(allKeys));
+        }
+
+        private static boolean isRsaSigningKey(JWK jwk) {
+            return jwk instanceof RSAKey
+                    && (jwk.getKeyUse() == null || KeyUse.SIGNATURE.equals(jwk.getKeyUse()))
+                    && (jwk.getAlgorithm() == null || RS256.getName().equals(jwk.getAlgorithm().getName()));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Resolves the IP address of the OpenID Connect issuer for LightResponses. The address is resolved at startup and
+ * refreshed in the background, so that callbacks do not wait for DNS. When a refresh fails, the last resolved address
+ * is kept. Only when no address has been resolved yet, it is resolved in the calling thread.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IssuerIpResolver {
+    private static final String METRIC_REFRESH = "eidas.proxy.oidc.issuer.ip.refresh";
+    private final AtomicReference<String> issuerIp = new AtomicReference<>();
+    private final SpecificProxyServiceProperties specificProxyServiceProperties;
+    private final MeterRegistry meterRegistry;
+
+    public String getIssuerIp() throws UnknownHostException, MalformedURLException {
+        String ip = issuerIp.get();
+        if (ip == null) {
+            ip = resolveIssuerIp();
+            issuerIp.compareAndSet(null, ip);
+        }
+        return ip;
+    }
+
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${eidas.proxy.oidc.issuer-ip.refresh-interval-in-milliseconds:300000}",
+            initialDelayString = "${eidas.proxy.oidc.issuer-ip.refresh-interval-in-milliseconds:300000}")
+    public void refreshIssuerIp() {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            issuerIp.set(resolveIssuerIp());
+            sample.stop(refreshTimer("success"));
+        } catch (UnknownHostException | MalformedURLException e) {
+            sample.stop(refreshTimer("failure"));
+            log.warn("Unable to resolve OIDC issuer IP address, keeping previous value: {}", issuerIp.get(), e);
+        }
+    }
+
+    private String resolveIssuerIp() throws UnknownHostException, MalformedURLException {
+        return InetAddress.getByName(new URL(specificProxyServiceProperties.getOidc().getIssuerUrl()).getHost()).getHostAddress();
+    }
+
+    private Timer refreshTimer(String outcome) {
+        return Timer.builder(METRIC_REFRESH)
+                .tag("outcome", outcome)
+                .description("Time spent resolving the OIDC issuer IP address")
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,112 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.protocol.impl.SamlNameIdFormat;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+
+/**
+ * LightRequest validation rules compiled once at startup. Country codes are held in a bitset indexed by the two
+ * letters, the supported SP types and NameID formats in hash sets and the attribute categories as bitmasks per
+ * friendly name. A request is classified once with {@link #classify(ILightRequest)} and the {@link Classification} is
+ * passed on to the scope and subject selection.
+ */
+public class LightRequestRules {
+    static final List<String> LEGAL_PERSON_ATTRIBUTES = asList("LegalName", "LegalPersonIdentifier");
+    static final List<String> NATURAL_PERSON_ATTRIBUTES = asList("GivenName", "FamilyName", "PersonIdentifier", "DateOfBirth");
+    private static final int NATURAL_PERSON = 1;
+    private static final int LEGAL_PERSON = 1 << 1;
+    private static final int LETTERS = 'Z' - 'A' + 1;
+    private static final Classification[] CLASSIFICATIONS = {
+            new Classification(0), new Classification(NATURAL_PERSON),
+            new Classification(LEGAL_PERSON), new Classification(NATURAL_PERSON | LEGAL_PERSON)};
+
+    private final BitSet countryCodes = new BitSet(LETTERS * LETTERS);
+    private final Set<String> supportedSpTypes;
+    private final Set<String> nameIdFormats = new HashSet<>();
+    private final Map<String, Integer> attributeCategories = new HashMap<>();
+
+    public LightRequestRules(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        for (String countryCode : Locale.getISOCountries()) {
+            countryCodes.set(getCountryCodeIndex(countryCode));
+        }
+        supportedSpTypes = Collections.unmodifiableSet(new HashSet<>(specificProxyServiceProperties.getSupportedSpTypes()));
+        for (SamlNameIdFormat nameIdFormat : SamlNameIdFormat.values()) {
+            nameIdFormats.add(nameIdFormat.getNameIdFormat());
+        }
+        NATURAL_PERSON_ATTRIBUTES.forEach(friendlyName -> attributeCategories.merge(friendlyName, NATURAL_PERSON, (a, b) -> a | b));
+        LEGAL_PERSON_ATTRIBUTES.forEach(friendlyName -> attributeCategories.merge(friendlyName, LEGAL_PERSON, (a, b) -> a | b));
+    }
+
+    public boolean isSupportedSpType(String spType) {
+        return spType != null && supportedSpTypes.contains(spType);
+    }
+
+    /**
+     * @return {@code true} if the value is an ISO 3166-1 alpha-2 country code known to {@link Locale#getISOCountries()}
+     */
+    public boolean isCountryCode(String countryCode) {
+        int index = getCountryCodeIndex(countryCode);
+        return index >= 0 && countryCodes.get(index);
+    }
+
+    /**
+     * @return {@code true} if the NameID format is not set or is resolved by {@link SamlNameIdFormat#fromString(String)}
+     */
+    public boolean isValidNameIdFormat(String nameIdFormat) {
+        return nameIdFormat == null || nameIdFormats.contains(nameIdFormat);
+    }
+
+    public Classification classify(ILightRequest lightRequest) {
+        int categories = 0;
+        for (AttributeDefinition<?> requestedAttribute : lightRequest.getRequestedAttributes().getDefinitions()) {
+            Integer attributeCategory = attributeCategories.get(requestedAttribute.getFriendlyName());
+            if (attributeCategory != null) {
+                categories |= attributeCategory;
+            }
+        }
+        return CLASSIFICATIONS[categories];
+    }
+
+    private static int getCountryCodeIndex(String countryCode) {
+        if (countryCode == null || countryCode.length() != 2) {
+            return -1;
+        }
+        int first = countryCode.charAt(0) - 'A';
+        int second = countryCode.charAt(1) - 'A';
+        if (first < 0 || first >= LETTERS || second < 0 || second >= LETTERS) {
+            return -1;
+        }
+        return first * LETTERS + second;
+    }
+
+    /**
+     * Categories of the attributes requested in a LightRequest.
+     */
+    public static final class Classification {
+        private final int categories;
+
+        private Classification(int categories) {
+            this.categories = categories;
+        }
+
+        public boolean containsNaturalPersonAttributes() {
+            return (categories & NATURAL_PERSON) != 0;
+        }
+
+        public boolean containsLegalPersonAttributes() {
+            return (categories & LEGAL_PERSON) != 0;
+        }
+    }
+}
@@ -1,36 +1,115 @@
 package ee.ria.eidas.proxy.specific.service;
 
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jwt.JWT;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.http.HTTPResponse;
 import com.nimbusds.oauth2.sdk.id.ClientID;
 import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.openid.connect.sdk.claims.IDTokenClaimsSet;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderConfigurationRequest;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import com.nimbusds.openid.connect.sdk.validators.IDTokenValidator;
 import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
 import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties;
-import lombok.RequiredArgsConstructor;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties.MetadataProperties;
+import ee.ria.eidas.proxy.specific.storage.OidcMetadataClusterCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Recover;
 import org.springframework.retry.annotation.Retryable;
+import org.springframework.retry.backoff.FixedBackOffPolicy;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static com.nimbusds.jose.JWSAlgorithm.RS256;
+import static ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.DEFAULT_OIDC_PROVIDER_ID;
 
+/**
+ * Holds the OIDC provider metadata and the ID-token validator. When a snapshot file is configured, the last
+ * successfully fetched metadata and JWKS are stored in it and used at startup, while fresh metadata is fetched in the
+ * background. Scheduled refreshes run on a dedicated thread after a random delay, so that the proxy nodes do not
+ * contact the IdP at the same moment, and a failed refresh keeps serving the previous metadata.
+ * <p>
+ * When the metadata is shared through the cluster, a refresh fetches the metadata from the IdP only on the node that
+ * acquires the lease, which then publishes it, or releases the lease if it fails to. The other nodes use the
+ * published metadata. If nothing newer is published within the lease duration, they fetch the metadata from the IdP
+ * themselves. A node that starts when no metadata has been published yet fetches and publishes it.
+ * <p>
+ * The background refresh does not go through the Spring proxy, so it retries the metadata update with a
+ * {@link RetryTemplate} configured with the same attempts and backoff as {@link #updateMetadata()}.
+ * <p>
+ * The bean serves the default OIDC provider {@code eidas.proxy.oidc}. The services of the additional providers
+ * {@code eidas.proxy.oidc-providers} are created, scheduled and destroyed by {@link OidcProviderRegistry}, and do not
+ * share their metadata through the cluster.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class OIDCProviderMetadataService {
     private static final String HTTPS_PROTOCOL = "https";
+    private static final String METRIC_ID_TOKEN_VALIDATION = "eidas.proxy.oidc.id-token.validation";
+    private static final String METRIC_METADATA_AGE = "eidas.proxy.oidc.metadata.age";
+    private static final String METRIC_METADATA_REFRESH = "eidas.proxy.oidc.metadata.refresh";
+    private static final String METRIC_METADATA_PUBLISHED_AGE = "eidas.proxy.oidc.metadata.published.age";
+    private static final String METRIC_METADATA_LEASE_OWNER = "eidas.proxy.oidc.metadata.lease.owner";
     private final AtomicReference<OIDCProviderMetadata> oidcProviderMetadata = new AtomicReference<>();
     private final AtomicReference<IDTokenValidator> oidcIDTokenValidator = new AtomicReference<>();
-    private final SpecificProxyServiceProperties specificProxyServiceProperties;
+    private final ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor(refreshThreadFactory());
+    private final String providerId;
+    private final OidcProviderProperties oidcProperties;
+    private final IdpHttpClient idpHttpClient;
+    private final IdpJwksKeySelector idpJwksKeySelector;
+    private final MeterRegistry meterRegistry;
+    private volatile Instant metadataFetchedAt;
+    private volatile Instant publishedMetadataFetchedAt;
+    private volatile boolean leaseOwner;
+    private RetryTemplate refreshRetryTemplate;
+    private OidcMetadataClusterCache oidcMetadataClusterCache;
+
+    @Autowired
+    public OIDCProviderMetadataService(SpecificProxyServiceProperties specificProxyServiceProperties, IdpHttpClient idpHttpClient,
+                                       IdpJwksKeySelector idpJwksKeySelector, MeterRegistry meterRegistry) {
+        this(DEFAULT_OIDC_PROVIDER_ID, specificProxyServiceProperties.getOidc(), idpHttpClient, idpJwksKeySelector, meterRegistry);
+    }
+
+    public OIDCProviderMetadataService(String providerId, OidcProviderProperties oidcProperties, IdpHttpClient idpHttpClient,
+                                       IdpJwksKeySelector idpJwksKeySelector, MeterRegistry meterRegistry) {
+        this.providerId = providerId;
+        this.oidcProperties = oidcProperties;
+        this.idpHttpClient = idpHttpClient;
+        this.idpJwksKeySelector = idpJwksKeySelector;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Autowired(required = false)
+    void setOidcMetadataClusterCache(OidcMetadataClusterCache oidcMetadataClusterCache) {
+        this.oidcMetadataClusterCache = oidcMetadataClusterCache;
+    }
 
     public OIDCProviderMetadata getOidcProviderMetadata() {
         return oidcProviderMetadata.get();
@@ -40,18 +119,270 @@ public class OIDCProviderMetadataService {
         return oidcIDTokenValidator.get();
     }
 
+    public IDTokenClaimsSet validateIdToken(JWT idToken) throws BadJOSEException, JOSEException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return getIdTokenValidator().validate(idToken, null);
+        } finally {
+            sample.stop(meterRegistry.timer(METRIC_ID_TOKEN_VALIDATION, "provider", providerId));
+        }
+    }
+
     @PostConstruct
+    public void init() {
+        refreshRetryTemplate = createRefreshRetryTemplate(oidcProperties.getMetadata());
+        Gauge.builder(METRIC_METADATA_AGE, this, OIDCProviderMetadataService::getMetadataAgeInSeconds)
+                .tag("provider", providerId)
+                .description("Time since the OIDC provider metadata in use was fetched")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        if (oidcMetadataClusterCache != null) {
+            Gauge.builder(METRIC_METADATA_PUBLISHED_AGE, this, OIDCProviderMetadataService::getPublishedMetadataAgeInSeconds)
+                    .tag("provider", providerId)
+                    .description("Time since the OIDC provider metadata last seen in the cluster cache was fetched")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+            Gauge.builder(METRIC_METADATA_LEASE_OWNER, this, service -> service.leaseOwner ? 1 : 0)
+                    .tag("provider", providerId)
+                    .description("Whether this node fetched the OIDC provider metadata for the cluster in the last refresh")
+                    .register(meterRegistry);
+        }
+        if (loadPublishedMetadata() || loadSnapshot()) {
+            refreshExecutor.execute(this::refreshMetadata);
+        } else {
+            updateMetadata();
+            if (oidcMetadataClusterCache != null) {
+                publishMetadata();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refreshExecutor.shutdownNow();
+    }
+
     @Scheduled(cron = "${eidas.proxy.oidc.metadata.update-schedule:0 0 0/24 * * ?}")
+    public void scheduleMetadataRefresh() {
+        long jitter = oidcProperties.getMetadata().getRefreshJitterInMilliseconds();
+        long delay = jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0;
+        refreshExecutor.schedule(this::refreshMetadata, delay, TimeUnit.MILLISECONDS);
+    }
+
     @Retryable(value = {IllegalStateException.class}, maxAttemptsExpression = "${eidas.proxy.oidc.metadata.max-attempts:3}",
             backoff = @Backoff(delayExpression = "${eidas.proxy.oidc.metadata.backoff-delay-in-milliseconds:60000}"))
     public void updateMetadata() throws RuntimeException {
-        log.info("Updating OIDC metadata for issuer: {}", specificProxyServiceProperties.getOidc().getIssuerUrl());
-        oidcProviderMetadata.set(requestOidcProviderMetadata());
-        oidcIDTokenValidator.set(createIdTokenValidator());
+        log.info("Updating OIDC metadata for issuer: {}", oidcProperties.getIssuerUrl());
+        try {
+            OIDCProviderMetadata metadata = requestOidcProviderMetadata();
+            oidcProviderMetadata.set(metadata);
+            oidcIDTokenValidator.set(createIdTokenValidator(metadata, null));
+            metadataFetchedAt = Instant.now();
+            meterRegistry.counter(METRIC_METADATA_REFRESH, "provider", providerId, "outcome", "success").increment();
+        } catch (IllegalStateException e) {
+            meterRegistry.counter(METRIC_METADATA_REFRESH, "provider", providerId, "outcome", "failure").increment();
+            throw e;
+        }
+        writeSnapshot();
+    }
+
+    private void refreshMetadata() {
+        if (oidcMetadataClusterCache != null) {
+            refreshSharedMetadata(false);
+        } else {
+            refreshLocalMetadata();
+        }
+    }
+
+    private boolean refreshLocalMetadata() {
+        try {
+            refreshRetryTemplate.execute(context -> {
+                updateMetadata();
+                return null;
+            });
+            return true;
+        } catch (IllegalStateException e) {
+            log.error("Unable to update OIDC metadata, using metadata fetched at: {}", metadataFetchedAt, e);
+            return false;
+        } catch (RuntimeException e) {
+            log.warn("Unable to refresh OIDC metadata, using metadata fetched at: {}", metadataFetchedAt, e);
+            return false;
+        }
+    }
+
+    private void refreshSharedMetadata(boolean leaseHolderAwaited) {
+        try {
+            if (oidcMetadataClusterCache.tryAcquireLease()) {
+                leaseOwner = true;
+                if (!refreshLocalMetadata() || !publishMetadata()) {
+                    releaseLease();
+                }
+                return;
+            }
+            leaseOwner = false;
+            if (loadPublishedMetadata()) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to use cluster-shared OIDC metadata, fetching metadata from IdP", e);
+            refreshLocalMetadata();
+            return;
+        }
+        if (leaseHolderAwaited) {
+            log.warn("No OIDC metadata published by the lease holder, fetching metadata from IdP");
+            refreshLocalMetadata();
+        } else {
+            long leaseDuration = oidcProperties.getMetadata().getCluster().getLeaseDurationInMilliseconds();
+            refreshExecutor.schedule(() -> refreshSharedMetadata(true), leaseDuration, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean publishMetadata() {
+        OidcMetadataSnapshot snapshot = createSnapshot();
+        if (snapshot == null) {
+            return false;
+        }
+        try {
+            oidcMetadataClusterCache.publish(snapshot.toJSONString());
+            publishedMetadataFetchedAt = snapshot.getFetchedAt();
+            log.info("Published OIDC metadata fetched at {} to the cluster", snapshot.getFetchedAt());
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Unable to publish OIDC metadata to the cluster", e);
+            return false;
+        }
+    }
+
+    /**
+     * Releases the lease after a failed refresh, so that the other nodes do not wait for metadata that will not be
+     * published and the next node to refresh fetches it.
+     */
+    private void releaseLease() {
+        leaseOwner = false;
+        try {
+            oidcMetadataClusterCache.releaseLease();
+            log.info("Released OIDC metadata lease after failed refresh");
+        } catch (RuntimeException e) {
+            log.warn("Unable to release OIDC metadata lease", e);
+        }
+    }
+
+    /**
+     * Uses the metadata published by another node, if it is newer than the metadata in use.
+     */
+    private boolean loadPublishedMetadata() {
+        if (oidcMetadataClusterCache == null) {
+            return false;
+        }
+        try {
+            String publishedMetadata = oidcMetadataClusterCache.getPublished();
+            if (publishedMetadata == null) {
+                return false;
+            }
+            OidcMetadataSnapshot snapshot = OidcMetadataSnapshot.parse(publishedMetadata);
+            publishedMetadataFetchedAt = snapshot.getFetchedAt();
+            Instant fetchedAt = metadataFetchedAt;
+            if (!isUsable(snapshot) || (fetchedAt != null && !snapshot.getFetchedAt().isAfter(fetchedAt))) {
+                return false;
+            }
+            applySnapshot(snapshot);
+            meterRegistry.counter(METRIC_METADATA_REFRESH, "provider", providerId, "outcome", "shared").increment();
+            log.info("Loaded OIDC metadata fetched at {} from the cluster", snapshot.getFetchedAt());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to load OIDC metadata from the cluster", e);
+            return false;
+        }
+        writeSnapshot();
+        return true;
+    }
+
+    private double getMetadataAgeInSeconds() {
+        return getAgeInSeconds(metadataFetchedAt);
+    }
+
+    private double getPublishedMetadataAgeInSeconds() {
+        return getAgeInSeconds(publishedMetadataFetchedAt);
+    }
+
+    private static double getAgeInSeconds(Instant fetchedAt) {
+        return fetchedAt != null ? Duration.between(fetchedAt, Instant.now()).toMillis() / 1000.0 : Double.NaN;
+    }
+
+    private boolean loadSnapshot() {
+        Path snapshotFile = getSnapshotFile();
+        if (snapshotFile == null || !Files.exists(snapshotFile)) {
+            return false;
+        }
+        String issuerUrl = oidcProperties.getIssuerUrl();
+        try {
+            OidcMetadataSnapshot snapshot = OidcMetadataSnapshot.read(snapshotFile);
+            if (!isUsable(snapshot)) {
+                log.warn("Ignoring OIDC metadata snapshot of issuer {}: {}", snapshot.getIssuerUrl(), snapshotFile);
+                return false;
+            }
+            applySnapshot(snapshot);
+            log.info("Loaded OIDC metadata snapshot fetched at {} for issuer: {}", snapshot.getFetchedAt(), issuerUrl);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.warn("Unable to load OIDC metadata snapshot: {}", snapshotFile, e);
+            return false;
+        }
+    }
+
+    private boolean isUsable(OidcMetadataSnapshot snapshot) {
+        return oidcProperties.getIssuerUrl().equals(snapshot.getIssuerUrl()) && snapshot.getJwkSet() != null;
+    }
+
+    private void applySnapshot(OidcMetadataSnapshot snapshot) {
+        oidcProviderMetadata.set(snapshot.getMetadata());
+        oidcIDTokenValidator.set(createIdTokenValidator(snapshot.getMetadata(), snapshot.getJwkSet()));
+        metadataFetchedAt = snapshot.getFetchedAt();
+    }
+
+    private OidcMetadataSnapshot createSnapshot() {
+        JWKSet jwkSet = idpJwksKeySelector.getJwkSet();
+        if (jwkSet == null) {
+            return null;
+        }
+        return new OidcMetadataSnapshot(oidcProperties.getIssuerUrl(), metadataFetchedAt,
+                getOidcProviderMetadata(), jwkSet);
+    }
+
+    private void writeSnapshot() {
+        Path snapshotFile = getSnapshotFile();
+        OidcMetadataSnapshot snapshot = createSnapshot();
+        if (snapshotFile == null || snapshot == null) {
+            return;
+        }
+        try {
+            snapshot.write(snapshotFile);
+        } catch (IOException e) {
+            log.warn("Unable to write OIDC metadata snapshot: {}", snapshotFile, e);
+        }
+    }
+
+    private Path getSnapshotFile() {
+        String snapshotFile = oidcProperties.getMetadata().getSnapshotFile();
+        return snapshotFile != null ? Paths.get(snapshotFile) : null;
+    }
+
+    private static RetryTemplate createRefreshRetryTemplate(MetadataProperties metadataProperties) {
+        RetryTemplate retryTemplate = new RetryTemplate();
+        retryTemplate.setRetryPolicy(new SimpleRetryPolicy(metadataProperties.getMaxAttempts(),
+                Collections.singletonMap(IllegalStateException.class, true)));
+        FixedBackOffPolicy backOffPolicy = new FixedBackOffPolicy();
+        backOffPolicy.setBackOffPeriod(metadataProperties.getBackoffDelayInMilliseconds());
+        retryTemplate.setBackOffPolicy(backOffPolicy);
+        return retryTemplate;
+    }
+
+    private static ThreadFactory refreshThreadFactory() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("oidc-metadata-refresh-");
+        threadFactory.setDaemon(true);
+        return threadFactory;
     }
 
     private OIDCProviderMetadata requestOidcProviderMetadata() {
-        OidcProviderProperties oidcProperties = specificProxyServiceProperties.getOidc();
         String issuerUrl = oidcProperties.getIssuerUrl();
         try {
             Issuer issuer = new Issuer(issuerUrl);
@@ -62,7 +393,7 @@ public class OIDCProviderMetadataService {
             HTTPRequest httpRequest = request.toHTTPRequest();
             httpRequest.setConnectTimeout(oidcProperties.getConnectTimeoutInMilliseconds());
             httpRequest.setReadTimeout(oidcProperties.getReadTimeoutInMilliseconds());
-            HTTPResponse httpResponse = httpRequest.send();
+            HTTPResponse httpResponse = idpHttpClient.send(httpRequest);
             if (!httpResponse.indicatesSuccess()) {
                 throw new IllegalStateException("Failed to fetch OpenID Connect provider metadata from issuer: "
                         + issuerUrl + ", Invalid response status: " + httpResponse.getStatusCode());
@@ -77,22 +408,26 @@ public class OIDCProviderMetadataService {
         }
     }
 
-    private IDTokenValidator createIdTokenValidator() {
+    private IDTokenValidator createIdTokenValidator(OIDCProviderMetadata oidcProviderMetadata, JWKSet snapshotJwkSet) {
         try {
-            OIDCProviderMetadata oidcProviderMetadata = getOidcProviderMetadata();
             Issuer iss = new Issuer(oidcProviderMetadata.getIssuer());
-            ClientID clientID = new ClientID(specificProxyServiceProperties.getOidc().getClientId());
+            ClientID clientID = new ClientID(oidcProperties.getClientId());
             URL jwkSetURL = oidcProviderMetadata.getJWKSetURI().toURL();
             if (!HTTPS_PROTOCOL.equals(jwkSetURL.getProtocol())) {
                 log.warn("JWKS URL returned by OpenID Connect provider metadata is not using HTTPS protocol: {}",
                         jwkSetURL);
             }
-            IDTokenValidator validator = new IDTokenValidator(iss, clientID, RS256, jwkSetURL);
-            validator.setMaxClockSkew(specificProxyServiceProperties.getOidc().getMaxClockSkewInSeconds());
-            log.info("Successfully updated OIDC token validator for issuer: {}", specificProxyServiceProperties.getOidc().getIssuerUrl());
+            if (snapshotJwkSet != null) {
+                idpJwksKeySelector.load(jwkSetURL, snapshotJwkSet);
+            } else {
+                idpJwksKeySelector.update(jwkSetURL);
+            }
+            IDTokenValidator validator = new IDTokenValidator(iss, clientID, idpJwksKeySelector, null);
+            validator.setMaxClockSkew(oidcProperties.getMaxClockSkewInSeconds());
+            log.info("Successfully updated OIDC token validator for issuer: {}", oidcProperties.getIssuerUrl());
             return validator;
         } catch (Exception e) {
-            throw new IllegalStateException("Failed to setup OpenID Connect token validator for issuer: " + specificProxyServiceProperties.getOidc().getIssuerUrl(), e);
+            throw new IllegalStateException("Failed to setup OpenID Connect token validator for issuer: " + oidcProperties.getIssuerUrl(), e);
         }
     }
 
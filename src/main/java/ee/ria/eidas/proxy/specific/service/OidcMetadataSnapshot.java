@@ -0,0 +1,84 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+
+/**
+ * Last successfully fetched OIDC provider metadata and JWKS of an issuer, stored as a local JSON file, so that the
+ * service can start with them when the IdP is slow or unavailable. The same JSON is shared with the other proxy nodes
+ * through {@link ee.ria.eidas.proxy.specific.storage.OidcMetadataClusterCache}.
+ */
+@Getter
+@RequiredArgsConstructor
+class OidcMetadataSnapshot {
+    private static final String FIELD_ISSUER = "issuer";
+    private static final String FIELD_FETCHED_AT = "fetched_at";
+    private static final String FIELD_METADATA = "metadata";
+    private static final String FIELD_JWKS = "jwks";
+
+    private final String issuerUrl;
+    private final Instant fetchedAt;
+    private final OIDCProviderMetadata metadata;
+    private final JWKSet jwkSet;
+
+    static OidcMetadataSnapshot read(Path file) throws IOException {
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        try {
+            return parse(content);
+        } catch (IOException e) {
+            throw new IOException("Invalid OIDC metadata snapshot: " + file, e.getCause());
+        }
+    }
+
+    static OidcMetadataSnapshot parse(String content) throws IOException {
+        try {
+            JSONObject snapshot = (JSONObject) JSONValue.parseWithException(content);
+            JSONObject jwks = (JSONObject) snapshot.get(FIELD_JWKS);
+            return new OidcMetadataSnapshot(
+                    (String) snapshot.get(FIELD_ISSUER),
+                    Instant.ofEpochMilli(((Number) snapshot.get(FIELD_FETCHED_AT)).longValue()),
+                    OIDCProviderMetadata.parse((JSONObject) snapshot.get(FIELD_METADATA)),
+                    jwks != null ? JWKSet.parse(jwks) : null);
+        } catch (Exception e) {
+            throw new IOException("Invalid OIDC metadata snapshot", e);
+        }
+    }
+
+    String toJSONString() {
+        JSONObject snapshot = new JSONObject();
+        snapshot.put(FIELD_ISSUER, issuerUrl);
+        snapshot.put(FIELD_FETCHED_AT, fetchedAt.toEpochMilli());
+        snapshot.put(FIELD_METADATA, metadata.toJSONObject());
+        if (jwkSet != null) {
+            snapshot.put(FIELD_JWKS, jwkSet.toJSONObject(true));
+        }
+        return snapshot.toJSONString();
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first and then moves it in place, so that a crash during the write
+     * never leaves a partial snapshot behind.
+     */
+    void write(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, toJSONString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.RoutedOidcProviderProperties;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.protocol.eidas.LevelOfAssurance;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.DEFAULT_OIDC_PROVIDER_ID;
+
+/**
+ * Holds the OpenID Connect providers that authentication requests are routed to: the default provider configured with
+ * {@code eidas.proxy.oidc}, and the additional providers configured with {@code eidas.proxy.oidc-providers}. Each
+ * provider has its own metadata, ID-token validator with JWKS cache, and {@link IdpEndpointRouter} for failover between
+ * its equivalent endpoints.
+ * <p>
+ * A LightRequest is routed to the first additional provider, in the configured order, whose rules all match it, and to
+ * the default provider otherwise. The citizen country rule matches a listed country, the level of assurance rule a
+ * listed level, and the requested attributes rule a request for at least one of the listed attributes. A rule that is
+ * not configured matches any request. The chosen provider id is stored with the pending authentication request, so
+ * that the callback is validated against the same provider.
+ * <p>
+ * The metadata and JWKS of the additional providers are refreshed on the schedules of the default provider.
+ */
+@Slf4j
+@Service
+public class OidcProviderRegistry {
+    private static final String METRIC_SELECTIONS = "eidas.proxy.oidc.provider.selections";
+    private static final String METRIC_TOKEN_REQUESTS = "eidas.proxy.oidc.provider.token.requests";
+
+    private final OidcProvider defaultProvider;
+    private final List<OidcProvider> routedProviders;
+    private final Map<String, OidcProvider> providersById;
+    private final MeterRegistry meterRegistry;
+
+    public OidcProviderRegistry(SpecificProxyServiceProperties specificProxyServiceProperties,
+                                OIDCProviderMetadataService oidcProviderMetadataService, IdpEndpointRouter idpEndpointRouter,
+                                IdpHttpClient idpHttpClient, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.defaultProvider = new OidcProvider(DEFAULT_OIDC_PROVIDER_ID, specificProxyServiceProperties.getOidc(),
+                oidcProviderMetadataService, null, idpEndpointRouter, meterRegistry);
+        List<OidcProvider> configuredProviders = new ArrayList<>();
+        Map<String, OidcProvider> configuredProvidersById = new HashMap<>();
+        configuredProvidersById.put(DEFAULT_OIDC_PROVIDER_ID, defaultProvider);
+        for (RoutedOidcProviderProperties providerProperties : specificProxyServiceProperties.getOidcProviders()) {
+            String providerId = providerProperties.getId();
+            IdpJwksKeySelector keySelector = new IdpJwksKeySelector(providerId, providerProperties, idpHttpClient, meterRegistry);
+            OidcProvider provider = new OidcProvider(providerId, providerProperties,
+                    new OIDCProviderMetadataService(providerId, providerProperties, idpHttpClient, keySelector, meterRegistry),
+                    keySelector, new IdpEndpointRouter(providerId, providerProperties, meterRegistry), meterRegistry);
+            provider.citizenCountries.addAll(providerProperties.getCitizenCountries());
+            provider.levelsOfAssurance.addAll(providerProperties.getLevelsOfAssurance());
+            provider.requestedAttributes.addAll(providerProperties.getRequestedAttributes());
+            configuredProviders.add(provider);
+            configuredProvidersById.put(providerId, provider);
+        }
+        this.routedProviders = Collections.unmodifiableList(configuredProviders);
+        this.providersById = Collections.unmodifiableMap(configuredProvidersById);
+    }
+
+    @PostConstruct
+    public void init() {
+        for (OidcProvider provider : routedProviders) {
+            log.info("Initializing OIDC provider '{}' for issuer: {}", provider.getId(), provider.getProperties().getIssuerUrl());
+            provider.getMetadataService().init();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (OidcProvider provider : routedProviders) {
+            provider.getMetadataService().destroy();
+        }
+    }
+
+    @Scheduled(cron = "${eidas.proxy.oidc.metadata.update-schedule:0 0 0/24 * * ?}")
+    public void scheduleMetadataRefresh() {
+        for (OidcProvider provider : routedProviders) {
+            provider.getMetadataService().scheduleMetadataRefresh();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${eidas.proxy.oidc.jwks.refresh-interval-in-milliseconds:300000}",
+            initialDelayString = "${eidas.proxy.oidc.jwks.refresh-interval-in-milliseconds:300000}")
+    public void refreshKeys() {
+        for (OidcProvider provider : routedProviders) {
+            provider.keySelector.refreshKeys();
+        }
+    }
+
+    /**
+     * Chooses the provider for a new authentication request.
+     */
+    public OidcProvider select(ILightRequest lightRequest) {
+        OidcProvider selected = defaultProvider;
+        for (OidcProvider provider : routedProviders) {
+            if (provider.matches(lightRequest)) {
+                selected = provider;
+                break;
+            }
+        }
+        meterRegistry.counter(METRIC_SELECTIONS, "provider", selected.getId()).increment();
+        return selected;
+    }
+
+    /**
+     * Returns the provider the authentication request was routed to.
+     *
+     * @param providerId id stored with the pending authentication request, or {@code null} for the default provider
+     * @throws IllegalStateException if no provider is configured with the id
+     */
+    public OidcProvider get(String providerId) {
+        if (providerId == null) {
+            return defaultProvider;
+        }
+        OidcProvider provider = providersById.get(providerId);
+        if (provider == null) {
+            throw new IllegalStateException("Unknown OIDC provider: " + providerId);
+        }
+        return provider;
+    }
+
+    public static final class OidcProvider {
+        @Getter
+        private final String id;
+        @Getter
+        private final OidcProviderProperties properties;
+        @Getter
+        private final OIDCProviderMetadataService metadataService;
+        @Getter
+        private final IdpEndpointRouter endpointRouter;
+        private final IdpJwksKeySelector keySelector;
+        private final MeterRegistry meterRegistry;
+        private final Set<String> citizenCountries = new HashSet<>();
+        private final Set<String> levelsOfAssurance = new HashSet<>();
+        private final Set<String> requestedAttributes = new HashSet<>();
+
+        OidcProvider(String id, OidcProviderProperties properties, OIDCProviderMetadataService metadataService,
+                     IdpJwksKeySelector keySelector, IdpEndpointRouter endpointRouter, MeterRegistry meterRegistry) {
+            this.id = id;
+            this.properties = properties;
+            this.metadataService = metadataService;
+            this.keySelector = keySelector;
+            this.endpointRouter = endpointRouter;
+            this.meterRegistry = meterRegistry;
+        }
+
+        /**
+         * Records the duration of a token request to the provider, including the failover between its endpoints.
+         */
+        public void recordTokenRequest(String outcome, long durationNanos) {
+            Timer.builder(METRIC_TOKEN_REQUESTS)
+                    .tag("provider", id)
+                    .tag("outcome", outcome)
+                    .description("Token requests sent to the OIDC provider")
+                    .register(meterRegistry)
+                    .record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        boolean matches(ILightRequest lightRequest) {
+            return (citizenCountries.isEmpty() || citizenCountries.contains(lightRequest.getCitizenCountryCode()))
+                    && (levelsOfAssurance.isEmpty() || levelsOfAssurance.contains(getLevelOfAssurance(lightRequest)))
+                    && (requestedAttributes.isEmpty() || containsRequestedAttribute(lightRequest));
+        }
+
+        private boolean containsRequestedAttribute(ILightRequest lightRequest) {
+            if (lightRequest.getRequestedAttributes() == null) {
+                return false;
+            }
+            for (AttributeDefinition<?> definition : lightRequest.getRequestedAttributes().getDefinitions()) {
+                if (requestedAttributes.contains(definition.getFriendlyName())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String getLevelOfAssurance(ILightRequest lightRequest) {
+            LevelOfAssurance loa = lightRequest.getLevelOfAssurance() != null ? LevelOfAssurance.fromString(lightRequest.getLevelOfAssurance()) : null;
+            return loa != null ? loa.name().toLowerCase() : null;
+        }
+    }
+}
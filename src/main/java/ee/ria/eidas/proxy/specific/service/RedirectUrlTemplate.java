@@ -0,0 +1,94 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import lombok.Getter;
+import org.springframework.util.Assert;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Redirect URL with the base URL and the static query parameters encoded once. Per request only the dynamic query
+ * parameters are encoded and appended. Parameter names and values are encoded the same way as by
+ * {@link org.springframework.web.util.UriComponentsBuilder#encode()}.
+ */
+public final class RedirectUrlTemplate {
+
+    @Getter
+    private final String baseUrl;
+    private final String prefix;
+    private final boolean hasQuery;
+
+    private RedirectUrlTemplate(String baseUrl, String prefix, boolean hasQuery) {
+        this.baseUrl = baseUrl;
+        this.prefix = prefix;
+        this.hasQuery = hasQuery;
+    }
+
+    public static Builder builder(String baseUrl) {
+        return new Builder(baseUrl);
+    }
+
+    public Expansion expand() {
+        return new Expansion(new StringBuilder(prefix.length() + 256).append(prefix), hasQuery ? '&' : '?');
+    }
+
+    private static void appendQueryParam(StringBuilder url, char separator, String name, String value) {
+        url.append(separator).append(UriUtils.encodeQueryParam(name, StandardCharsets.UTF_8));
+        if (value != null) {
+            url.append('=').append(UriUtils.encodeQueryParam(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    public static final class Builder {
+        private final String baseUrl;
+        private final StringBuilder prefix;
+        private boolean hasQuery;
+
+        private Builder(String baseUrl) {
+            Assert.hasText(baseUrl, "Redirect base URL is required");
+            Assert.isTrue(baseUrl.indexOf('#') < 0, "Redirect base URL may not contain a fragment");
+            this.baseUrl = baseUrl;
+            this.prefix = new StringBuilder(baseUrl);
+            int queryStart = baseUrl.indexOf('?');
+            this.hasQuery = queryStart >= 0 && queryStart < baseUrl.length() - 1;
+            if (queryStart == baseUrl.length() - 1) {
+                prefix.setLength(queryStart);
+            }
+        }
+
+        public Builder queryParam(String name, String value) {
+            appendQueryParam(prefix, hasQuery ? '&' : '?', name, value);
+            hasQuery = true;
+            return this;
+        }
+
+        public RedirectUrlTemplate build() {
+            return new RedirectUrlTemplate(baseUrl, prefix.toString(), hasQuery);
+        }
+    }
+
+    public static final class Expansion {
+        private final StringBuilder url;
+        private char separator;
+
+        private Expansion(StringBuilder url, char separator) {
+            this.url = url;
+            this.separator = separator;
+        }
+
+        /**
+         * Appends a query parameter. Parameters with a {@code null} value are skipped.
+         */
+        public Expansion queryParam(String name, String value) {
+            if (value != null) {
+                appendQueryParam(url, separator, name, value);
+                separator = '&';
+            }
+            return this;
+        }
+
+        public String toUriString() {
+            return url.toString();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.light.ILightRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of values prepared per distinct list of requested attributes. The least recently used lists are
+ * evicted when the cache is full. Hits, misses and evictions are exposed as the Micrometer {@code cache.*} metrics,
+ * tagged with the cache name.
+ */
+final class RequestedAttributesCache<V> {
+    static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    private final String name;
+    private final Cache<List<AttributeDefinition<?>>, V> cache;
+
+    RequestedAttributesCache(String name, int maximumSize) {
+        this.name = name;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    V get(ILightRequest lightRequest, Function<List<AttributeDefinition<?>>, V> valueFactory) {
+        List<AttributeDefinition<?>> requestedAttributes = new ArrayList<>(lightRequest.getRequestedAttributes().getDefinitions());
+        V value = cache.getIfPresent(requestedAttributes);
+        if (value == null) {
+            value = valueFactory.apply(requestedAttributes);
+            cache.put(requestedAttributes, value);
+        }
+        return value;
+    }
+
+    void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, cache, name);
+    }
+}
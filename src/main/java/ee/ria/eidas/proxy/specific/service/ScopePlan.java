@@ -0,0 +1,117 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.IdTokenClaimMappingProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties;
+import ee.ria.eidas.proxy.specific.service.LightRequestRules.Classification;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.light.ILightRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
+import net.minidev.json.JSONValue;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Composes the {@code scope} and the optional {@code claims} parameter of the OIDC authentication request from the
+ * attributes requested in the LightRequest. The parameter values are cached per distinct list of requested attributes
+ * in a {@link RequestedAttributesCache}.
+ * The request is classified by {@link LightRequestRules} before the scope is composed.
+ * <p>
+ * By default the scope consists of {@code openid}, the configured scopes and {@code legalperson} for legal person
+ * attributes. With {@code eidas.proxy.oidc.request-attribute-scopes} the scopes mapped to the requested attributes are
+ * added. With {@code eidas.proxy.oidc.request-claims} the top-level ID-token claims mapped to the requested attributes
+ * are requested individually, as essential claims for the required attributes.
+ */
+public class ScopePlan implements MeterBinder {
+    private static final Map<String, Boolean> ESSENTIAL_CLAIM = Collections.singletonMap("essential", true);
+
+    private final List<String> scope;
+    private final Map<String, String> attributeScopes;
+    private final boolean requestAttributeScopes;
+    private final boolean requestClaims;
+    private final IdTokenClaimMappingProperties claimMapping;
+    private final RequestedAttributesCache<AuthenticationRequestScope> scopesByRequestedAttributes;
+
+    public ScopePlan(OidcProviderProperties oidcProperties) {
+        this(oidcProperties, RequestedAttributesCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    ScopePlan(OidcProviderProperties oidcProperties, int maxCachedAttributeLists) {
+        this.scope = new ArrayList<>(oidcProperties.getScope());
+        this.attributeScopes = new LinkedHashMap<>(oidcProperties.getAttributeScopeMapping());
+        this.requestAttributeScopes = oidcProperties.isRequestAttributeScopes();
+        this.requestClaims = oidcProperties.isRequestClaims();
+        this.claimMapping = oidcProperties.getResponseClaimMapping();
+        this.scopesByRequestedAttributes = new RequestedAttributesCache<>("oidc-scope-plan", maxCachedAttributeLists);
+    }
+
+    AuthenticationRequestScope get(ILightRequest lightRequest, Classification classification) {
+        boolean legalPerson = classification.containsLegalPersonAttributes();
+        return scopesByRequestedAttributes.get(lightRequest, requestedAttributes -> new AuthenticationRequestScope(
+                composeScope(requestedAttributes, legalPerson), requestClaims ? composeClaims(requestedAttributes, legalPerson) : null));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        scopesByRequestedAttributes.bindTo(registry);
+    }
+
+    private String composeScope(List<AttributeDefinition<?>> requestedAttributes, boolean legalPerson) {
+        Set<String> scopes = new LinkedHashSet<>();
+        scopes.add("openid");
+        scopes.addAll(scope);
+        if (requestAttributeScopes) {
+            for (AttributeDefinition<?> requestedAttribute : requestedAttributes) {
+                String attributeScope = attributeScopes.get(requestedAttribute.getFriendlyName());
+                if (StringUtils.isNotEmpty(attributeScope)) {
+                    scopes.add(attributeScope);
+                }
+            }
+        }
+        if (legalPerson) {
+            scopes.add("legalperson");
+        }
+        return StringUtils.join(scopes, ' ');
+    }
+
+    private String composeClaims(List<AttributeDefinition<?>> requestedAttributes, boolean legalPerson) {
+        Map<String, Object> idTokenClaims = new LinkedHashMap<>();
+        String subjectPath = legalPerson ? claimMapping.getLegalPersonSubject() : claimMapping.getNaturalPersonSubject();
+        addClaim(idTokenClaims, subjectPath, true);
+        for (AttributeDefinition<?> requestedAttribute : requestedAttributes) {
+            addClaim(idTokenClaims, claimMapping.getAttributes().get(requestedAttribute.getFriendlyName()), requestedAttribute.isRequired());
+        }
+        return JSONValue.toJSONString(Collections.singletonMap("id_token", idTokenClaims));
+    }
+
+    private static void addClaim(Map<String, Object> idTokenClaims, String jsonPath, boolean essential) {
+        String claimName = StringUtils.isEmpty(jsonPath) ? null : IdTokenClaimExtractor.getTopLevelClaimName(jsonPath);
+        if (claimName == null) {
+            return;
+        }
+        if (essential) {
+            idTokenClaims.put(claimName, ESSENTIAL_CLAIM);
+        } else {
+            idTokenClaims.putIfAbsent(claimName, null);
+        }
+    }
+
+    @Getter
+    static final class AuthenticationRequestScope {
+        private final String scope;
+        private final String claims;
+
+        AuthenticationRequestScope(String scope, String claims) {
+            this.scope = scope;
+            this.claims = claims;
+        }
+    }
+}
@@ -15,9 +15,6 @@
 
 package ee.ria.eidas.proxy.specific.service;
 
-import com.google.common.collect.ImmutableSortedSet;
-import com.jayway.jsonpath.JsonPath;
-import com.jayway.jsonpath.PathNotFoundException;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.proc.BadJOSEException;
 import com.nimbusds.jwt.JWT;
@@ -31,12 +28,12 @@ import com.nimbusds.openid.connect.sdk.OIDCTokenResponse;
 import com.nimbusds.openid.connect.sdk.OIDCTokenResponseParser;
 import com.nimbusds.openid.connect.sdk.claims.ClaimsSet;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
-import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
-import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.IdTokenClaimMappingProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties;
+import ee.ria.eidas.proxy.specific.service.IdpEndpointRouter.IdpEndpoint;
+import ee.ria.eidas.proxy.specific.service.OidcProviderRegistry.OidcProvider;
+import ee.ria.eidas.proxy.specific.storage.PregeneratedPool;
 import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication;
 import eu.eidas.auth.commons.EIDASStatusCode;
-import eu.eidas.auth.commons.attribute.AttributeDefinition;
-import eu.eidas.auth.commons.attribute.AttributeRegistry;
 import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
 import eu.eidas.auth.commons.light.ILightRequest;
 import eu.eidas.auth.commons.light.ILightResponse;
@@ -47,22 +44,16 @@ import eu.eidas.auth.commons.protocol.impl.SamlNameIdFormat;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import net.minidev.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.util.Assert;
-import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.IOException;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static ee.ria.eidas.proxy.specific.config.LogFieldNames.*;
-import static java.util.Arrays.asList;
-import static java.util.stream.Collectors.toList;
 import static net.logstash.logback.argument.StructuredArguments.value;
 import static net.logstash.logback.marker.Markers.append;
 
@@ -75,34 +66,86 @@ import static net.logstash.logback.marker.Markers.append;
 @RequiredArgsConstructor
 public class SpecificProxyService {
 
-    private final SpecificProxyServiceProperties specificProxyServiceProperties;
+    private final OidcProviderRegistry oidcProviderRegistry;
 
-    private final OIDCProviderMetadataService oidcProviderMetadataService;
+    private final ClaimMappingPlan claimMappingPlan;
 
-    private final AttributeRegistry eidasAttributeRegistry;
+    private final IssuerIpResolver issuerIpResolver;
+
+    private final ScopePlan scopePlan;
+
+    private final LightRequestRules lightRequestRules;
+
+    private final IdpHttpClient idpHttpClient;
+
+    private final PregeneratedPool<String, RuntimeException> authenticationRequestStates;
+
+    private final Map<String, Map<String, AuthenticationRequestTemplate>> authenticationRequestTemplates = new ConcurrentHashMap<>();
 
-    @SneakyThrows
     public SpecificProxyServiceCommunication.CorrelatedRequestsHolder createOidcAuthenticationRequest(ILightRequest originalIlightRequest) {
-        final String state = UUID.randomUUID().toString();
-
-        URI oidAuthenticationRequest =
-                UriComponentsBuilder.fromUri(oidcProviderMetadataService.getOidcProviderMetadata().getAuthorizationEndpointURI())
-                        .queryParam("scope", getScope(originalIlightRequest))
-                        .queryParam("response_type", "code")
-                        .queryParam("client_id", specificProxyServiceProperties.getOidc().getClientId())
-                        .queryParam("redirect_uri", specificProxyServiceProperties.getOidc().getRedirectUri())
-                        .queryParam("acr_values", getLevelOfAssurance(originalIlightRequest))
-                        .queryParam("ui_locales", specificProxyServiceProperties.getOidc().getDefaultUiLanguage())
-                        .queryParam("state", state)
-                        .encode(StandardCharsets.UTF_8).build().toUri();
-
-        return createCorrelatedRequestsHolder(originalIlightRequest, oidAuthenticationRequest.toURL(), state);
+        return createOidcAuthenticationRequest(originalIlightRequest, lightRequestRules.classify(originalIlightRequest));
     }
 
+    /**
+     * @param classification classification of the LightRequest by {@link LightRequestRules}, made during validation
+     */
     @SneakyThrows
+    public SpecificProxyServiceCommunication.CorrelatedRequestsHolder createOidcAuthenticationRequest(ILightRequest originalIlightRequest,
+                                                                                                    LightRequestRules.Classification classification) {
+        final String state = authenticationRequestStates.take();
+
+        ScopePlan.AuthenticationRequestScope requestScope = scopePlan.get(originalIlightRequest, classification);
+        OidcProvider oidcProvider = oidcProviderRegistry.select(originalIlightRequest);
+        IdpEndpointRouter idpEndpointRouter = oidcProvider.getEndpointRouter();
+        IdpEndpoint idpEndpoint = idpEndpointRouter.isEnabled() ? idpEndpointRouter.select() : null;
+
+        String oidAuthenticationRequest = getAuthenticationRequestTemplate(oidcProvider, idpEndpoint).expand()
+                .queryParam("scope", requestScope.getScope())
+                .queryParam("acr_values", getLevelOfAssurance(originalIlightRequest))
+                .queryParam("state", state)
+                .queryParam("claims", requestScope.getClaims())
+                .toUriString();
+
+        return createCorrelatedRequestsHolder(originalIlightRequest, new URL(oidAuthenticationRequest), state,
+                oidcProvider.getId(), idpEndpoint != null ? idpEndpoint.getId() : null);
+    }
+
+    private RedirectUrlTemplate getAuthenticationRequestTemplate(OidcProvider oidcProvider, IdpEndpoint idpEndpoint) {
+        URI authorizationEndpoint = oidcProvider.getMetadataService().getOidcProviderMetadata().getAuthorizationEndpointURI();
+        Map<String, AuthenticationRequestTemplate> providerTemplates = authenticationRequestTemplates
+                .computeIfAbsent(oidcProvider.getId(), providerId -> new ConcurrentHashMap<>());
+        String templateKey = idpEndpoint != null ? idpEndpoint.getId() : "";
+        AuthenticationRequestTemplate template = providerTemplates.get(templateKey);
+        if (template == null || !template.authorizationEndpoint.equals(authorizationEndpoint)) {
+            OidcProviderProperties oidcProperties = oidcProvider.getProperties();
+            URI baseUrl = idpEndpoint != null ? idpEndpoint.rewrite(authorizationEndpoint) : authorizationEndpoint;
+            template = new AuthenticationRequestTemplate(authorizationEndpoint, RedirectUrlTemplate.builder(baseUrl.toString())
+                    .queryParam("response_type", "code")
+                    .queryParam("client_id", oidcProperties.getClientId())
+                    .queryParam("redirect_uri", oidcProperties.getRedirectUri())
+                    .queryParam("ui_locales", oidcProperties.getDefaultUiLanguage())
+                    .build());
+            providerTemplates.put(templateKey, template);
+        }
+        return template.redirectUrlTemplate;
+    }
+
     public ILightResponse queryIdpForRequestedAttributes(String oAuthCode, ILightRequest originalLightRequest) {
+        return queryIdpForRequestedAttributes(oAuthCode, originalLightRequest, null, null);
+    }
 
-        JWT idToken = getIdToken(oAuthCode, new ClientID(specificProxyServiceProperties.getOidc().getClientId()));
+    /**
+     * @param oidcProviderId id of the OIDC provider the authentication request was routed to, or {@code null} for the
+     *                       default provider
+     * @param idpEndpointId  id of the IDP endpoint the authentication request was routed to, or {@code null} when
+     *                       endpoint routing is not configured
+     */
+    @SneakyThrows
+    public ILightResponse queryIdpForRequestedAttributes(String oAuthCode, ILightRequest originalLightRequest, String oidcProviderId,
+                                                         String idpEndpointId) {
+
+        OidcProvider oidcProvider = oidcProviderRegistry.get(oidcProviderId);
+        JWT idToken = getIdToken(oAuthCode, oidcProvider, idpEndpointId);
         log.info(append("idp.token_request.response.id_token", idToken.getParsedString()),
                 "Id-token received for code {} in response to LightRequest with id: '{}'",
                 value(IDP_TOKEN_REQUEST_CODE, oAuthCode),
@@ -110,11 +153,11 @@ public class SpecificProxyService {
 
         try {
 
-            ClaimsSet claims = oidcProviderMetadataService.getIdTokenValidator().validate(idToken, null);
-            validateAuthenticationMethodReference(claims);
+            ClaimsSet claims = oidcProvider.getMetadataService().validateIdToken(idToken);
+            validateAuthenticationMethodReference(claims, oidcProvider.getProperties());
 
             log.debug("OIDC response successfully verified!");
-            ILightResponse lightResponse = translateToLightResponse(claims, originalLightRequest, specificProxyServiceProperties.getOidc().getResponseClaimMapping());
+            ILightResponse lightResponse = translateToLightResponse(claims, originalLightRequest);
 
             log.debug("LightResponse for eIDAS-Proxy service: " + lightResponse.toString());
 
@@ -128,42 +171,77 @@ public class SpecificProxyService {
         }
     }
 
-    private void validateAuthenticationMethodReference(ClaimsSet claims) {
+    private void validateAuthenticationMethodReference(ClaimsSet claims, OidcProviderProperties oidcProperties) {
         List<String> amr = claims.getStringListClaim("amr");
         if (amr == null) {
             throw new IllegalStateException("Missing required claim 'amr' in OIDC ID-token");
         }
 
-        List<String> allowedAmr = specificProxyServiceProperties.getOidc().getAcceptedAmrValues();
+        List<String> allowedAmr = oidcProperties.getAcceptedAmrValues();
         if (!allowedAmr.containsAll(amr)) {
             throw new IllegalStateException(String.format("The amr claim returned in the OIDC ID-token response is not allowed by the configuration. amr = '%s', allowed amr values by the configuration = '%s'", amr, allowedAmr));
         }
     }
 
-    private JWT getIdToken(String oAuthCode, ClientID clientID) throws URISyntaxException {
+    private JWT getIdToken(String oAuthCode, OidcProvider oidcProvider, String idpEndpointId) throws URISyntaxException {
+        long startTime = System.nanoTime();
+        try {
+            JWT idToken = requestIdToken(oAuthCode, oidcProvider, idpEndpointId);
+            oidcProvider.recordTokenRequest("success", System.nanoTime() - startTime);
+            return idToken;
+        } catch (RuntimeException e) {
+            oidcProvider.recordTokenRequest("error", System.nanoTime() - startTime);
+            throw e;
+        }
+    }
+
+    private JWT requestIdToken(String oAuthCode, OidcProvider oidcProvider, String idpEndpointId) throws URISyntaxException {
+        OidcProviderProperties oidcProperties = oidcProvider.getProperties();
         ClientAuthentication clientAuth = new ClientSecretBasic(
-                clientID,
-                new Secret(specificProxyServiceProperties.getOidc().getClientSecret())
+                new ClientID(oidcProperties.getClientId()),
+                new Secret(oidcProperties.getClientSecret())
         );
 
-        OIDCProviderMetadata oidcProviderMetadata = oidcProviderMetadataService.getOidcProviderMetadata();
-        TokenRequest request = new TokenRequest(oidcProviderMetadata.getTokenEndpointURI(), clientAuth, getAuthorizationGrant(oAuthCode), null, null, null);
-        OIDCTokenResponse successResponse = getOidcTokenResponse(request);
+        OIDCProviderMetadata oidcProviderMetadata = oidcProvider.getMetadataService().getOidcProviderMetadata();
+        AuthorizationGrant authorizationGrant = getAuthorizationGrant(oAuthCode, oidcProperties);
+        IdpEndpointRouter idpEndpointRouter = oidcProvider.getEndpointRouter();
+        if (!idpEndpointRouter.isEnabled()) {
+            TokenRequest request = new TokenRequest(oidcProviderMetadata.getTokenEndpointURI(), clientAuth, authorizationGrant, null, null, null);
+            return getOidcTokenResponse(request, oidcProperties).getOIDCTokens().getIDToken();
+        }
 
-        return successResponse.getOIDCTokens().getIDToken();
+        IllegalStateException connectFailure = null;
+        for (IdpEndpoint idpEndpoint : idpEndpointRouter.getFailoverOrder(idpEndpointId)) {
+            TokenRequest request = new TokenRequest(idpEndpoint.rewrite(oidcProviderMetadata.getTokenEndpointURI()), clientAuth, authorizationGrant, null, null, null);
+            long startTime = System.nanoTime();
+            try {
+                OIDCTokenResponse successResponse = getOidcTokenResponse(request, oidcProperties);
+                idpEndpointRouter.recordSuccess(idpEndpoint, System.nanoTime() - startTime);
+                return successResponse.getOIDCTokens().getIDToken();
+            } catch (IllegalStateException e) {
+                if (!IdpEndpointRouter.isConnectFailure(e)) {
+                    idpEndpointRouter.recordError(idpEndpoint, System.nanoTime() - startTime);
+                    throw e;
+                }
+                idpEndpointRouter.recordUnavailable(idpEndpoint, System.nanoTime() - startTime);
+                log.warn("Unable to connect to IDP endpoint '{}', trying next endpoint", idpEndpoint.getId());
+                connectFailure = e;
+            }
+        }
+        throw connectFailure;
     }
 
-    private AuthorizationGrant getAuthorizationGrant(String oAuthCode) throws URISyntaxException {
+    private AuthorizationGrant getAuthorizationGrant(String oAuthCode, OidcProviderProperties oidcProperties) throws URISyntaxException {
         AuthorizationCode authorizationCode = new AuthorizationCode(oAuthCode);
-        URI callback = new URI(specificProxyServiceProperties.getOidc().getRedirectUri());
+        URI callback = new URI(oidcProperties.getRedirectUri());
         return new AuthorizationCodeGrant(authorizationCode, callback);
     }
 
-    private OIDCTokenResponse getOidcTokenResponse(TokenRequest request) {
+    private OIDCTokenResponse getOidcTokenResponse(TokenRequest request, OidcProviderProperties oidcProperties) {
         try {
             HTTPRequest httpRequest = request.toHTTPRequest();
-            httpRequest.setConnectTimeout(specificProxyServiceProperties.getOidc().getConnectTimeoutInMilliseconds());
-            httpRequest.setReadTimeout(specificProxyServiceProperties.getOidc().getReadTimeoutInMilliseconds());
+            httpRequest.setConnectTimeout(oidcProperties.getConnectTimeoutInMilliseconds());
+            httpRequest.setReadTimeout(oidcProperties.getReadTimeoutInMilliseconds());
 
             log.info(append(IDP_TOKEN_REQUEST_HTTP_QUERY_PARAMS, httpRequest.getQueryParameters())
                             .and(append(IDP_TOKEN_REQUEST_HTTP_METHOD, httpRequest.getMethod()))
@@ -174,7 +252,7 @@ public class SpecificProxyService {
                     "Request id_token from '{}'",
                     value(IDP_TOKEN_REQUEST_HTTP_URL, httpRequest.getURL()));
 
-            TokenResponse tokenResponse = OIDCTokenResponseParser.parse(httpRequest.send());
+            TokenResponse tokenResponse = OIDCTokenResponseParser.parse(idpHttpClient.send(httpRequest));
             if (tokenResponse.indicatesSuccess()) {
                 return (OIDCTokenResponse) tokenResponse.toSuccessResponse();
             } else {
@@ -189,44 +267,22 @@ public class SpecificProxyService {
         }
     }
 
-    private String getScope(ILightRequest originalIlightRequest) {
-        log.debug("Start composing OIDC scope value");
-        Set<String> scopes = new LinkedHashSet<>();
-        scopes.add("openid");
-        scopes.addAll(specificProxyServiceProperties.getOidc().getScope());
-
-        if (containsLegalPersonAttributes(originalIlightRequest))
-            scopes.add("legalperson");
-
-        return StringUtils.join(scopes, ' ');
-    }
-
-    private boolean containsLegalPersonAttributes(ILightRequest incomingLightRequest) {
-        List<String> requestAttributesByFriendlyName = incomingLightRequest.getRequestedAttributes().getAttributeMap().keySet()
-                .stream().map(AttributeDefinition::getFriendlyName).collect(toList());
-        return !Collections.disjoint(asList("LegalName", "LegalPersonIdentifier"), requestAttributesByFriendlyName);
-    }
-
-    private ILightResponse translateToLightResponse(ClaimsSet claimSet, ILightRequest originalLightRequest, IdTokenClaimMappingProperties mappingProperties) throws MalformedURLException, UnknownHostException {
-        log.debug("JWT (claims): " + claimSet.toJSONString());
-
-        JSONObject claims = claimSet.toJSONObject();
-
-        String subject;
-        if (containsLegalPersonAttributes(originalLightRequest)) {
-            subject = getAttributeValueFromClaims(claims, "subject", mappingProperties.getLegalPersonSubject());
-        } else {
-            subject = getAttributeValueFromClaims(claims, "subject", mappingProperties.getNaturalPersonSubject());
+    ILightResponse translateToLightResponse(ClaimsSet claimSet, ILightRequest originalLightRequest) throws MalformedURLException, UnknownHostException {
+        if (log.isDebugEnabled()) {
+            log.debug("JWT (claims): " + claimSet.toJSONString());
         }
 
-        String responseId = getAttributeValueFromClaims(claims, "responseId", mappingProperties.getId());
-        LevelOfAssurance loa = LevelOfAssurance.valueOf(StringUtils.upperCase(getAttributeValueFromClaims(claims, "loa", mappingProperties.getAcr())));
-        String issuer = getAttributeValueFromClaims(claims, "issuer", mappingProperties.getIssuer());
-        ImmutableAttributeMap attributes = getAttributes(originalLightRequest, claims, mappingProperties);
+        IdTokenClaimExtractor.Claims claims = claimMappingPlan.extract(claimSet);
+
+        String subject = claimMappingPlan.getSubject(claims, lightRequestRules.classify(originalLightRequest).containsLegalPersonAttributes());
+        String responseId = claimMappingPlan.getId(claims);
+        LevelOfAssurance loa = LevelOfAssurance.valueOf(StringUtils.upperCase(claimMappingPlan.getAcr(claims)));
+        String issuer = claimMappingPlan.getIssuer(claims);
+        ImmutableAttributeMap attributes = claimMappingPlan.getAttributes(originalLightRequest, claims);
 
         final LightResponse.Builder builder = LightResponse.builder()
                 .id(responseId)
-                .ipAddress(getIssuerIp(specificProxyServiceProperties.getOidc().getIssuerUrl()))
+                .ipAddress(issuerIpResolver.getIssuerIp())
                 .inResponseToId(originalLightRequest.getId())
                 .issuer(issuer)
                 .levelOfAssurance(loa.stringValue())
@@ -248,73 +304,13 @@ public class SpecificProxyService {
 
     }
 
-    private ImmutableAttributeMap getAttributes(ILightRequest lightRequest, JSONObject claims, IdTokenClaimMappingProperties mappingProperties) {
-        ImmutableAttributeMap.Builder attrBuilder = ImmutableAttributeMap.builder();
-
-        for (ImmutableAttributeMap.ImmutableAttributeEntry entry : lightRequest.getRequestedAttributes().entrySet()) {
-            String friendlyName = entry.getKey().getFriendlyName();
-            String claimValue = getClaimValueFromIdToken(claims, entry, mappingProperties);
-            if (claimValue != null) {
-                String attributeValue = getAttributeValue(mappingProperties, friendlyName, claimValue);
-                putAttribute(attrBuilder, friendlyName, attributeValue);
-            }
-        }
-
-        return attrBuilder.build();
-    }
-
-    private String getAttributeValue(IdTokenClaimMappingProperties mappingProperties, String friendlyName, String value) {
-        if (mappingProperties.getAttributesPostProcessing().containsKey(friendlyName)) {
-            String regexp = mappingProperties.getAttributesPostProcessing().get(friendlyName);
-            Pattern pattern = Pattern.compile(regexp);
-            Matcher matcher = pattern.matcher(value);
-            if (matcher.find()) {
-                return matcher.group("attributeValue");
-            } else {
-                throw new IllegalStateException(String.format("Attribute '%s' with value '%s' does not match the expected format %s", friendlyName, value, regexp));
-            }
-        } else {
-            return value;
-        }
-    }
-
-    private String getClaimValueFromIdToken(JSONObject claims, ImmutableAttributeMap.ImmutableAttributeEntry entry, IdTokenClaimMappingProperties mappingProperties) {
-
-        String attributeFriendlyName = entry.getKey().getFriendlyName();
-        String jsonPath = mappingProperties.getAttributes().get(attributeFriendlyName);
-
-        if (entry.getKey().isRequired()) {
-            Assert.notNull(jsonPath, "Required attribute " + attributeFriendlyName + " has no jsonpath configured to extract claim from id-token");
-        } else if (!entry.getKey().isRequired() && StringUtils.isEmpty(jsonPath)) {
-            log.warn("Ignoring optional attribute {} - no mapping configured to extract it's corresponding value from id-token", attributeFriendlyName);
-            return null;
-        }
-
-        return getAttributeValueFromClaims(claims, attributeFriendlyName, jsonPath);
-    }
-
-    private String getAttributeValueFromClaims(JSONObject claims, String responseAttributeName, String jsonPath) {
-        try {
-            return JsonPath.read(claims, jsonPath);
-        } catch (PathNotFoundException e) {
-            throw new IllegalStateException(String.format("Failed to read attribute (%s) value from ID-token with jsonpath (%s). Please check your configuration", responseAttributeName, jsonPath));
-        }
-    }
-
-    private void putAttribute(ImmutableAttributeMap.Builder builder, String friendlyName, String value) {
-        final ImmutableSortedSet<AttributeDefinition<?>> byFriendlyName = eidasAttributeRegistry.getByFriendlyName(friendlyName);
-        final AttributeDefinition<?> attributeDefinition = byFriendlyName.first();
-        builder.put(attributeDefinition, value);
-    }
-
-    private static String getIssuerIp(String issuerUrl) throws UnknownHostException, MalformedURLException {
-        return InetAddress.getByName(new URL(issuerUrl).getHost()).getHostAddress();
-    }
-
-    private SpecificProxyServiceCommunication.CorrelatedRequestsHolder createCorrelatedRequestsHolder(ILightRequest incomingLightRequest, URL redirectUrl, String state) {
+    private SpecificProxyServiceCommunication.CorrelatedRequestsHolder createCorrelatedRequestsHolder(ILightRequest incomingLightRequest, URL redirectUrl, String state,
+                                                                                                      String oidcProviderId, String idpEndpointId) {
         return new SpecificProxyServiceCommunication.CorrelatedRequestsHolder(
                 incomingLightRequest,
-                Collections.singletonMap(state, redirectUrl)
+                Collections.singletonMap(state, redirectUrl),
+                oidcProviderId,
+                idpEndpointId
         );
     }
 
@@ -326,4 +322,10 @@ public class SpecificProxyService {
         }
         return loa.name().toLowerCase();
     }
+
+    @RequiredArgsConstructor
+    private static final class AuthenticationRequestTemplate {
+        private final URI authorizationEndpoint;
+        private final RedirectUrlTemplate redirectUrlTemplate;
+    }
 }
@@ -0,0 +1,206 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Verifies Base64 encoded binary light tokens and returns their id, accepting the same tokens as
+ * {@link eu.eidas.specificcommunication.BinaryLightTokenHelper#getBinaryLightTokenId(String, String, String)}.
+ * <p>
+ * A binary light token is {@code issuer|id|timestamp|digest}, where digest is the Base64 encoded hash of
+ * {@code id|issuer|timestamp|secret}. The token is decoded into per-thread buffers and hashed with a per-thread
+ * {@link MessageDigest}, without intermediate strings. Tokens that are too long, are not valid Base64, do not have
+ * four parts or have a digest of the wrong length are rejected before hashing. The timestamp is covered by the digest
+ * and is not parsed.
+ */
+public class BinaryLightTokenVerifier {
+    static final int MAX_TOKEN_LENGTH = 4096;
+    private static final byte SEPARATOR = '|';
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final String algorithm;
+    private final byte[] separatorAndSecret;
+    private final int digestLength;
+    private final ThreadLocal<Buffers> buffers;
+
+    public BinaryLightTokenVerifier(String secret, String algorithm) {
+        this.algorithm = algorithm;
+        this.separatorAndSecret = ((char) SEPARATOR + secret).getBytes(UTF_8);
+        this.digestLength = createMessageDigest().getDigestLength();
+        this.buffers = ThreadLocal.withInitial(() -> new Buffers(createMessageDigest(), digestLength));
+    }
+
+    /**
+     * @return the token id, or {@code null} if the token is malformed or its digest does not match
+     */
+    public String getTokenId(String binaryLightTokenBase64) {
+        if (binaryLightTokenBase64 == null || binaryLightTokenBase64.isEmpty() || binaryLightTokenBase64.length() > MAX_TOKEN_LENGTH) {
+            return null;
+        }
+        Buffers tokenBuffers = buffers.get();
+        byte[] encoded = tokenBuffers.encoded;
+        int encodedLength = binaryLightTokenBase64.length();
+        for (int i = 0; i < encodedLength; i++) {
+            char c = binaryLightTokenBase64.charAt(i);
+            if (c >= 128) {
+                return null;
+            }
+            encoded[i] = (byte) c;
+        }
+        byte[] token = tokenBuffers.token;
+        int tokenLength = decodeBase64(encoded, 0, encodedLength, token);
+        if (tokenLength <= 0) {
+            return null;
+        }
+
+        int issuerEnd = indexOfSeparator(token, 0, tokenLength);
+        int idEnd = indexOfSeparator(token, issuerEnd + 1, tokenLength);
+        int timestampEnd = indexOfSeparator(token, idEnd + 1, tokenLength);
+        if (issuerEnd < 0 || idEnd < 0 || timestampEnd < 0 || indexOfSeparator(token, timestampEnd + 1, tokenLength) >= 0) {
+            return null;
+        }
+        int idStart = issuerEnd + 1;
+        int timestampStart = idEnd + 1;
+        if (isBlank(token, 0, issuerEnd) || isBlank(token, idStart, idEnd) || timestampStart == timestampEnd) {
+            return null;
+        }
+        byte[] expectedDigest = tokenBuffers.expectedDigest;
+        if (decodeBase64(token, timestampEnd + 1, tokenLength, expectedDigest) != digestLength) {
+            return null;
+        }
+
+        MessageDigest messageDigest = tokenBuffers.messageDigest;
+        byte[] actualDigest = tokenBuffers.actualDigest;
+        messageDigest.reset();
+        messageDigest.update(token, idStart, idEnd - idStart);
+        messageDigest.update(SEPARATOR);
+        messageDigest.update(token, 0, issuerEnd);
+        messageDigest.update(SEPARATOR);
+        messageDigest.update(token, timestampStart, timestampEnd - timestampStart);
+        messageDigest.update(separatorAndSecret);
+        try {
+            messageDigest.digest(actualDigest, 0, digestLength);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Unable to calculate light token digest", e);
+        }
+        if (!isEqual(expectedDigest, actualDigest, digestLength)) {
+            return null;
+        }
+        return new String(token, idStart, idEnd - idStart, UTF_8);
+    }
+
+    private MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported light token algorithm: " + algorithm, e);
+        }
+    }
+
+    private static int indexOfSeparator(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(bytes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean isEqual(byte[] expected, byte[] actual, int length) {
+        int result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= expected[i] ^ actual[i];
+        }
+        return result == 0;
+    }
+
+    /**
+     * Decodes standard padded Base64, ignoring whitespace.
+     *
+     * @return the number of decoded bytes, or -1 if the input is not valid Base64 or does not fit into the target
+     */
+    static int decodeBase64(byte[] source, int from, int to, byte[] target) {
+        int quantum = 0;
+        int sextets = 0;
+        int padding = 0;
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            byte c = source[i];
+            if (isWhitespace(c)) {
+                continue;
+            }
+            if (c == '=') {
+                if (++padding > 2) {
+                    return -1;
+                }
+                continue;
+            }
+            if (padding > 0 || c < 0 || BASE64_VALUES[c] < 0) {
+                return -1;
+            }
+            quantum = quantum << 6 | BASE64_VALUES[c];
+            if (++sextets == 4) {
+                if (length + 3 > target.length) {
+                    return -1;
+                }
+                target[length++] = (byte) (quantum >> 16);
+                target[length++] = (byte) (quantum >> 8);
+                target[length++] = (byte) quantum;
+                quantum = 0;
+                sextets = 0;
+            }
+        }
+        if (padding == 0) {
+            return sextets == 0 ? length : -1;
+        }
+        if (sextets + padding != 4 || length + 3 - padding > target.length) {
+            return -1;
+        }
+        if (sextets == 2) {
+            target[length++] = (byte) (quantum >> 4);
+        } else {
+            target[length++] = (byte) (quantum >> 10);
+            target[length++] = (byte) (quantum >> 2);
+        }
+        return length;
+    }
+
+    private static final class Buffers {
+        private final MessageDigest messageDigest;
+        private final byte[] encoded = new byte[MAX_TOKEN_LENGTH];
+        private final byte[] token = new byte[MAX_TOKEN_LENGTH / 4 * 3];
+        private final byte[] expectedDigest;
+        private final byte[] actualDigest;
+
+        private Buffers(MessageDigest messageDigest, int digestLength) {
+            this.messageDigest = messageDigest;
+            this.expectedDigest = new byte[digestLength];
+            this.actualDigest = new byte[digestLength];
+        }
+    }
+}
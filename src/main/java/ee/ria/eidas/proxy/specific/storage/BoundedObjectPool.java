@@ -0,0 +1,54 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking bounded pool for objects that are expensive to create and not thread-safe (JAXB marshallers,
+ * unmarshallers, XML readers). A new instance is created when the pool is empty and released instances are
+ * discarded when the pool is full. Instances that failed during use must not be released back to the pool.
+ */
+class BoundedObjectPool<T, E extends Exception> {
+
+    @FunctionalInterface
+    interface ObjectFactory<T, E extends Exception> {
+        T create() throws E;
+    }
+
+    private final BlockingQueue<T> idleObjects;
+    private final ObjectFactory<T, E> factory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    BoundedObjectPool(int maxIdle, ObjectFactory<T, E> factory) {
+        this.idleObjects = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+        this.factory = factory;
+    }
+
+    T borrow() throws E {
+        T pooledObject = idleObjects.poll();
+        if (pooledObject != null) {
+            hits.incrementAndGet();
+            return pooledObject;
+        }
+        misses.incrementAndGet();
+        return factory.create();
+    }
+
+    void release(T pooledObject) {
+        idleObjects.offer(pooledObject);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    int getIdleCount() {
+        return idleObjects.size();
+    }
+}
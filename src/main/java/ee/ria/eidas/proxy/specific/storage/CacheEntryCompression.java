@@ -0,0 +1,155 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties.CompressionProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.ignite.binary.BinaryObjectException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Optional compression of the payload of proxy-owned {@link CompactCacheEntry} entries. Payloads below the configured
+ * threshold, and payloads that do not get smaller, are stored as is. Compressed payloads are read regardless of the local
+ * configuration, so nodes with different settings can share the caches.
+ * <p>
+ * Every payload starts with a format version byte and a compressor id byte. Compressed payloads additionally keep
+ * their uncompressed length, which is checked against {@link #MAX_PAYLOAD_BYTES} before inflating.
+ */
+public class CacheEntryCompression implements MeterBinder {
+    static final byte UNCOMPRESSED = 0;
+    static final byte PAYLOAD_FORMAT_VERSION = 1;
+    static final int MAX_PAYLOAD_BYTES = 1024 * 1024;
+    private static final int HEADER_BYTES = 2;
+    private static final int COMPRESSED_HEADER_BYTES = HEADER_BYTES + Integer.BYTES;
+    private static final String METRIC_TIME = "eidas.proxy.cache.compression.time";
+    private static final String METRIC_RATIO = "eidas.proxy.cache.compression.ratio";
+    private static final PayloadCompressor DEFLATE = new DeflatePayloadCompressor(Deflater.BEST_SPEED);
+
+    private final boolean enabled;
+    private final int thresholdBytes;
+    private final PayloadCompressor compressor;
+    private volatile Timer compressTimer;
+    private volatile Timer decompressTimer;
+    private volatile DistributionSummary compressionRatio;
+
+    CacheEntryCompression(boolean enabled, int thresholdBytes, PayloadCompressor compressor) {
+        this.enabled = enabled;
+        this.thresholdBytes = thresholdBytes;
+        this.compressor = compressor;
+    }
+
+    public static CacheEntryCompression build(CompressionProperties properties) {
+        return new CacheEntryCompression(properties.isEnabled(), properties.getThresholdBytes(), getCompressor(properties));
+    }
+
+    private static PayloadCompressor getCompressor(CompressionProperties properties) {
+        switch (properties.getAlgorithm()) {
+            case DEFLATE:
+                return new DeflatePayloadCompressor(properties.getLevel());
+            default:
+                throw new IllegalArgumentException("Unsupported compression algorithm: " + properties.getAlgorithm());
+        }
+    }
+
+    byte[] encode(byte[] payload) {
+        byte[] compressed = enabled && payload.length >= thresholdBytes ? compress(payload) : null;
+        if (compressed != null && compressed.length + Integer.BYTES < payload.length) {
+            return ByteBuffer.allocate(COMPRESSED_HEADER_BYTES + compressed.length)
+                    .put(PAYLOAD_FORMAT_VERSION)
+                    .put(compressor.getId())
+                    .putInt(payload.length)
+                    .put(compressed)
+                    .array();
+        } else {
+            return ByteBuffer.allocate(HEADER_BYTES + payload.length)
+                    .put(PAYLOAD_FORMAT_VERSION)
+                    .put(UNCOMPRESSED)
+                    .put(payload)
+                    .array();
+        }
+    }
+
+    byte[] decode(byte[] encodedPayload) {
+        if (encodedPayload == null || encodedPayload.length < HEADER_BYTES) {
+            throw new BinaryObjectException("Truncated cache entry payload");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(encodedPayload);
+        byte formatVersion = buffer.get();
+        if (formatVersion != PAYLOAD_FORMAT_VERSION) {
+            throw new BinaryObjectException("Unsupported cache entry payload format version: " + formatVersion);
+        }
+        byte compressorId = buffer.get();
+        if (compressorId == UNCOMPRESSED) {
+            return Arrays.copyOfRange(encodedPayload, HEADER_BYTES, encodedPayload.length);
+        }
+        if (buffer.remaining() < Integer.BYTES) {
+            throw new BinaryObjectException("Truncated cache entry payload");
+        }
+        int uncompressedLength = buffer.getInt();
+        if (uncompressedLength < 0 || uncompressedLength > MAX_PAYLOAD_BYTES) {
+            throw new BinaryObjectException("Cache entry payload size " + uncompressedLength + " exceeds the limit of " + MAX_PAYLOAD_BYTES + " bytes");
+        }
+        byte[] compressed = Arrays.copyOfRange(encodedPayload, COMPRESSED_HEADER_BYTES, encodedPayload.length);
+        return decompress(getDecompressor(compressorId), compressed, uncompressedLength);
+    }
+
+    private PayloadCompressor getDecompressor(byte compressorId) {
+        if (compressor.getId() == compressorId) {
+            return compressor;
+        } else if (DEFLATE.getId() == compressorId) {
+            return DEFLATE;
+        }
+        throw new BinaryObjectException("Unsupported cache entry compression: " + compressorId);
+    }
+
+    private byte[] compress(byte[] payload) {
+        long start = System.nanoTime();
+        byte[] compressed = compressor.compress(payload);
+        record(compressTimer, start);
+        DistributionSummary ratio = compressionRatio;
+        if (ratio != null) {
+            ratio.record((double) compressed.length / payload.length);
+        }
+        return compressed;
+    }
+
+    private byte[] decompress(PayloadCompressor decompressor, byte[] payload, int uncompressedLength) {
+        long start = System.nanoTime();
+        try {
+            return decompressor.decompress(payload, uncompressedLength);
+        } catch (IllegalArgumentException e) {
+            throw new BinaryObjectException("Unable to decompress cache entry", e);
+        } finally {
+            record(decompressTimer, start);
+        }
+    }
+
+    private static void record(Timer timer, long start) {
+        if (timer != null) {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        compressTimer = Timer.builder(METRIC_TIME)
+                .tag("operation", "compress")
+                .tag("algorithm", compressor.getName())
+                .description("Time spent compressing proxy cache entries")
+                .register(registry);
+        decompressTimer = Timer.builder(METRIC_TIME)
+                .tag("operation", "decompress")
+                .tag("algorithm", compressor.getName())
+                .description("Time spent decompressing proxy cache entries")
+                .register(registry);
+        compressionRatio = DistributionSummary.builder(METRIC_RATIO)
+                .tag("algorithm", compressor.getName())
+                .description("Compressed size of proxy cache entries relative to their original size")
+                .register(registry);
+    }
+}
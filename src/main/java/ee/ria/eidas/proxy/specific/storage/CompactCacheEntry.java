@@ -0,0 +1,22 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Proxy-owned cache entry in the compact format. Keeps the version of the {@link LightMessageBinaryFormat} layout and
+ * the payload encoded by {@link CacheEntryCompression}. The payload is written and read by
+ * {@link SpecificProxyServiceCommunication}, so Ignite only stores the plain fields of this class.
+ */
+@Getter
+@RequiredArgsConstructor
+public class CompactCacheEntry implements Serializable {
+
+    private static final long serialVersionUID = 4318730982613489274L;
+
+    private final int version;
+
+    private final byte[] payload;
+}
@@ -0,0 +1,68 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+class DeflatePayloadCompressor implements PayloadCompressor {
+    static final byte ID = 1;
+    private static final int CHUNK_SIZE = 1024;
+    private final int level;
+
+    DeflatePayloadCompressor(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int uncompressedLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[uncompressedLength];
+            int offset = 0;
+            while (offset < out.length) {
+                int length = inflater.inflate(out, offset, out.length - offset);
+                if (length == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated deflate payload");
+                }
+                offset += length;
+            }
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished())) {
+                throw new IllegalArgumentException("Deflate payload does not match declared length");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid deflate payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
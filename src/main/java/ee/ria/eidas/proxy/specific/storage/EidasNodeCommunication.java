@@ -2,10 +2,10 @@ package ee.ria.eidas.proxy.specific.storage;
 
 import ee.ria.eidas.proxy.specific.error.BadRequestException;
 import ee.ria.eidas.proxy.specific.error.RequestDeniedException;
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.PendingLightResponseHolder;
 import eu.eidas.auth.commons.EIDASStatusCode;
 import eu.eidas.auth.commons.EIDASSubStatusCode;
-import eu.eidas.auth.commons.attribute.AttributeRegistry;
-import eu.eidas.auth.commons.exceptions.SecurityEIDASException;
 import eu.eidas.auth.commons.light.ILightRequest;
 import eu.eidas.auth.commons.light.ILightResponse;
 import eu.eidas.auth.commons.light.impl.LightResponse;
@@ -15,6 +15,7 @@ import eu.eidas.specificcommunication.BinaryLightTokenHelper;
 import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.logstash.logback.marker.LogstashMarker;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -34,7 +35,6 @@ import static net.logstash.logback.marker.Markers.append;
 @Slf4j
 @Service
 public class EidasNodeCommunication {
-    private static final LightJAXBCodec codec = LightJAXBCodec.buildDefault();
 
     @Value("${lightToken.proxyservice.request.issuer.name}")
     private String lightTokenRequestIssuerName;
@@ -66,7 +66,19 @@ public class EidasNodeCommunication {
     private Cache<String, String> eidasResponseCommunicationCache;
 
     @Autowired
-    private AttributeRegistry eidasAttributeRegistry;
+    private AttributeRegistryIndex eidasAttributeRegistryIndex;
+
+    @Autowired
+    private LightJAXBCodec codec;
+
+    @Autowired
+    private PregeneratedPools pregeneratedPools;
+
+    private FailureLightResponseTemplate failureResponseTemplate;
+
+    private PregeneratedPool<BinaryLightToken, SpecificCommunicationException> responseLightTokens;
+
+    private BinaryLightTokenVerifier requestLightTokenVerifier;
 
     private static ILightResponse createILightResponseFailure(String inResponseTo, String statusMessage, String issuer) {
         final ResponseStatus responseStatus = ResponseStatus.builder()
@@ -91,20 +103,38 @@ public class EidasNodeCommunication {
         Assert.notNull(lightTokenResponseIssuerName, "lightToken.proxyservice.response.issuer.name cannot be null. Please check your configuration");
         Assert.notNull(lightTokenResponseSecret, "lightToken.proxyservice.response.secret cannot be null. Please check your configuration");
         Assert.notNull(lightTokenResponseAlgorithm, "lightToken.proxyservice.response.algorithm cannot be null. Please check your configuration");
+        if (codec.isCompactOutput()) {
+            failureResponseTemplate = new FailureLightResponseTemplate(lightTokenResponseIssuerName,
+                    EIDASStatusCode.REQUESTER_URI.toString(), EIDASSubStatusCode.REQUEST_DENIED_URI.toString());
+        }
+        responseLightTokens = pregeneratedPools.create("eidas-response-light-token", () -> BinaryLightTokenHelper.createBinaryLightToken(
+                lightTokenResponseIssuerName, lightTokenResponseSecret, lightTokenResponseAlgorithm));
+        requestLightTokenVerifier = new BinaryLightTokenVerifier(lightTokenRequestSecret, lightTokenRequestAlgorithm);
     }
 
     public BinaryLightToken putResponse(final ILightResponse lightResponse) throws SpecificCommunicationException {
-        final BinaryLightToken binaryLightToken = BinaryLightTokenHelper.createBinaryLightToken(
-                lightTokenResponseIssuerName, lightTokenResponseSecret, lightTokenResponseAlgorithm);
+        return putResponse(codec.marshall(lightResponse), append(LIGHT_RESPONSE, lightResponse));
+    }
+
+    public BinaryLightToken putResponse(final PendingLightResponseHolder pendingLightResponse) throws SpecificCommunicationException {
+        if (!pendingLightResponse.isMarshalled()) {
+            return putResponse(pendingLightResponse.getLightResponse());
+        }
+        return putResponse(pendingLightResponse.getMarshalledLightResponse(),
+                append(LIGHT_RESPONSE_IN_RESPONSE_TO_ID, pendingLightResponse.getInResponseToId()));
+    }
+
+    private BinaryLightToken putResponse(final String marshalledLightResponse, final LogstashMarker lightResponseMarker) throws SpecificCommunicationException {
+        final BinaryLightToken binaryLightToken = responseLightTokens.take();
         final String tokenId = binaryLightToken.getToken().getId();
-        boolean isInserted = eidasResponseCommunicationCache.putIfAbsent(tokenId, codec.marshall(lightResponse));
+        boolean isInserted = eidasResponseCommunicationCache.putIfAbsent(tokenId, marshalledLightResponse);
 
         if (isInserted && log.isInfoEnabled()) {
-            log.info(append(LIGHT_RESPONSE, lightResponse)
+            log.info(lightResponseMarker
                             .and(append(IGNITE_CACHE_NAME, eidasRequestCommunicationCache.getName())), "LightResponse with tokenId: '{}' was saved",
                     value(LIGHT_RESPONSE_LIGHT_TOKEN_ID, tokenId));
         } else if (log.isWarnEnabled()) {
-            log.warn(append(LIGHT_RESPONSE, lightResponse).and(append(IGNITE_CACHE_NAME, eidasRequestCommunicationCache.getName())),
+            log.warn(lightResponseMarker.and(append(IGNITE_CACHE_NAME, eidasRequestCommunicationCache.getName())),
                     "LightResponse was not saved. A LightResponse with tokenId: '{}' already exists",
                     value(LIGHT_RESPONSE_LIGHT_TOKEN_ID, tokenId));
         }
@@ -112,6 +142,11 @@ public class EidasNodeCommunication {
     }
 
     public BinaryLightToken putErrorResponse(RequestDeniedException ex) throws SpecificCommunicationException {
+        // LightResponse validation rejects a missing inResponseTo, the template is used for valid responses only
+        if (failureResponseTemplate != null && StringUtils.isNotBlank(ex.getInResponseTo())) {
+            String lightResponse = failureResponseTemplate.render(UUID.randomUUID().toString(), ex.getInResponseTo(), ex.getMessage());
+            return putResponse(lightResponse, append(LIGHT_RESPONSE_IN_RESPONSE_TO_ID, ex.getInResponseTo()));
+        }
         ILightResponse lightResponse = createILightResponseFailure(ex.getInResponseTo(),
                 ex.getMessage(),
                 getLightTokenResponseIssuerName());
@@ -122,7 +157,7 @@ public class EidasNodeCommunication {
         Assert.isTrue(StringUtils.isNotEmpty(tokenBase64), "Token value cannot be null or empty!");
         final String tokenId = getBinaryLightTokenId(tokenBase64);
         String lightRequest = eidasRequestCommunicationCache.getAndRemove(tokenId);
-        ILightRequest request = codec.unmarshallRequest(lightRequest, eidasAttributeRegistry.getAttributes());
+        ILightRequest request = codec.unmarshallRequest(lightRequest, eidasAttributeRegistryIndex);
 
         if (request != null) {
             log.info(append(LIGHT_REQUEST_CITIZEN_COUNTRY_CODE, request.getCitizenCountryCode()).and(append(IGNITE_CACHE_NAME, eidasRequestCommunicationCache.getName())),
@@ -136,10 +171,10 @@ public class EidasNodeCommunication {
     }
 
     private String getBinaryLightTokenId(String tokenBase64) {
-        try {
-            return BinaryLightTokenHelper.getBinaryLightTokenId(tokenBase64, lightTokenRequestSecret, lightTokenRequestAlgorithm);
-        } catch (SpecificCommunicationException | SecurityEIDASException e) {
-            throw new BadRequestException("Invalid token", e);
+        final String tokenId = requestLightTokenVerifier.getTokenId(tokenBase64);
+        if (tokenId == null) {
+            throw new BadRequestException("Invalid token");
         }
+        return tokenId;
     }
 }
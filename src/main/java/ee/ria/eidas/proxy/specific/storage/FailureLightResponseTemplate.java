@@ -0,0 +1,43 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import static ee.ria.eidas.proxy.specific.storage.LightResponseXmlWriter.ROOT_END;
+import static ee.ria.eidas.proxy.specific.storage.LightResponseXmlWriter.ROOT_START;
+import static ee.ria.eidas.proxy.specific.storage.LightResponseXmlWriter.XML_DECLARATION;
+import static ee.ria.eidas.proxy.specific.storage.LightResponseXmlWriter.appendElement;
+
+/**
+ * Compact failure LightResponse XML with the issuer and status codes rendered once at startup. Only the id, the in
+ * response to id and the status message are filled in per response. The output is the same as the output of
+ * {@link LightResponseXmlWriter} for a failure LightResponse with the same fields.
+ */
+class FailureLightResponseTemplate {
+    private static final int MESSAGE_CAPACITY = 256;
+
+    private final String issuerAndStatusStart;
+    private final String statusEnd;
+
+    FailureLightResponseTemplate(String issuer, String statusCode, String subStatusCode) {
+        StringBuilder issuerAndStatus = new StringBuilder();
+        appendElement(issuerAndStatus, "issuer", issuer);
+        issuerAndStatus.append("<status>");
+        appendElement(issuerAndStatus, "failure", String.valueOf(true));
+        appendElement(issuerAndStatus, "statusCode", statusCode);
+        this.issuerAndStatusStart = issuerAndStatus.toString();
+
+        StringBuilder status = new StringBuilder();
+        appendElement(status, "subStatusCode", subStatusCode);
+        status.append("</status>").append(ROOT_END);
+        this.statusEnd = status.toString();
+    }
+
+    String render(String id, String inResponseToId, String statusMessage) {
+        StringBuilder xml = new StringBuilder(XML_DECLARATION.length() + ROOT_START.length()
+                + issuerAndStatusStart.length() + statusEnd.length() + MESSAGE_CAPACITY);
+        xml.append(XML_DECLARATION).append(ROOT_START);
+        appendElement(xml, "id", id);
+        appendElement(xml, "inResponseToId", inResponseToId);
+        xml.append(issuerAndStatusStart);
+        appendElement(xml, "statusMessage", statusMessage);
+        return xml.append(statusEnd).toString();
+    }
+}
@@ -1,44 +1,79 @@
 package ee.ria.eidas.proxy.specific.storage;
 
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties.LightRequestReader;
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
 import eu.eidas.auth.commons.attribute.AttributeDefinition;
 import eu.eidas.auth.commons.light.ILightRequest;
 import eu.eidas.auth.commons.light.ILightResponse;
 import eu.eidas.specificcommunication.LightRequest;
 import eu.eidas.specificcommunication.LightResponse;
+import eu.eidas.specificcommunication.RequestedAttribute;
+import eu.eidas.specificcommunication.RequestedAttributesList;
 import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
 import eu.eidas.specificcommunication.protocol.util.LightMessagesConverter;
-import eu.eidas.specificcommunication.protocol.util.SecurityUtils;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.extern.slf4j.Slf4j;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
+import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.sax.SAXSource;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Slf4j
-public class LightJAXBCodec {
+public class LightJAXBCodec implements MeterBinder {
     private static final Class<?>[] LIGHT_REQUEST_CODEC = {LightRequest.class};
     private static final Class<?>[] LIGHT_RESPONSE_CODEC = {LightResponse.class};
+    private static final String METRIC_POOL_HITS = "eidas.proxy.codec.pool.hits";
+    private static final String METRIC_POOL_MISSES = "eidas.proxy.codec.pool.misses";
+    private static final String METRIC_POOL_IDLE = "eidas.proxy.codec.pool.idle";
     private final LightMessagesConverter messagesConverter = new LightMessagesConverter();
-    private final JAXBContext lightRequestJAXBCtx;
-    private final JAXBContext lightResponseJAXBCtx;
+    private final SAXParserFactory secureSaxParserFactory;
+    private final BoundedObjectPool<Marshaller, JAXBException> lightRequestMarshallers;
+    private final BoundedObjectPool<Marshaller, JAXBException> lightResponseMarshallers;
+    private final BoundedObjectPool<Unmarshaller, JAXBException> lightRequestUnmarshallers;
+    private final BoundedObjectPool<XMLReader, SAXException> secureXmlReaders;
+    private final LightRequestStaxReader lightRequestStaxReader;
+    private final LightResponseXmlWriter lightResponseXmlWriter;
 
-    LightJAXBCodec(JAXBContext lightRequestJAXBCtx, JAXBContext lightResponseJAXBCtx) {
-        this.lightRequestJAXBCtx = lightRequestJAXBCtx;
-        this.lightResponseJAXBCtx = lightResponseJAXBCtx;
+    LightJAXBCodec(JAXBContext lightRequestJAXBCtx, JAXBContext lightResponseJAXBCtx, CacheProperties properties) {
+        int poolSize = properties.getCodecPoolSize();
+        boolean formattedOutput = properties.isFormattedOutput();
+        this.secureSaxParserFactory = createSecureSaxParserFactory();
+        this.lightRequestMarshallers = new BoundedObjectPool<>(poolSize, () -> createMarshaller(lightRequestJAXBCtx, formattedOutput));
+        this.lightResponseMarshallers = new BoundedObjectPool<>(poolSize, () -> createMarshaller(lightResponseJAXBCtx, formattedOutput));
+        this.lightRequestUnmarshallers = new BoundedObjectPool<>(poolSize, lightRequestJAXBCtx::createUnmarshaller);
+        this.secureXmlReaders = new BoundedObjectPool<>(poolSize, this::createSecureXmlReader);
+        this.lightRequestStaxReader = properties.getLightRequestReader() == LightRequestReader.STAX ? new LightRequestStaxReader() : null;
+        this.lightResponseXmlWriter = formattedOutput ? null : new LightResponseXmlWriter();
     }
 
     public static LightJAXBCodec buildDefault() {
+        return build(new CacheProperties());
+    }
+
+    public static LightJAXBCodec build(CacheProperties properties) {
         JAXBContext lightRequestJAXBContext = getJAXBContext(LIGHT_REQUEST_CODEC);
         JAXBContext lightResponseJAXBContext = getJAXBContext(LIGHT_RESPONSE_CODEC);
-        return new LightJAXBCodec(lightRequestJAXBContext, lightResponseJAXBContext);
+        return new LightJAXBCodec(lightRequestJAXBContext, lightResponseJAXBContext, properties);
     }
 
     private static JAXBContext getJAXBContext(Class<?>[] contextClasses) {
@@ -51,56 +86,133 @@ public class LightJAXBCodec {
 
     public String marshall(ILightRequest lightRequest) throws SpecificCommunicationException {
         LightRequest xmlLightRequest = messagesConverter.convert(lightRequest);
-        return marshall(xmlLightRequest);
+        return marshall(xmlLightRequest, lightRequestMarshallers);
     }
 
     public String marshall(ILightResponse lightResponse) throws SpecificCommunicationException {
+        if (lightResponseXmlWriter != null) {
+            return lightResponseXmlWriter.write(lightResponse);
+        }
         LightResponse xmlLightResponse = messagesConverter.convert(lightResponse);
-        return marshall(xmlLightResponse);
+        return marshall(xmlLightResponse, lightResponseMarshallers);
+    }
+
+    boolean isCompactOutput() {
+        return lightResponseXmlWriter != null;
     }
 
-    private <T> String marshall(T input) throws SpecificCommunicationException {
+    private <T> String marshall(T input, BoundedObjectPool<Marshaller, JAXBException> marshallers) throws SpecificCommunicationException {
         if (input == null) {
             return null;
         }
         StringWriter writer = new StringWriter();
         try {
-            createMarshaller(input.getClass()).marshal(input, writer);
+            Marshaller marshaller = marshallers.borrow();
+            marshaller.marshal(input, writer);
+            marshallers.release(marshaller);
         } catch (JAXBException e) {
             throw new SpecificCommunicationException(e);
         }
         return writer.toString();
     }
 
-    public ILightRequest unmarshallRequest(String input, Collection<AttributeDefinition<?>> registry) throws SpecificCommunicationException {
+    public ILightRequest unmarshallRequest(String input, AttributeRegistryIndex registry) throws SpecificCommunicationException {
         if (input == null) {
             return null;
         }
         if (registry == null) {
             throw new SpecificCommunicationException("Failed to unmarshal LightRequest! Missing attribute registry.");
         }
+        if (lightRequestStaxReader != null) {
+            return lightRequestStaxReader.read(input, registry);
+        }
+        LightRequest rawRequest;
         try {
-            SAXSource secureSaxSource = SecurityUtils.createSecureSaxSource(input);
-            LightRequest rawRequest = (LightRequest) createUnmarshaller().unmarshal(secureSaxSource);
-            return messagesConverter.convert(rawRequest, registry);
-        } catch (JAXBException | ParserConfigurationException | SAXException e) {
+            XMLReader xmlReader = secureXmlReaders.borrow();
+            Unmarshaller unmarshaller = lightRequestUnmarshallers.borrow();
+            rawRequest = (LightRequest) unmarshaller.unmarshal(new SAXSource(xmlReader, new InputSource(new StringReader(input))));
+            lightRequestUnmarshallers.release(unmarshaller);
+            secureXmlReaders.release(xmlReader);
+        } catch (JAXBException | SAXException e) {
             throw new IllegalStateException("Failed to unmarshal incoming request! " + e.getMessage(), e);
         }
+        return messagesConverter.convert(rawRequest, getRequestedDefinitions(rawRequest, registry));
     }
 
-    private Marshaller createMarshaller(Class<?> srcType) throws JAXBException {
-        Marshaller marshaller;
-        if (LightRequest.class.isAssignableFrom(srcType)) {
-            marshaller = lightRequestJAXBCtx.createMarshaller();
-        } else {
-            marshaller = lightResponseJAXBCtx.createMarshaller();
+    /**
+     * Resolves the requested attribute names through the index, so that the converter only scans the requested
+     * definitions instead of the whole registry. Unknown names are left out and rejected by the converter.
+     */
+    private static Collection<AttributeDefinition<?>> getRequestedDefinitions(LightRequest rawRequest, AttributeRegistryIndex registry) {
+        RequestedAttributesList requestedAttributes = rawRequest.getRequestedAttributes();
+        if (requestedAttributes == null) {
+            return Collections.emptyList();
+        }
+        List<AttributeDefinition<?>> definitions = new ArrayList<>(requestedAttributes.getAttribute().size());
+        for (RequestedAttribute requestedAttribute : requestedAttributes.getAttribute()) {
+            AttributeDefinition<?> definition = registry.getByNameUri(requestedAttribute.getDefinition());
+            if (definition != null) {
+                definitions.add(definition);
+            }
         }
+        return definitions;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindPoolMetrics(registry, "light-request-marshaller", lightRequestMarshallers);
+        bindPoolMetrics(registry, "light-response-marshaller", lightResponseMarshallers);
+        bindPoolMetrics(registry, "light-request-unmarshaller", lightRequestUnmarshallers);
+        bindPoolMetrics(registry, "secure-xml-reader", secureXmlReaders);
+    }
+
+    private void bindPoolMetrics(MeterRegistry registry, String poolName, BoundedObjectPool<?, ?> pool) {
+        FunctionCounter.builder(METRIC_POOL_HITS, pool, BoundedObjectPool::getHits)
+                .tag("pool", poolName)
+                .description("Number of times a pooled instance was reused")
+                .register(registry);
+        FunctionCounter.builder(METRIC_POOL_MISSES, pool, BoundedObjectPool::getMisses)
+                .tag("pool", poolName)
+                .description("Number of times a new instance had to be created")
+                .register(registry);
+        Gauge.builder(METRIC_POOL_IDLE, pool, BoundedObjectPool::getIdleCount)
+                .tag("pool", poolName)
+                .description("Number of idle instances in the pool")
+                .register(registry);
+    }
+
+    private static Marshaller createMarshaller(JAXBContext jaxbContext, boolean formattedOutput) throws JAXBException {
+        Marshaller marshaller = jaxbContext.createMarshaller();
         marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_ENCODING, UTF_8.name()); // NOI18N
-        marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_FORMATTED_OUTPUT, formattedOutput);
         return marshaller;
     }
 
-    private Unmarshaller createUnmarshaller() throws JAXBException {
-        return lightRequestJAXBCtx.createUnmarshaller();
+    private XMLReader createSecureXmlReader() throws SAXException {
+        try {
+            return secureSaxParserFactory.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Same XXE hardening as {@link eu.eidas.specificcommunication.protocol.util.SecurityUtils#createSecureSaxSource(String)},
+     * but the factory is configured once and the readers it produces are pooled.
+     */
+    private static SAXParserFactory createSecureSaxParserFactory() {
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setXIncludeAware(false);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            return factory;
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Unable to configure secure SAX parser factory", e);
+        }
     }
 }
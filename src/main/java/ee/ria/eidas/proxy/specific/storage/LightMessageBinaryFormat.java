@@ -0,0 +1,265 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.PendingLightResponseHolder;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeValue;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshaller;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshallingException;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.ILightResponse;
+import eu.eidas.auth.commons.light.IResponseStatus;
+import eu.eidas.auth.commons.light.impl.LightRequest;
+import eu.eidas.auth.commons.light.impl.LightResponse;
+import eu.eidas.auth.commons.light.impl.ResponseStatus;
+import org.apache.ignite.binary.BinaryObjectException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary layout of the proxy-owned cache entries in the compact format. The layout is written to a byte array, so that
+ * it can be compressed by {@link CacheEntryCompression} before it is stored in a {@link CompactCacheEntry}. Attribute
+ * values are stored in their eIDAS string form and resolved against the given attribute registry index on read.
+ * <p>
+ * The IDP authentication request URL is needed for the immediate redirect only and is not stored.
+ */
+final class LightMessageBinaryFormat {
+    static final int FORMAT_VERSION = 1;
+    private static final int NULL_LENGTH = -1;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private LightMessageBinaryFormat() {
+    }
+
+    static byte[] writeCorrelatedRequests(CorrelatedRequestsHolder correlatedRequests) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+            DataOutputStream out = new DataOutputStream(buffer);
+            writeString(out, correlatedRequests.getIdpAuthenticationRequestState());
+            writeString(out, correlatedRequests.getOidcProviderId());
+            writeString(out, correlatedRequests.getIdpEndpointId());
+            writeLightRequest(out, correlatedRequests.getLightRequest());
+            out.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new BinaryObjectException("Unable to write LightRequest", e);
+        }
+    }
+
+    static CorrelatedRequestsHolder readCorrelatedRequests(byte[] payload, AttributeRegistryIndex registry) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            String state = readString(in);
+            String oidcProviderId = readString(in);
+            String idpEndpointId = readString(in);
+            ILightRequest lightRequest = readLightRequest(in, registry);
+            return new CorrelatedRequestsHolder(lightRequest, Collections.<String, URL>singletonMap(state, null), oidcProviderId, idpEndpointId);
+        } catch (IOException e) {
+            throw new BinaryObjectException("Unable to read LightRequest", e);
+        }
+    }
+
+    static byte[] writePendingLightResponse(PendingLightResponseHolder pendingLightResponse) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeBoolean(pendingLightResponse.isMarshalled());
+            if (pendingLightResponse.isMarshalled()) {
+                writeString(out, pendingLightResponse.getInResponseToId());
+                writeString(out, pendingLightResponse.getMarshalledLightResponse());
+            } else {
+                writeLightResponse(out, pendingLightResponse.getLightResponse());
+            }
+            out.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new BinaryObjectException("Unable to write LightResponse", e);
+        }
+    }
+
+    static PendingLightResponseHolder readPendingLightResponse(byte[] payload, AttributeRegistryIndex registry) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readBoolean()) {
+                String inResponseToId = readString(in);
+                return new PendingLightResponseHolder(readString(in), inResponseToId);
+            } else {
+                return new PendingLightResponseHolder(readLightResponse(in, registry));
+            }
+        } catch (IOException e) {
+            throw new BinaryObjectException("Unable to read LightResponse", e);
+        }
+    }
+
+    private static void writeLightRequest(DataOutputStream out, ILightRequest lightRequest) throws IOException {
+        writeString(out, lightRequest.getId());
+        writeString(out, lightRequest.getIssuer());
+        writeString(out, lightRequest.getCitizenCountryCode());
+        writeString(out, lightRequest.getLevelOfAssurance());
+        writeString(out, lightRequest.getNameIdFormat());
+        writeString(out, lightRequest.getProviderName());
+        writeString(out, lightRequest.getSpType());
+        writeString(out, lightRequest.getSpCountryCode());
+        writeString(out, lightRequest.getRequesterId());
+        writeString(out, lightRequest.getRelayState());
+        writeAttributes(out, lightRequest.getRequestedAttributes());
+    }
+
+    private static ILightRequest readLightRequest(DataInputStream in, AttributeRegistryIndex registry) throws IOException {
+        LightRequest.Builder builder = LightRequest.builder()
+                .id(readString(in))
+                .issuer(readString(in))
+                .citizenCountryCode(readString(in))
+                .levelOfAssurance(readString(in))
+                .nameIdFormat(readString(in))
+                .providerName(readString(in))
+                .spType(readString(in))
+                .spCountryCode(readString(in))
+                .requesterId(readString(in))
+                .relayState(readString(in));
+        ImmutableAttributeMap requestedAttributes = readAttributes(in, registry);
+        if (requestedAttributes != null) {
+            builder.requestedAttributes(requestedAttributes);
+        }
+        return builder.build();
+    }
+
+    private static void writeLightResponse(DataOutputStream out, ILightResponse lightResponse) throws IOException {
+        writeString(out, lightResponse.getId());
+        writeString(out, lightResponse.getInResponseToId());
+        writeString(out, lightResponse.getIssuer());
+        writeString(out, lightResponse.getIPAddress());
+        writeString(out, lightResponse.getRelayState());
+        writeString(out, lightResponse.getSubject());
+        writeString(out, lightResponse.getSubjectNameIdFormat());
+        writeString(out, lightResponse.getLevelOfAssurance());
+        IResponseStatus status = lightResponse.getStatus();
+        out.writeBoolean(status != null);
+        if (status != null) {
+            out.writeBoolean(status.isFailure());
+            writeString(out, status.getStatusCode());
+            writeString(out, status.getSubStatusCode());
+            writeString(out, status.getStatusMessage());
+        }
+        writeAttributes(out, lightResponse.getAttributes());
+    }
+
+    private static ILightResponse readLightResponse(DataInputStream in, AttributeRegistryIndex registry) throws IOException {
+        LightResponse.Builder builder = LightResponse.builder()
+                .id(readString(in))
+                .inResponseToId(readString(in))
+                .issuer(readString(in))
+                .ipAddress(readString(in))
+                .relayState(readString(in))
+                .subject(readString(in))
+                .subjectNameIdFormat(readString(in))
+                .levelOfAssurance(readString(in));
+        if (in.readBoolean()) {
+            builder.status(ResponseStatus.builder()
+                    .failure(in.readBoolean())
+                    .statusCode(readString(in))
+                    .subStatusCode(readString(in))
+                    .statusMessage(readString(in))
+                    .build());
+        }
+        ImmutableAttributeMap attributes = readAttributes(in, registry);
+        if (attributes != null) {
+            builder.attributes(attributes);
+        }
+        return builder.build();
+    }
+
+    private static void writeAttributes(DataOutputStream out, ImmutableAttributeMap attributes) throws IOException {
+        if (attributes == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        Map<AttributeDefinition<?>, ? extends Set<? extends AttributeValue<?>>> attributeMap = attributes.getAttributeMap();
+        out.writeInt(attributeMap.size());
+        for (Map.Entry<AttributeDefinition<?>, ? extends Set<? extends AttributeValue<?>>> entry : attributeMap.entrySet()) {
+            writeString(out, entry.getKey().getNameUri().toASCIIString());
+            out.writeInt(entry.getValue().size());
+            for (AttributeValue<?> value : entry.getValue()) {
+                writeString(out, marshalValue(entry.getKey(), value));
+            }
+        }
+    }
+
+    private static ImmutableAttributeMap readAttributes(DataInputStream in, AttributeRegistryIndex registry) throws IOException {
+        int attributeCount = in.readInt();
+        if (attributeCount == NULL_LENGTH) {
+            return null;
+        }
+        ImmutableAttributeMap.Builder builder = ImmutableAttributeMap.builder();
+        for (int i = 0; i < attributeCount; i++) {
+            String nameUri = readString(in);
+            AttributeDefinition<?> definition = registry.getByNameUri(nameUri);
+            if (definition == null) {
+                throw new BinaryObjectException(String.format("Attribute %s not present in the registry", nameUri));
+            }
+            String[] values = new String[in.readInt()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = readString(in);
+            }
+            putAttribute(builder, definition, values);
+        }
+        return builder.build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> String marshalValue(AttributeDefinition<T> definition, AttributeValue<?> value) {
+        AttributeValueMarshaller<T> marshaller = definition.getAttributeValueMarshaller();
+        try {
+            return marshaller.marshal((AttributeValue<T>) value);
+        } catch (AttributeValueMarshallingException e) {
+            throw new BinaryObjectException("Unable to marshal value of attribute " + definition.getNameUri(), e);
+        }
+    }
+
+    private static <T> void putAttribute(ImmutableAttributeMap.Builder builder, AttributeDefinition<T> definition, String[] values) {
+        AttributeValueMarshaller<T> marshaller = definition.getAttributeValueMarshaller();
+        List<AttributeValue<T>> attributeValues = new ArrayList<>(values.length);
+        for (String value : values) {
+            try {
+                attributeValues.add(marshaller.unmarshal(value, false));
+            } catch (AttributeValueMarshallingException e) {
+                throw new BinaryObjectException("Unable to unmarshal value of attribute " + definition.getNameUri(), e);
+            }
+        }
+        builder.put(definition, attributeValues);
+    }
+}
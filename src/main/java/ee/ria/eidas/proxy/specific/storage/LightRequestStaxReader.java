@@ -0,0 +1,202 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeValue;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshaller;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshallingException;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.impl.LightRequest;
+import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static javax.xml.stream.XMLStreamConstants.DTD;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Reads the LightRequest XML produced by the EidasNode webapp directly into an {@link ILightRequest} in a single pass,
+ * without building the intermediate JAXB object graph that {@link LightJAXBCodec} converts afterwards.
+ * <p>
+ * Error semantics follow the JAXB path: documents with a DOCTYPE or an unexpected root element are rejected with
+ * {@link IllegalStateException}, unknown child elements are ignored, mandatory field validation is left to
+ * {@link LightRequest.Builder} and attributes missing from the registry fail with {@link SpecificCommunicationException}.
+ */
+class LightRequestStaxReader {
+    static final String LIGHT_REQUEST_NAMESPACE = "http://cef.eidas.eu/LightRequest";
+    private static final String LIGHT_REQUEST = "lightRequest";
+    private final XMLInputFactory secureXmlInputFactory = createSecureXmlInputFactory();
+
+    ILightRequest read(String input, AttributeRegistryIndex registry) throws SpecificCommunicationException {
+        XMLStreamReader reader = null;
+        try {
+            reader = secureXmlInputFactory.createXMLStreamReader(new StringReader(input));
+            moveToRootElement(reader);
+            return readLightRequest(reader, registry);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Failed to unmarshal incoming request! " + e.getMessage(), e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    private static void moveToRootElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == DTD) {
+                throw new XMLStreamException("DOCTYPE is disallowed");
+            } else if (event == START_ELEMENT) {
+                if (!isLightRequestElement(reader, LIGHT_REQUEST)) {
+                    String namespace = reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI();
+                    throw new XMLStreamException(String.format("unexpected element (uri:\"%s\", local:\"%s\"). Expected elements are <{%s}%s>",
+                            namespace, reader.getLocalName(), LIGHT_REQUEST_NAMESPACE, LIGHT_REQUEST));
+                }
+                return;
+            }
+        }
+        throw new XMLStreamException("Premature end of file.");
+    }
+
+    private static ILightRequest readLightRequest(XMLStreamReader reader, AttributeRegistryIndex registry)
+            throws XMLStreamException, SpecificCommunicationException {
+        LightRequest.Builder builder = LightRequest.builder();
+        while (reader.nextTag() == START_ELEMENT) {
+            if (!LIGHT_REQUEST_NAMESPACE.equals(reader.getNamespaceURI())) {
+                skipElement(reader);
+                continue;
+            }
+            switch (reader.getLocalName()) {
+                case "id":
+                    builder.id(reader.getElementText());
+                    break;
+                case "issuer":
+                    builder.issuer(reader.getElementText());
+                    break;
+                case "citizenCountryCode":
+                    builder.citizenCountryCode(reader.getElementText());
+                    break;
+                case "levelOfAssurance":
+                    builder.levelOfAssurance(reader.getElementText());
+                    break;
+                case "nameIdFormat":
+                    builder.nameIdFormat(reader.getElementText());
+                    break;
+                case "providerName":
+                    builder.providerName(reader.getElementText());
+                    break;
+                case "spType":
+                    builder.spType(reader.getElementText());
+                    break;
+                case "spCountryCode":
+                    builder.spCountryCode(reader.getElementText());
+                    break;
+                case "requesterId":
+                    builder.requesterId(reader.getElementText());
+                    break;
+                case "relayState":
+                    builder.relayState(reader.getElementText());
+                    break;
+                case "requestedAttributes":
+                    builder.requestedAttributes(readRequestedAttributes(reader, registry));
+                    break;
+                default:
+                    skipElement(reader);
+            }
+        }
+        return builder.build();
+    }
+
+    private static ImmutableAttributeMap readRequestedAttributes(XMLStreamReader reader, AttributeRegistryIndex registry)
+            throws XMLStreamException, SpecificCommunicationException {
+        ImmutableAttributeMap.Builder attributes = ImmutableAttributeMap.builder();
+        while (reader.nextTag() == START_ELEMENT) {
+            if (isLightRequestElement(reader, "attribute")) {
+                readAttribute(reader, registry, attributes);
+            } else {
+                skipElement(reader);
+            }
+        }
+        return attributes.build();
+    }
+
+    private static void readAttribute(XMLStreamReader reader, AttributeRegistryIndex registry, ImmutableAttributeMap.Builder attributes)
+            throws XMLStreamException, SpecificCommunicationException {
+        String definitionName = null;
+        List<String> values = new ArrayList<>();
+        while (reader.nextTag() == START_ELEMENT) {
+            if (isLightRequestElement(reader, "definition")) {
+                definitionName = reader.getElementText();
+            } else if (isLightRequestElement(reader, "value")) {
+                values.add(reader.getElementText());
+            } else {
+                skipElement(reader);
+            }
+        }
+        putAttribute(attributes, getAttributeDefinition(definitionName, registry), values);
+    }
+
+    private static AttributeDefinition<?> getAttributeDefinition(String definitionName, AttributeRegistryIndex registry)
+            throws SpecificCommunicationException {
+        AttributeDefinition<?> definition = registry.getByNameUri(definitionName);
+        if (definition == null) {
+            throw new SpecificCommunicationException(String.format("Attribute %s not present in the registry", definitionName));
+        }
+        return definition;
+    }
+
+    private static <T> void putAttribute(ImmutableAttributeMap.Builder attributes, AttributeDefinition<T> definition, List<String> values)
+            throws SpecificCommunicationException {
+        AttributeValueMarshaller<T> marshaller = definition.getAttributeValueMarshaller();
+        List<AttributeValue<T>> attributeValues = new ArrayList<>(values.size());
+        for (String value : values) {
+            try {
+                attributeValues.add(marshaller.unmarshal(value, false));
+            } catch (AttributeValueMarshallingException e) {
+                throw new SpecificCommunicationException(e);
+            }
+        }
+        attributes.put(definition, attributeValues);
+    }
+
+    private static boolean isLightRequestElement(XMLStreamReader reader, String localName) {
+        return LIGHT_REQUEST_NAMESPACE.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == START_ELEMENT) {
+                depth++;
+            } else if (event == END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // nothing to release for an in-memory source
+            }
+        }
+    }
+
+    private static XMLInputFactory createSecureXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
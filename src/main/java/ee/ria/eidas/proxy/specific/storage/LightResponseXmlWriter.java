@@ -0,0 +1,116 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeValue;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshaller;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshallingException;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.light.ILightResponse;
+import eu.eidas.auth.commons.light.IResponseStatus;
+import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serializes an {@link ILightResponse} into the compact LightResponse XML document in a single pass, without the
+ * intermediate JAXB object graph. Element names, order and escaping follow the output of the JAXB marshaller used by
+ * {@link LightJAXBCodec}, so the EidasNode webapp reads both documents the same way.
+ */
+class LightResponseXmlWriter {
+    static final String LIGHT_RESPONSE_NAMESPACE = "http://cef.eidas.eu/LightResponse";
+    static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+    static final String ROOT_START = "<lightResponse xmlns=\"" + LIGHT_RESPONSE_NAMESPACE + "\">";
+    static final String ROOT_END = "</lightResponse>";
+    private static final int BASE_CAPACITY = 1024;
+    private static final int ATTRIBUTE_CAPACITY = 192;
+
+    String write(ILightResponse lightResponse) throws SpecificCommunicationException {
+        if (lightResponse == null) {
+            return null;
+        }
+        ImmutableAttributeMap attributes = lightResponse.getAttributes();
+        int attributeCount = attributes == null ? 0 : attributes.getAttributeMap().size();
+        StringBuilder xml = new StringBuilder(BASE_CAPACITY + attributeCount * ATTRIBUTE_CAPACITY);
+        xml.append(XML_DECLARATION).append(ROOT_START);
+        appendElement(xml, "id", lightResponse.getId());
+        appendElement(xml, "inResponseToId", lightResponse.getInResponseToId());
+        appendElement(xml, "issuer", lightResponse.getIssuer());
+        appendElement(xml, "ipAddress", lightResponse.getIPAddress());
+        appendElement(xml, "relayState", lightResponse.getRelayState());
+        appendElement(xml, "subject", lightResponse.getSubject());
+        appendElement(xml, "subjectNameIdFormat", lightResponse.getSubjectNameIdFormat());
+        appendElement(xml, "levelOfAssurance", lightResponse.getLevelOfAssurance());
+        appendStatus(xml, lightResponse.getStatus());
+        if (attributeCount > 0) {
+            appendAttributes(xml, attributes);
+        }
+        return xml.append(ROOT_END).toString();
+    }
+
+    private static void appendStatus(StringBuilder xml, IResponseStatus status) {
+        if (status == null) {
+            return;
+        }
+        xml.append("<status>");
+        appendElement(xml, "failure", String.valueOf(status.isFailure()));
+        appendElement(xml, "statusCode", status.getStatusCode());
+        appendElement(xml, "statusMessage", status.getStatusMessage());
+        appendElement(xml, "subStatusCode", status.getSubStatusCode());
+        xml.append("</status>");
+    }
+
+    private static void appendAttributes(StringBuilder xml, ImmutableAttributeMap attributes) throws SpecificCommunicationException {
+        xml.append("<attributes>");
+        for (Map.Entry<AttributeDefinition<?>, ? extends Set<? extends AttributeValue<?>>> entry : attributes.getAttributeMap().entrySet()) {
+            xml.append("<attribute>");
+            appendElement(xml, "definition", entry.getKey().getNameUri().toASCIIString());
+            for (AttributeValue<?> value : entry.getValue()) {
+                appendElement(xml, "value", marshalValue(entry.getKey(), value));
+            }
+            xml.append("</attribute>");
+        }
+        xml.append("</attributes>");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> String marshalValue(AttributeDefinition<T> definition, AttributeValue<?> value) throws SpecificCommunicationException {
+        AttributeValueMarshaller<T> marshaller = definition.getAttributeValueMarshaller();
+        try {
+            return marshaller.marshal((AttributeValue<T>) value);
+        } catch (AttributeValueMarshallingException e) {
+            throw new SpecificCommunicationException(e);
+        }
+    }
+
+    static void appendElement(StringBuilder xml, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        xml.append('<').append(name).append('>');
+        appendEscaped(xml, value);
+        xml.append("</").append(name).append('>');
+    }
+
+    private static void appendEscaped(StringBuilder xml, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    xml.append("&amp;");
+                    break;
+                case '<':
+                    xml.append("&lt;");
+                    break;
+                case '>':
+                    xml.append("&gt;");
+                    break;
+                case '\r':
+                    xml.append("&#xD;");
+                    break;
+                default:
+                    xml.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CacheAtomicityMode;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.configuration.CacheConfiguration;
+
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ModifiedExpiryPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replicated Ignite cache through which the proxy nodes share the OIDC provider metadata, so that only one node at a
+ * time contacts the IdP. The cache holds the published metadata and a lease entry with the id of the node that is
+ * fetching it. The lease entry expires after the lease duration, so that another node takes over when the lease
+ * holder stops.
+ * <p>
+ * The cache is not part of the eIDAS-Node Ignite configuration and is created by the first proxy node that uses it.
+ */
+@Slf4j
+public class OidcMetadataClusterCache {
+    private static final String KEY_METADATA = "metadata";
+    private static final String KEY_LEASE = "lease";
+
+    private final IgniteCache<String, String> cache;
+    private final IgniteCache<String, String> leaseCache;
+    @Getter
+    private final String nodeId;
+
+    public OidcMetadataClusterCache(Ignite ignite, String cacheName, long leaseDurationInMilliseconds) {
+        CacheConfiguration<String, String> cacheConfiguration = new CacheConfiguration<String, String>(cacheName)
+                .setCacheMode(CacheMode.REPLICATED)
+                .setAtomicityMode(CacheAtomicityMode.ATOMIC);
+        this.cache = ignite.getOrCreateCache(cacheConfiguration);
+        this.leaseCache = cache.withExpiryPolicy(new ModifiedExpiryPolicy(new Duration(TimeUnit.MILLISECONDS, leaseDurationInMilliseconds)));
+        this.nodeId = ignite.cluster().localNode().id().toString();
+    }
+
+    /**
+     * Acquires the lease if no other node holds it, or extends it if this node already holds it.
+     *
+     * @return {@code true} if this node holds the lease
+     */
+    public boolean tryAcquireLease() {
+        boolean acquired = leaseCache.putIfAbsent(KEY_LEASE, nodeId) || leaseCache.replace(KEY_LEASE, nodeId, nodeId);
+        log.debug("OIDC metadata lease {} by node {}", acquired ? "held" : "not acquired", nodeId);
+        return acquired;
+    }
+
+    public void releaseLease() {
+        cache.remove(KEY_LEASE, nodeId);
+    }
+
+    public void publish(String metadata) {
+        cache.put(KEY_METADATA, metadata);
+    }
+
+    public String getPublished() {
+        return cache.get(KEY_METADATA);
+    }
+}
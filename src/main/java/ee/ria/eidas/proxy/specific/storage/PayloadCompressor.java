@@ -0,0 +1,20 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+/**
+ * Compression algorithm for proxy-owned cache entries. The id is stored with every compressed entry, so it must stay
+ * stable across releases and be unique among the compressors known to {@link CacheEntryCompression}.
+ */
+interface PayloadCompressor {
+
+    byte getId();
+
+    String getName();
+
+    byte[] compress(byte[] data);
+
+    /**
+     * @param uncompressedLength exact length of the uncompressed payload, decompression stops once it is exceeded
+     * @throws IllegalArgumentException if the data is not a valid compressed payload of the given length
+     */
+    byte[] decompress(byte[] data, int uncompressedLength);
+}
@@ -0,0 +1,135 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.PregeneratedPoolProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free pool of values that are generated in advance on a background thread, so that request threads do not
+ * contend for the shared {@link java.security.SecureRandom} when creating OIDC state values and light tokens. The pool
+ * is refilled up to its depth when it drops to the refill threshold. Values older than the maximum age are discarded,
+ * because light tokens carry their creation time. When the pool is empty, the value is created on the calling thread
+ * and the starvation is counted.
+ * <p>
+ * Pools are created with {@link PregeneratedPools}. When pre-generation is disabled, every value is created on the
+ * calling thread.
+ */
+@Slf4j
+public class PregeneratedPool<T, E extends Exception> {
+    private static final String METRIC_SIZE = "eidas.proxy.pregenerated.pool.size";
+    private static final String METRIC_STARVATIONS = "eidas.proxy.pregenerated.pool.starvations";
+    private static final String METRIC_EXPIRED = "eidas.proxy.pregenerated.pool.expired";
+
+    @FunctionalInterface
+    public interface ValueFactory<T, E extends Exception> {
+        T create() throws E;
+    }
+
+    private final String name;
+    private final ValueFactory<T, E> factory;
+    private final Executor refillExecutor;
+    private final int depth;
+    private final int refillThreshold;
+    private final long maxAgeNanos;
+    private final ConcurrentLinkedQueue<PregeneratedValue<T>> values = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final AtomicLong starvations = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    PregeneratedPool(String name, PregeneratedPoolProperties properties, ValueFactory<T, E> factory, Executor refillExecutor) {
+        this.name = name;
+        this.factory = factory;
+        this.refillExecutor = refillExecutor;
+        this.depth = properties.getDepth();
+        this.refillThreshold = Math.min(properties.getRefillThreshold(), properties.getDepth() - 1);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(properties.getMaxAgeInMilliseconds());
+    }
+
+    public T take() throws E {
+        if (refillExecutor == null) {
+            return factory.create();
+        }
+        long now = System.nanoTime();
+        PregeneratedValue<T> pregeneratedValue;
+        while ((pregeneratedValue = values.poll()) != null) {
+            int remaining = size.decrementAndGet();
+            if (now - pregeneratedValue.createdAt <= maxAgeNanos) {
+                if (remaining <= refillThreshold) {
+                    scheduleRefill();
+                }
+                return pregeneratedValue.value;
+            }
+            expired.incrementAndGet();
+        }
+        starvations.incrementAndGet();
+        scheduleRefill();
+        return factory.create();
+    }
+
+    void scheduleRefill() {
+        if (refillExecutor != null && refilling.compareAndSet(false, true)) {
+            try {
+                refillExecutor.execute(this::refill);
+            } catch (RejectedExecutionException e) {
+                refilling.set(false);
+            }
+        }
+    }
+
+    void bindTo(MeterRegistry registry) {
+        Gauge.builder(METRIC_SIZE, size, AtomicInteger::get)
+                .tag("pool", name)
+                .description("Number of pre-generated values available in the pool")
+                .register(registry);
+        FunctionCounter.builder(METRIC_STARVATIONS, starvations, AtomicLong::get)
+                .tag("pool", name)
+                .description("Values generated on the request thread because the pool was empty")
+                .register(registry);
+        FunctionCounter.builder(METRIC_EXPIRED, expired, AtomicLong::get)
+                .tag("pool", name)
+                .description("Pre-generated values discarded because they exceeded the maximum age")
+                .register(registry);
+    }
+
+    int getSize() {
+        return size.get();
+    }
+
+    long getStarvations() {
+        return starvations.get();
+    }
+
+    private void refill() {
+        try {
+            while (size.get() < depth) {
+                values.offer(new PregeneratedValue<>(factory.create(), System.nanoTime()));
+                size.incrementAndGet();
+            }
+        } catch (Exception e) {
+            log.warn("Unable to pre-generate values for pool: {}", name, e);
+        } finally {
+            refilling.set(false);
+        }
+    }
+
+    private static final class PregeneratedValue<T> {
+        private final T value;
+        private final long createdAt;
+
+        private PregeneratedValue(T value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+}
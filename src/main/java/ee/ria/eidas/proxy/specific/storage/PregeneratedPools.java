@@ -0,0 +1,63 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.PregeneratedPoolProperties;
+import ee.ria.eidas.proxy.specific.storage.PregeneratedPool.ValueFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the {@link PregeneratedPool}s and refills them on a single background thread. Pool metrics are tagged with
+ * the pool name.
+ */
+@Component
+public class PregeneratedPools implements MeterBinder, DisposableBean {
+    private final PregeneratedPoolProperties properties;
+    private final ExecutorService refillExecutor;
+    private final List<PregeneratedPool<?, ?>> pools = new CopyOnWriteArrayList<>();
+    private MeterRegistry meterRegistry;
+
+    public PregeneratedPools(SpecificProxyServiceProperties specificProxyServiceProperties) {
+        this.properties = specificProxyServiceProperties.getPregeneratedPool();
+        this.refillExecutor = properties.isEnabled() ? Executors.newSingleThreadExecutor(refillThreadFactory()) : null;
+    }
+
+    public synchronized <T, E extends Exception> PregeneratedPool<T, E> create(String name, ValueFactory<T, E> factory) {
+        PregeneratedPool<T, E> pool = new PregeneratedPool<>(name, properties, factory, refillExecutor);
+        if (refillExecutor != null) {
+            pools.add(pool);
+            if (meterRegistry != null) {
+                pool.bindTo(meterRegistry);
+            }
+            pool.scheduleRefill();
+        }
+        return pool;
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        meterRegistry = registry;
+        pools.forEach(pool -> pool.bindTo(registry));
+    }
+
+    @Override
+    public void destroy() {
+        if (refillExecutor != null) {
+            refillExecutor.shutdownNow();
+        }
+    }
+
+    private static CustomizableThreadFactory refillThreadFactory() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("pregenerated-pool-refill-");
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+}
@@ -2,7 +2,7 @@ package ee.ria.eidas.proxy.specific.storage;
 
 import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
 import ee.ria.eidas.proxy.specific.error.BadRequestException;
-import eu.eidas.auth.commons.exceptions.SecurityEIDASException;
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
 import eu.eidas.auth.commons.light.ILightRequest;
 import eu.eidas.auth.commons.light.ILightResponse;
 import eu.eidas.auth.commons.tx.BinaryLightToken;
@@ -11,11 +11,14 @@ import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
+import org.apache.ignite.binary.BinaryObjectException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
+import javax.annotation.PostConstruct;
 import javax.cache.Cache;
 import java.io.Serializable;
 import java.net.URL;
@@ -32,21 +35,54 @@ public class SpecificProxyServiceCommunication {
     @Autowired
     private SpecificProxyServiceProperties specificProxyServiceProperties;
 
+    /**
+     * Holds {@link CorrelatedRequestsHolder} entries in the legacy format, or {@link CompactCacheEntry} entries.
+     */
     @Lazy
     @Autowired
-    private Cache<String, CorrelatedRequestsHolder> idpRequestCommunicationCache;
+    @Qualifier("specificMSIdpRequestCorrelationMap")
+    private Cache<String, Object> idpRequestCommunicationCache;
 
+    /**
+     * Holds bare {@link ILightResponse} entries in the legacy format, or {@link CompactCacheEntry} entries.
+     */
     @Lazy
     @Autowired
-    private Cache<String, ILightResponse> idpConsentCommunicationCache;
+    @Qualifier("specificMSIdpConsentCorrelationMap")
+    private Cache<String, Object> idpConsentCommunicationCache;
 
-    public BinaryLightToken putPendingLightResponse(ILightResponse lightResponse) throws SpecificCommunicationException {
-        final BinaryLightToken binaryLightToken = BinaryLightTokenHelper.createBinaryLightToken(
+    @Autowired
+    private LightJAXBCodec codec;
+
+    @Autowired
+    private AttributeRegistryIndex eidasAttributeRegistryIndex;
+
+    @Autowired
+    private CacheEntryCompression cacheEntryCompression;
+
+    @Autowired
+    private PregeneratedPools pregeneratedPools;
+
+    private PregeneratedPool<BinaryLightToken, SpecificCommunicationException> consentLightTokens;
+
+    private BinaryLightTokenVerifier consentLightTokenVerifier;
+
+    @PostConstruct
+    public void init() {
+        consentLightTokens = pregeneratedPools.create("consent-light-token", () -> BinaryLightTokenHelper.createBinaryLightToken(
                 specificProxyServiceProperties.getConsentBinaryLightToken().getIssuer(),
+                specificProxyServiceProperties.getConsentBinaryLightToken().getSecret(),
+                specificProxyServiceProperties.getConsentBinaryLightToken().getAlgorithm()));
+        consentLightTokenVerifier = new BinaryLightTokenVerifier(
                 specificProxyServiceProperties.getConsentBinaryLightToken().getSecret(),
                 specificProxyServiceProperties.getConsentBinaryLightToken().getAlgorithm());
+    }
+
+    public BinaryLightToken putPendingLightResponse(ILightResponse lightResponse) throws SpecificCommunicationException {
+        final BinaryLightToken binaryLightToken = consentLightTokens.take();
 
-        boolean isInserted = idpConsentCommunicationCache.putIfAbsent(binaryLightToken.getToken().getId(), lightResponse);
+        final Object pendingLightResponse = createPendingLightResponseEntry(lightResponse);
+        boolean isInserted = idpConsentCommunicationCache.putIfAbsent(binaryLightToken.getToken().getId(), pendingLightResponse);
 
         if (isInserted) {
             if (log.isInfoEnabled())
@@ -65,39 +101,96 @@ public class SpecificProxyServiceCommunication {
         return binaryLightToken;
     }
 
-    public ILightResponse getAndRemovePendingLightResponse(String binaryLightTokenBase64) {
+    public PendingLightResponseHolder getAndRemovePendingLightResponse(String binaryLightTokenBase64) {
         Assert.isTrue(StringUtils.isNotEmpty(binaryLightTokenBase64), "Token value cannot be null or empty!");
 
-        try {
-            final String lightTokenId = BinaryLightTokenHelper.getBinaryLightTokenId(binaryLightTokenBase64,
-                    specificProxyServiceProperties.getConsentBinaryLightToken().getSecret(),
-                    specificProxyServiceProperties.getConsentBinaryLightToken().getAlgorithm());
+        final String lightTokenId = consentLightTokenVerifier.getTokenId(binaryLightTokenBase64);
+        if (lightTokenId == null) {
+            throw new BadRequestException("Invalid token");
+        }
 
-            ILightResponse lightResponse = idpConsentCommunicationCache.getAndRemove(lightTokenId);
+        PendingLightResponseHolder pendingLightResponse = toPendingLightResponse(idpConsentCommunicationCache.getAndRemove(lightTokenId));
 
-            if (lightResponse != null) {
+        if (pendingLightResponse != null) {
 
-                if (log.isInfoEnabled())
-                    log.info(append(IGNITE_CACHE_NAME, idpConsentCommunicationCache.getName()),
-                            "LightResponse retrieved from cache for tokenId: '{}'",
-                            value(LIGHT_RESPONSE_LIGHT_TOKEN_ID, lightTokenId));
-            } else {
+            if (log.isInfoEnabled())
+                log.info(append(IGNITE_CACHE_NAME, idpConsentCommunicationCache.getName()),
+                        "LightResponse retrieved from cache for tokenId: '{}'",
+                        value(LIGHT_RESPONSE_LIGHT_TOKEN_ID, lightTokenId));
+        } else {
 
-                if (log.isWarnEnabled())
-                    log.warn(append(IGNITE_CACHE_NAME, idpConsentCommunicationCache.getName()),
-                            "LightResponse not found from cache for tokenId: '{}'",
-                            value(LIGHT_RESPONSE_LIGHT_TOKEN_ID, lightTokenId));
-            }
+            if (log.isWarnEnabled())
+                log.warn(append(IGNITE_CACHE_NAME, idpConsentCommunicationCache.getName()),
+                        "LightResponse not found from cache for tokenId: '{}'",
+                        value(LIGHT_RESPONSE_LIGHT_TOKEN_ID, lightTokenId));
+        }
+
+        return pendingLightResponse;
+    }
 
+    /**
+     * Until the whole cluster is upgraded, pending consents are stored as bare {@link ILightResponse} entries that
+     * older nodes can read. The marshalled form is always stored in the compact format, because older nodes do not
+     * support it.
+     */
+    private Object createPendingLightResponseEntry(ILightResponse lightResponse) throws SpecificCommunicationException {
+        if (specificProxyServiceProperties.isStoreMarshalledConsentResponse()) {
+            return toCompactEntry(LightMessageBinaryFormat.writePendingLightResponse(
+                    new PendingLightResponseHolder(codec.marshall(lightResponse), lightResponse.getInResponseToId())));
+        } else if (specificProxyServiceProperties.getCommunicationCache().isCompactEntryFormat()) {
+            return toCompactEntry(LightMessageBinaryFormat.writePendingLightResponse(new PendingLightResponseHolder(lightResponse)));
+        } else {
             return lightResponse;
+        }
+    }
+
+    private PendingLightResponseHolder toPendingLightResponse(Object cacheEntry) {
+        if (cacheEntry == null) {
+            return null;
+        } else if (cacheEntry instanceof CompactCacheEntry) {
+            return LightMessageBinaryFormat.readPendingLightResponse(fromCompactEntry((CompactCacheEntry) cacheEntry), eidasAttributeRegistryIndex);
+        } else if (cacheEntry instanceof ILightResponse) {
+            return new PendingLightResponseHolder((ILightResponse) cacheEntry);
+        } else {
+            throw new IllegalStateException("Unsupported pending LightResponse cache entry: " + cacheEntry.getClass().getName());
+        }
+    }
+
+    /**
+     * Until the whole cluster is upgraded, pending IDP requests are stored with reflective field serialization that
+     * older nodes can read.
+     */
+    private Object createIdpRequestEntry(CorrelatedRequestsHolder requestsHolder) {
+        if (specificProxyServiceProperties.getCommunicationCache().isCompactEntryFormat()) {
+            return toCompactEntry(LightMessageBinaryFormat.writeCorrelatedRequests(requestsHolder));
+        } else {
+            return requestsHolder;
+        }
+    }
 
-        } catch (SpecificCommunicationException | SecurityEIDASException e) {
-            throw new BadRequestException("Invalid token", e);
+    private CorrelatedRequestsHolder toCorrelatedRequests(Object cacheEntry) {
+        if (cacheEntry == null || cacheEntry instanceof CorrelatedRequestsHolder) {
+            return (CorrelatedRequestsHolder) cacheEntry;
+        } else if (cacheEntry instanceof CompactCacheEntry) {
+            return LightMessageBinaryFormat.readCorrelatedRequests(fromCompactEntry((CompactCacheEntry) cacheEntry), eidasAttributeRegistryIndex);
+        } else {
+            throw new IllegalStateException("Unsupported pending IDP request cache entry: " + cacheEntry.getClass().getName());
         }
     }
 
+    private CompactCacheEntry toCompactEntry(byte[] payload) {
+        return new CompactCacheEntry(LightMessageBinaryFormat.FORMAT_VERSION, cacheEntryCompression.encode(payload));
+    }
+
+    private byte[] fromCompactEntry(CompactCacheEntry cacheEntry) {
+        if (cacheEntry.getVersion() != LightMessageBinaryFormat.FORMAT_VERSION) {
+            throw new BinaryObjectException("Unsupported cache entry format version: " + cacheEntry.getVersion());
+        }
+        return cacheEntryCompression.decode(cacheEntry.getPayload());
+    }
+
     public void putIdpRequest(String state, CorrelatedRequestsHolder requestsHolder) {
-        boolean isInserted = idpRequestCommunicationCache.putIfAbsent(state, requestsHolder);
+        boolean isInserted = idpRequestCommunicationCache.putIfAbsent(state, createIdpRequestEntry(requestsHolder));
 
         if (isInserted) {
 
@@ -117,16 +210,20 @@ public class SpecificProxyServiceCommunication {
     }
 
     public ILightRequest getAndRemoveIdpRequest(String inResponseToId) {
-        CorrelatedRequestsHolder correlatedRequestsHolder = idpRequestCommunicationCache.getAndRemove(inResponseToId);
+        CorrelatedRequestsHolder correlatedRequestsHolder = getAndRemoveCorrelatedRequests(inResponseToId);
+        return correlatedRequestsHolder != null ? correlatedRequestsHolder.getLightRequest() : null;
+    }
+
+    public CorrelatedRequestsHolder getAndRemoveCorrelatedRequests(String inResponseToId) {
+        CorrelatedRequestsHolder correlatedRequestsHolder = toCorrelatedRequests(idpRequestCommunicationCache.getAndRemove(inResponseToId));
 
         if (correlatedRequestsHolder != null) {
-            ILightRequest originalLightRequest = correlatedRequestsHolder.getLightRequest();
 
             if (log.isInfoEnabled())
                 log.info(append(IGNITE_CACHE_NAME, idpRequestCommunicationCache.getName()),
                         "Pending IDP request retrieved from cache for id: '{}'",
                         value(IDP_REQUEST_LIGHT_TOKEN_ID, inResponseToId));
-            return originalLightRequest;
+            return correlatedRequestsHolder;
         } else {
 
             if (log.isWarnEnabled())
@@ -140,6 +237,10 @@ public class SpecificProxyServiceCommunication {
 
     /**
      * Holds the light request and the correlated specific IDP request.
+     * <p>
+     * Stored in Ignite with reflective field serialization, which older nodes can read, or as a {@link CompactCacheEntry}
+     * when the compact entry format is enabled. The compact format does not keep the IDP authentication request URL,
+     * which is only needed for the immediate redirect.
      */
     public static class CorrelatedRequestsHolder implements Serializable {
 
@@ -151,19 +252,81 @@ public class SpecificProxyServiceCommunication {
         @Getter
         private final Map<String, URL> authenticationRequest;
 
+        @Getter
+        private final String oidcProviderId;
+
+        @Getter
+        private final String idpEndpointId;
+
         public CorrelatedRequestsHolder(ILightRequest lightRequest, Map<String, URL> authenticationRequest) {
+            this(lightRequest, authenticationRequest, null, null);
+        }
+
+        public CorrelatedRequestsHolder(ILightRequest lightRequest, Map<String, URL> authenticationRequest, String idpEndpointId) {
+            this(lightRequest, authenticationRequest, null, idpEndpointId);
+        }
+
+        /**
+         * @param oidcProviderId id of the OIDC provider the authentication request was routed to, or {@code null} for
+         *                       the default provider
+         */
+        public CorrelatedRequestsHolder(ILightRequest lightRequest, Map<String, URL> authenticationRequest, String oidcProviderId,
+                                        String idpEndpointId) {
             Assert.notNull(lightRequest, "Original LightRequest missing!");
             Assert.notNull(authenticationRequest, "IDP authentication request missing!");
             this.lightRequest = lightRequest;
             this.authenticationRequest = authenticationRequest;
+            this.oidcProviderId = oidcProviderId;
+            this.idpEndpointId = idpEndpointId;
         }
 
         public String getIdpAuthenticationRequestState() {
             return authenticationRequest.entrySet().stream().findFirst().orElseThrow(() -> new IllegalStateException("Missing IDP authentication state")).getKey();
         }
 
+        /**
+         * @throws IllegalStateException if the holder was read from a compact cache entry, which does not keep the URL
+         */
         public URL getIdpAuthenticationRequest() {
-            return authenticationRequest.entrySet().stream().findFirst().orElseThrow(() -> new IllegalStateException("Missing IDP authentication request")).getValue();
+            URL idpAuthenticationRequest = authenticationRequest.entrySet().stream().findFirst().orElseThrow(() -> new IllegalStateException("Missing IDP authentication request")).getValue();
+            if (idpAuthenticationRequest == null) {
+                throw new IllegalStateException("IDP authentication request is not kept in the compact cache entry format");
+            }
+            return idpAuthenticationRequest;
+        }
+    }
+
+    /**
+     * Holds the LightResponse that is waiting for the user consent, either as LightResponse fields or as the final
+     * LightResponse XML that is handed over to the EidasNode as is.
+     */
+    public static class PendingLightResponseHolder {
+
+        @Getter
+        private final ILightResponse lightResponse;
+
+        @Getter
+        private final String marshalledLightResponse;
+
+        @Getter
+        private final String inResponseToId;
+
+        public PendingLightResponseHolder(ILightResponse lightResponse) {
+            Assert.notNull(lightResponse, "LightResponse missing!");
+            this.lightResponse = lightResponse;
+            this.marshalledLightResponse = null;
+            this.inResponseToId = lightResponse.getInResponseToId();
+        }
+
+        public PendingLightResponseHolder(String marshalledLightResponse, String inResponseToId) {
+            Assert.notNull(marshalledLightResponse, "Marshalled LightResponse missing!");
+            this.lightResponse = null;
+            this.marshalledLightResponse = marshalledLightResponse;
+            this.inResponseToId = inResponseToId;
+        }
+
+        public boolean isMarshalled() {
+            return marshalledLightResponse != null;
         }
     }
 }
@@ -0,0 +1,74 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
+import ee.ria.eidas.proxy.specific.web.IdpResponseController.IdpCallbackRequest;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.ILightResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static ee.ria.eidas.proxy.specific.web.IdpResponseController.ENDPOINT_IDP_RESPONSE;
+
+/**
+ * Handles the IdP authentication callback without holding the servlet container thread. Cache operations run on the
+ * cache executor and the token request on the IdP executor (see {@link IdpCallbackExecutors}). Errors are passed to
+ * the same exception handlers as in {@link IdpResponseController}. When the request times out before the IdP
+ * response is processed, the LightResponse is not stored, because no client would collect it.
+ */
+@Slf4j
+@Controller
+@ConditionalOnProperty(value = "eidas.proxy.async-idp-callback.enabled", havingValue = "true")
+public class AsyncIdpResponseController {
+
+	@Autowired
+	private SpecificProxyServiceProperties specificProxyServiceProperties;
+
+	@Autowired
+	private IdpCallbackProcessor idpCallbackProcessor;
+
+	@Autowired
+	private IdpCallbackExecutors idpCallbackExecutors;
+
+	@GetMapping(value = ENDPOINT_IDP_RESPONSE)
+	public DeferredResult<ModelAndView> processIdpResponse(IdpCallbackRequest idpCallbackRequest) {
+		idpCallbackProcessor.validateCallbackParameters(idpCallbackRequest);
+
+		DeferredResult<ModelAndView> result = new DeferredResult<>(specificProxyServiceProperties.getAsyncIdpCallback().getTimeoutInMilliseconds());
+		result.onTimeout(() -> result.setErrorResult(new IllegalStateException("IdP callback processing timed out")));
+
+		CompletableFuture
+				.supplyAsync(() -> idpCallbackProcessor.getAndRemoveCorrelatedRequests(idpCallbackRequest), idpCallbackExecutors.getCacheExecutor())
+				.thenCompose(correlatedRequestsHolder -> queryIdpAndProcessResponse(idpCallbackRequest, correlatedRequestsHolder, result))
+				.whenComplete((modelAndView, throwable) -> {
+					if (throwable != null) {
+						result.setErrorResult(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+					} else {
+						result.setResult(modelAndView);
+					}
+				});
+		return result;
+	}
+
+	private CompletableFuture<ModelAndView> queryIdpAndProcessResponse(IdpCallbackRequest idpCallbackRequest, CorrelatedRequestsHolder correlatedRequestsHolder, DeferredResult<ModelAndView> result) {
+		return CompletableFuture
+				.supplyAsync(() -> idpCallbackProcessor.queryIdpForRequestedAttributes(idpCallbackRequest, correlatedRequestsHolder), idpCallbackExecutors.getIdpExecutor())
+				.thenApplyAsync(lightResponse -> processIdpAuthenticationResponse(correlatedRequestsHolder.getLightRequest(), lightResponse, result), idpCallbackExecutors.getCacheExecutor());
+	}
+
+	private ModelAndView processIdpAuthenticationResponse(ILightRequest lightRequest, ILightResponse lightResponse, DeferredResult<ModelAndView> result) {
+		if (result.isSetOrExpired()) {
+			log.warn("IdP callback processing timed out, LightResponse with id: '{}' is not stored", lightResponse.getId());
+			return null;
+		}
+		return idpCallbackProcessor.processIdpAuthenticationResponse(lightRequest, lightResponse);
+	}
+}
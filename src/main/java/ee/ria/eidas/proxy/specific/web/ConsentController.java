@@ -1,12 +1,12 @@
 package ee.ria.eidas.proxy.specific.web;
 
-import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
 import ee.ria.eidas.proxy.specific.error.BadRequestException;
 import ee.ria.eidas.proxy.specific.error.RequestDeniedException;
+import ee.ria.eidas.proxy.specific.service.RedirectUrlTemplate;
 import ee.ria.eidas.proxy.specific.storage.EidasNodeCommunication;
 import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.PendingLightResponseHolder;
 import eu.eidas.auth.commons.EidasParameterKeys;
-import eu.eidas.auth.commons.light.ILightResponse;
 import eu.eidas.auth.commons.tx.BinaryLightToken;
 import eu.eidas.specificcommunication.BinaryLightTokenHelper;
 import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
@@ -15,22 +15,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Controller;
-import org.springframework.validation.annotation.Validated;
+import org.springframework.validation.BindException;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.servlet.ModelAndView;
-import org.springframework.web.util.UriComponentsBuilder;
 
-import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Pattern;
-import javax.validation.constraints.Size;
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URL;
-import java.util.List;
+import javax.servlet.http.HttpServletRequest;
 
-import static ee.ria.eidas.proxy.specific.error.SpecificProxyServiceExceptionHandler.MULTIPLE_INSTANCES_OF_PARAMETER_IS_NOT_ALLOWED;
-import static ee.ria.eidas.proxy.specific.web.filter.HttpRequestHelper.getBooleanParameterValue;
-import static ee.ria.eidas.proxy.specific.web.filter.HttpRequestHelper.getStringParameterValue;
+import static ee.ria.eidas.proxy.specific.web.RequestParameterBinder.MUST_NOT_BE_NULL;
 
 @Slf4j
 @Controller
@@ -40,7 +31,7 @@ public class ConsentController {
 	public static final String ENDPOINT_USER_CONSENT = "/Consent";
 
 	@Autowired
-	private SpecificProxyServiceProperties specificProxyServiceProperties;
+	private RedirectUrlTemplate nodeSpecificResponseUrlTemplate;
 
 	@Autowired
 	private EidasNodeCommunication eidasNodeCommunication;
@@ -49,36 +40,39 @@ public class ConsentController {
 	private SpecificProxyServiceCommunication specificProxyServiceCommunication;
 
 	@GetMapping(value = ENDPOINT_USER_CONSENT)
-	public ModelAndView consent(@Validated RequestParameters request) throws SpecificCommunicationException, MalformedURLException {
+	public ModelAndView consent(RequestParameters request) throws SpecificCommunicationException {
 
-		String tokenBase64 = getStringParameterValue(request.getToken());
-		boolean cancel = getBooleanParameterValue(request.getCancel(), false);
+		String tokenBase64 = request.getToken();
+		boolean cancel = Boolean.TRUE.equals(request.getCancel());
 
-		final ILightResponse originalLightResponse = specificProxyServiceCommunication.getAndRemovePendingLightResponse(tokenBase64);
-		if (originalLightResponse == null)
+		final PendingLightResponseHolder pendingLightResponse = specificProxyServiceCommunication.getAndRemovePendingLightResponse(tokenBase64);
+		if (pendingLightResponse == null)
 			throw new BadRequestException("Invalid token");
 
 		if (cancel) {
-			throw new RequestDeniedException("User canceled the authentication process", originalLightResponse.getInResponseToId());
+			throw new RequestDeniedException("User canceled the authentication process", pendingLightResponse.getInResponseToId());
 		}
 
-		BinaryLightToken binaryLightToken = eidasNodeCommunication.putResponse(originalLightResponse);
+		BinaryLightToken binaryLightToken = eidasNodeCommunication.putResponse(pendingLightResponse);
 		String token = BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken);
-		URL redirectUrl = UriComponentsBuilder.fromUri(URI.create(specificProxyServiceProperties.getNodeSpecificResponseUrl()))
-					.queryParam(EidasParameterKeys.TOKEN.getValue() , token)
-					.build().toUri().toURL();
-
-		return new ModelAndView("redirect:" + redirectUrl);
+		return DirectRedirectView.redirect(nodeSpecificResponseUrlTemplate.expand()
+				.queryParam(EidasParameterKeys.TOKEN.getValue(), token)
+				.toUriString());
 	}
 
 	@Data
 	public static class RequestParameters {
+		private String token;
 
-		@NotNull
-		@Size(max = 1, message = MULTIPLE_INSTANCES_OF_PARAMETER_IS_NOT_ALLOWED)
-		private List<@Pattern(regexp = "^[A-Za-z0-9+/=]{1,1000}$", message = "only base64 characters allowed") String> token;
+		private Boolean cancel;
 
-		@Size(max = 1, message = MULTIPLE_INSTANCES_OF_PARAMETER_IS_NOT_ALLOWED)
-		private List<Boolean> cancel;
+		static RequestParameters bind(HttpServletRequest request) throws BindException {
+			RequestParameterBinder binder = new RequestParameterBinder(request, "requestParameters");
+			RequestParameters parameters = new RequestParameters();
+			parameters.setToken(binder.getBase64Value("token", MUST_NOT_BE_NULL));
+			parameters.setCancel(binder.getBooleanValue("cancel"));
+			binder.validate();
+			return parameters;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.View;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Sends a 302 redirect to a URL that is already fully built and encoded. Unlike a {@code "redirect:"} view name it
+ * is not resolved by the view resolvers and the model is not exposed in the URL.
+ */
+public class DirectRedirectView implements View {
+    private final String url;
+
+    public DirectRedirectView(String url) {
+        this.url = url;
+    }
+
+    public static ModelAndView redirect(String url) {
+        return new ModelAndView(new DirectRedirectView(url));
+    }
+
+    @Override
+    public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_FOUND);
+        response.setHeader(HttpHeaders.LOCATION, url);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+}
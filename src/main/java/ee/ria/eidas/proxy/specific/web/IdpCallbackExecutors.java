@@ -0,0 +1,131 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.AsyncIdpCallbackProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.AsyncIdpCallbackProperties.ExecutorProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded executors for the asynchronous IdP callback: one for the token endpoint round trip and ID-token
+ * validation, and one for the communication cache reads and writes. A full queue rejects the task instead of
+ * blocking the caller, and the rejection is counted.
+ * <p>
+ * Logging context of the submitting thread is copied to the task.
+ */
+@Slf4j
+public class IdpCallbackExecutors implements MeterBinder, DisposableBean {
+    private static final String METRIC_REJECTED = "eidas.proxy.executor.rejected";
+    private static final String IDP_EXECUTOR_NAME = "idp-callback-idp";
+    private static final String CACHE_EXECUTOR_NAME = "idp-callback-cache";
+
+    private final ThreadPoolExecutor idpExecutor;
+    private final ThreadPoolExecutor cacheExecutor;
+    private final Executor mdcIdpExecutor;
+    private final Executor mdcCacheExecutor;
+
+    public IdpCallbackExecutors(AsyncIdpCallbackProperties properties) {
+        idpExecutor = createExecutor(IDP_EXECUTOR_NAME, properties.getIdpExecutor());
+        cacheExecutor = createExecutor(CACHE_EXECUTOR_NAME, properties.getCacheExecutor());
+        mdcIdpExecutor = withLoggingContext(idpExecutor);
+        mdcCacheExecutor = withLoggingContext(cacheExecutor);
+    }
+
+    public Executor getIdpExecutor() {
+        return mdcIdpExecutor;
+    }
+
+    public Executor getCacheExecutor() {
+        return mdcCacheExecutor;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindTo(registry, IDP_EXECUTOR_NAME, idpExecutor);
+        bindTo(registry, CACHE_EXECUTOR_NAME, cacheExecutor);
+    }
+
+    @Override
+    public void destroy() {
+        idpExecutor.shutdown();
+        cacheExecutor.shutdown();
+    }
+
+    private static void bindTo(MeterRegistry registry, String name, ThreadPoolExecutor executor) {
+        new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(registry);
+        ((RejectionHandler) executor.getRejectedExecutionHandler()).bindTo(registry);
+    }
+
+    private static ThreadPoolExecutor createExecutor(String name, ExecutorProperties properties) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(properties.getPoolSize(), properties.getPoolSize(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                new CustomizableThreadFactory(name + "-"),
+                new RejectionHandler(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static Executor withLoggingContext(Executor executor) {
+        return command -> {
+            Map<String, String> context = MDC.getCopyOfContextMap();
+            executor.execute(() -> {
+                Map<String, String> previous = MDC.getCopyOfContextMap();
+                setContextMap(context);
+                try {
+                    command.run();
+                } finally {
+                    setContextMap(previous);
+                }
+            });
+        };
+    }
+
+    private static void setContextMap(Map<String, String> context) {
+        if (context == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(context);
+        }
+    }
+
+    private static final class RejectionHandler implements RejectedExecutionHandler {
+        private final String name;
+        private volatile Counter rejected;
+
+        RejectionHandler(String name) {
+            this.name = name;
+        }
+
+        void bindTo(MeterRegistry registry) {
+            rejected = Counter.builder(METRIC_REJECTED)
+                    .description("Number of IdP callback tasks rejected because the executor queue was full")
+                    .tag("name", name)
+                    .register(registry);
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            Counter counter = rejected;
+            if (counter != null) {
+                counter.increment();
+            }
+            log.warn("IdP callback executor '{}' saturated: {} active, {} queued", name, executor.getActiveCount(), executor.getQueue().size());
+            throw new RejectedExecutionException("IdP callback executor '" + name + "' is saturated");
+        }
+    }
+}
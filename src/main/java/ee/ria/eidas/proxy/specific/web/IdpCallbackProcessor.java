@@ -0,0 +1,149 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.error.BadRequestException;
+import ee.ria.eidas.proxy.specific.error.RequestDeniedException;
+import ee.ria.eidas.proxy.specific.service.RedirectUrlTemplate;
+import ee.ria.eidas.proxy.specific.service.SpecificProxyService;
+import ee.ria.eidas.proxy.specific.storage.EidasNodeCommunication;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
+import ee.ria.eidas.proxy.specific.web.IdpResponseController.IdpCallbackRequest;
+import eu.eidas.auth.commons.EidasParameterKeys;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeRegistry;
+import eu.eidas.auth.commons.attribute.AttributeValue;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.ILightResponse;
+import eu.eidas.auth.commons.tx.BinaryLightToken;
+import eu.eidas.specificcommunication.BinaryLightTokenHelper;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.ModelAndView;
+
+import static ee.ria.eidas.proxy.specific.web.IdpResponseController.PARAMETER_TOKEN;
+
+/**
+ * Steps of the IdP authentication callback, shared by {@link IdpResponseController} and
+ * {@link AsyncIdpResponseController}. Each step either reads or writes the caches or calls the IdP, so that the
+ * asynchronous controller can run them on the matching executor.
+ */
+@Slf4j
+@Component
+class IdpCallbackProcessor {
+
+	@Autowired
+	private SpecificProxyServiceProperties specificProxyServiceProperties;
+
+	@Autowired
+	private SpecificProxyService specificProxyService;
+
+	@Autowired
+	private EidasNodeCommunication eidasNodeCommunication;
+
+	@Autowired
+	private SpecificProxyServiceCommunication specificProxyServiceCommunication;
+
+	@Autowired
+	private AttributeRegistry eidasAttributeRegistry;
+
+	@Autowired
+	private RedirectUrlTemplate nodeSpecificResponseUrlTemplate;
+
+	void validateCallbackParameters(IdpCallbackRequest idpCallbackRequest) {
+		String errorCode = idpCallbackRequest.getError();
+		String oAuthCode = idpCallbackRequest.getCode();
+
+		if (errorCode == null && oAuthCode == null) {
+			throw new BadRequestException("Either error or code parameter is required");
+		}
+
+		if (errorCode != null && oAuthCode != null) {
+			throw new BadRequestException("Either error or code parameter can be present in a callback request. Both code and error parameters found");
+		}
+	}
+
+	@SneakyThrows
+	CorrelatedRequestsHolder getAndRemoveCorrelatedRequests(IdpCallbackRequest idpCallbackRequest) {
+		String state = idpCallbackRequest.getState();
+		String errorCode = idpCallbackRequest.getError();
+		String errorDescription = idpCallbackRequest.getErrorDescription();
+
+		CorrelatedRequestsHolder correlatedRequestsHolder = specificProxyServiceCommunication.getAndRemoveCorrelatedRequests(state);
+		if (correlatedRequestsHolder == null) {
+			throw new BadRequestException("Invalid state");
+		}
+		ILightRequest originalLightRequest = correlatedRequestsHolder.getLightRequest();
+
+		if ( errorCode != null ) {
+			if (isAuthenticationCancelled(errorCode)) {
+				throw new RequestDeniedException("User canceled the authentication process", originalLightRequest.getId());
+			} else {
+				throw new IllegalStateException(String.format("OIDC authentication request has returned an error (code = '%s', description = '%s')", errorCode, errorDescription));
+			}
+		}
+		return correlatedRequestsHolder;
+	}
+
+	ILightResponse queryIdpForRequestedAttributes(IdpCallbackRequest idpCallbackRequest, CorrelatedRequestsHolder correlatedRequestsHolder) {
+		log.info("Handling successful authentication callback from Idp: {}", idpCallbackRequest);
+		return specificProxyService.queryIdpForRequestedAttributes(
+				idpCallbackRequest.getCode(),
+				correlatedRequestsHolder.getLightRequest(),
+				correlatedRequestsHolder.getOidcProviderId(),
+				correlatedRequestsHolder.getIdpEndpointId());
+	}
+
+	@SneakyThrows
+	ModelAndView processIdpAuthenticationResponse(ILightRequest originalLightRequest, ILightResponse lightResponse) {
+
+		if (specificProxyServiceProperties.isAskConsent()) {
+			return getConsentModelAndView(originalLightRequest, lightResponse);
+		} else {
+			BinaryLightToken binaryLightToken = eidasNodeCommunication.putResponse(lightResponse);
+			String token = BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken);
+			return DirectRedirectView.redirect(nodeSpecificResponseUrlTemplate.expand()
+					.queryParam(EidasParameterKeys.TOKEN.getValue(), token)
+					.toUriString());
+		}
+	}
+
+	private ModelAndView getConsentModelAndView(ILightRequest originalLightRequest, ILightResponse lightResponse) throws Exception {
+		ImmutableMap<AttributeDefinition<?>, ImmutableSet<? extends AttributeValue<?>>> attributes = prepareAttributesToAskConsent(lightResponse);
+
+		String base64Token = BinaryLightTokenHelper.encodeBinaryLightTokenBase64(specificProxyServiceCommunication.putPendingLightResponse(lightResponse));
+
+		ModelAndView modelAndView = new ModelAndView("citizenConsentResponse");
+		modelAndView.addObject("spId", originalLightRequest.getProviderName());
+		modelAndView.addObject(EidasParameterKeys.ATTRIBUTE_LIST.toString(),attributes);
+		modelAndView.addObject("LoA", lightResponse.getLevelOfAssurance());
+		modelAndView.addObject("redirectUrl", "Consent");
+		modelAndView.addObject(EidasParameterKeys.BINDING.toString(), "GET");
+		modelAndView.addObject(PARAMETER_TOKEN, base64Token);
+
+		return modelAndView;
+	}
+
+	private ImmutableMap<AttributeDefinition<?>, ImmutableSet<? extends AttributeValue<?>>> prepareAttributesToAskConsent(ILightResponse lightResponse) {
+		ImmutableAttributeMap responseImmutableAttributeMap = lightResponse.getAttributes();
+		ImmutableMap<AttributeDefinition<?>, ImmutableSet<? extends AttributeValue<?>>> responseImmutableMap = responseImmutableAttributeMap.getAttributeMap();
+		ImmutableAttributeMap.Builder filteredAttrMapBuilder = ImmutableAttributeMap.builder();
+
+		for (AttributeDefinition attrDef : responseImmutableMap.keySet()) {
+			final boolean isEidasCoreAttribute = eidasAttributeRegistry.contains(attrDef);
+			if (isEidasCoreAttribute) {
+				filteredAttrMapBuilder.put(attrDef, responseImmutableAttributeMap.getAttributeValuesByNameUri(attrDef.getNameUri()));
+			}
+		}
+		return filteredAttrMapBuilder.build().getAttributeMap();
+	}
+
+	private boolean isAuthenticationCancelled(String errorCode) {
+		return errorCode.equals(specificProxyServiceProperties.getOidc().getErrorCodeUserCancel());
+	}
+}
@@ -0,0 +1,161 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import org.springframework.beans.TypeMismatchException;
+import org.springframework.beans.propertyeditors.CustomBooleanEditor;
+import org.springframework.validation.BindException;
+import org.springframework.validation.BindingResult;
+import org.springframework.validation.FieldError;
+import org.springframework.validation.MapBindingResult;
+
+import javax.servlet.http.HttpServletRequest;
+import java.beans.PropertyChangeEvent;
+import java.util.HashMap;
+import java.util.List;
+
+import static ee.ria.eidas.proxy.specific.error.SpecificProxyServiceExceptionHandler.MULTIPLE_INSTANCES_OF_PARAMETER_IS_NOT_ALLOWED;
+
+/**
+ * Reads single-valued request parameters and validates them without Bean Validation. Parameter count, length and base64
+ * characters are checked with precompiled rules. Validation errors use the same field names and messages as the former
+ * constraint annotations. They are collected and thrown as a {@link BindException}, so
+ * {@link ee.ria.eidas.proxy.specific.error.SpecificProxyErrorAttributes} renders the same 400 responses.
+ * <p>
+ * Values are not split on commas. A single empty value is treated as a missing parameter. Boolean values are converted
+ * with {@link CustomBooleanEditor} and conversion errors are reported like the former {@code List<Boolean>} binding.
+ */
+final class RequestParameterBinder {
+    static final String MUST_NOT_BE_NULL = "must not be null";
+    static final String MUST_NOT_BE_EMPTY = "must not be empty";
+    static final String ONLY_BASE64_CHARACTERS_ALLOWED = "only base64 characters allowed";
+    static final int MAX_VALUE_LENGTH = 1000;
+    private static final String INVALID_SIZE = "size must be between 1 and " + MAX_VALUE_LENGTH;
+    private static final boolean[] BASE64_CHARACTERS = new boolean[128];
+
+    static {
+        for (char c : "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=".toCharArray()) {
+            BASE64_CHARACTERS[c] = true;
+        }
+    }
+
+    private final HttpServletRequest request;
+    private final String objectName;
+    private BindingResult bindingResult;
+
+    RequestParameterBinder(HttpServletRequest request, String objectName) {
+        this.request = request;
+        this.objectName = objectName;
+    }
+
+    /**
+     * @param missingMessage error message when the parameter is missing, or {@code null} if the parameter is optional
+     */
+    String getBase64Value(String name, String missingMessage) {
+        String[] values = getValues(name, missingMessage);
+        if (values == null) {
+            return null;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (!isBase64(values[i])) {
+                rejectValue(name, i, ONLY_BASE64_CHARACTERS_ALLOWED);
+            }
+        }
+        return values[0];
+    }
+
+    /**
+     * @param missingMessage error message when the parameter is missing, or {@code null} if the parameter is optional
+     */
+    String getValue(String name, String missingMessage) {
+        String[] values = getValues(name, missingMessage);
+        if (values == null) {
+            return null;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].isEmpty() || values[i].length() > MAX_VALUE_LENGTH) {
+                rejectValue(name, i, INVALID_SIZE);
+            }
+        }
+        return values[0];
+    }
+
+    Boolean getBooleanValue(String name) {
+        String[] values = getValues(name, null);
+        if (values == null) {
+            return null;
+        }
+        CustomBooleanEditor booleanEditor = new CustomBooleanEditor(false);
+        Boolean firstValue = null;
+        for (String value : values) {
+            try {
+                booleanEditor.setAsText(value);
+            } catch (IllegalArgumentException e) {
+                rejectTypeMismatch(name, values, List.class, e);
+                return null;
+            }
+            if (firstValue == null) {
+                firstValue = (Boolean) booleanEditor.getValue();
+            }
+        }
+        return firstValue;
+    }
+
+    void validate() throws BindException {
+        if (bindingResult != null) {
+            throw new BindException(bindingResult);
+        }
+    }
+
+    private String[] getValues(String name, String missingMessage) {
+        String[] values = request.getParameterValues(name);
+        if (values == null || values.length == 0 || values.length == 1 && values[0].isEmpty()) {
+            if (missingMessage != null) {
+                reject(name, missingMessage);
+            }
+            return null;
+        }
+        if (values.length > 1) {
+            reject(name, MULTIPLE_INSTANCES_OF_PARAMETER_IS_NOT_ALLOWED);
+        }
+        return values;
+    }
+
+    private void rejectValue(String name, int index, String message) {
+        reject(name + '[' + index + ']', message);
+    }
+
+    /**
+     * Rejects the parameter with the message of the {@link TypeMismatchException} that data binding reports for the
+     * same values. A single value is bound as a string and multiple values as a string array.
+     */
+    private void rejectTypeMismatch(String name, String[] values, Class<?> requiredType, Throwable cause) {
+        Object rejectedValue = values.length == 1 ? values[0] : values;
+        TypeMismatchException exception = new TypeMismatchException(
+                new PropertyChangeEvent(request, name, null, rejectedValue), requiredType, cause);
+        addError(new FieldError(objectName, name, rejectedValue, true, null, null, exception.getLocalizedMessage()));
+    }
+
+    private void reject(String field, String message) {
+        addError(new FieldError(objectName, field, message));
+    }
+
+    private void addError(FieldError fieldError) {
+        if (bindingResult == null) {
+            bindingResult = new MapBindingResult(new HashMap<>(), objectName);
+        }
+        bindingResult.addError(fieldError);
+    }
+
+    private static boolean isBase64(String value) {
+        int length = value.length();
+        if (length == 0 || length > MAX_VALUE_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= BASE64_CHARACTERS.length || !BASE64_CHARACTERS[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
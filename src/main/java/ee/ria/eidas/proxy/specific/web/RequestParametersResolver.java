@@ -0,0 +1,40 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import ee.ria.eidas.proxy.specific.web.IdpResponseController.IdpCallbackRequest;
+import org.springframework.core.MethodParameter;
+import org.springframework.validation.BindException;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+/**
+ * Resolves the request parameter objects of the flow endpoints with {@link RequestParameterBinder} instead of data
+ * binding and Bean Validation.
+ */
+public class RequestParametersResolver implements HandlerMethodArgumentResolver {
+
+    @FunctionalInterface
+    private interface Binder {
+        Object bind(HttpServletRequest request) throws BindException;
+    }
+
+    private static final Map<Class<?>, Binder> BINDERS = Map.of(
+            ProxyServiceRequestController.RequestParameters.class, ProxyServiceRequestController.RequestParameters::bind,
+            IdpCallbackRequest.class, IdpCallbackRequest::bind,
+            ConsentController.RequestParameters.class, ConsentController.RequestParameters::bind);
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return BINDERS.containsKey(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer, NativeWebRequest webRequest,
+                                  WebDataBinderFactory binderFactory) throws BindException {
+        return BINDERS.get(parameter.getParameterType()).bind(webRequest.getNativeRequest(HttpServletRequest.class));
+    }
+}
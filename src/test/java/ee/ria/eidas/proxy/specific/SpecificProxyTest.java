@@ -9,8 +9,6 @@ import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
 import ee.ria.eidas.proxy.specific.service.SpecificProxyService;
 import ee.ria.eidas.proxy.specific.storage.LightJAXBCodec;
-import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication;
-import eu.eidas.auth.commons.light.ILightResponse;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.restassured.RestAssured;
 import io.restassured.builder.ResponseSpecBuilder;
@@ -115,10 +113,12 @@ public abstract class SpecificProxyTest {
     protected Ignite igniteClient;
 
     @SpyBean
-    protected Cache<String, SpecificProxyServiceCommunication.CorrelatedRequestsHolder> idpRequestCommunicationCache;
+    @Qualifier("specificMSIdpRequestCorrelationMap")
+    protected Cache<String, Object> idpRequestCommunicationCache;
 
     @SpyBean
-    protected Cache<String, ILightResponse> idpConsentCommunicationCache;
+    @Qualifier("specificMSIdpConsentCorrelationMap")
+    protected Cache<String, Object> idpConsentCommunicationCache;
 
     @SpyBean
     @Qualifier("nodeSpecificProxyserviceRequestCache")
@@ -182,6 +182,11 @@ public abstract class SpecificProxyTest {
                         .withStatus(200)
                         .withHeader("Content-Type", "application/json; charset=UTF-8")
                         .withBodyFile("mock_responses/idp/openid-configuration.json")));
+        mockOidcServer.stubFor(get(urlEqualTo("/oidc/jwks"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json; charset=UTF-8")
+                        .withBodyFile("mock_responses/idp/jwks.json")));
     }
 
     protected void clearMockOidcServerMappings() {
@@ -0,0 +1,57 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.protocol.eidas.spec.EidasSpec;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AttributeRegistryIndexTests {
+    private final AttributeRegistryIndex registryIndex = new AttributeRegistryIndex(EidasSpec.REGISTRY);
+
+    @Test
+    void definitionResolvedByFriendlyName() {
+        assertSame(EidasSpec.Definitions.PERSON_IDENTIFIER, registryIndex.getByFriendlyName("PersonIdentifier"));
+        assertSame(EidasSpec.Definitions.LEGAL_PERSON_IDENTIFIER, registryIndex.getByFriendlyName("LegalPersonIdentifier"));
+    }
+
+    @Test
+    void friendlyNameResolvedSameAsRegistry() {
+        for (AttributeDefinition<?> definition : EidasSpec.REGISTRY.getAttributes()) {
+            String friendlyName = definition.getFriendlyName();
+            assertSame(EidasSpec.REGISTRY.getByFriendlyName(friendlyName).first(), registryIndex.getByFriendlyName(friendlyName));
+        }
+    }
+
+    @Test
+    void definitionResolvedByNameUri() {
+        assertSame(EidasSpec.Definitions.PERSON_IDENTIFIER,
+                registryIndex.getByNameUri("http://eidas.europa.eu/attributes/naturalperson/PersonIdentifier"));
+        for (AttributeDefinition<?> definition : EidasSpec.REGISTRY.getAttributes()) {
+            assertEquals(definition, registryIndex.getByNameUri(definition.getNameUri().toASCIIString()));
+        }
+    }
+
+    @Test
+    void nullReturnedWhen_UnknownName() {
+        assertNull(registryIndex.getByFriendlyName("UnknownAttribute"));
+        assertNull(registryIndex.getByFriendlyName("personidentifier"));
+        assertNull(registryIndex.getByNameUri("http://eidas.europa.eu/attributes/naturalperson/UnknownAttribute"));
+        assertNull(registryIndex.getByNameUri("PersonIdentifier"));
+    }
+
+    @Test
+    void nullReturnedWhen_NameMissing() {
+        assertNull(registryIndex.getByFriendlyName(null));
+        assertNull(registryIndex.getByNameUri(null));
+    }
+
+    @Test
+    void attributesMatchRegistryAndAreUnmodifiable() {
+        assertEquals(EidasSpec.REGISTRY.getAttributes().size(), registryIndex.getAttributes().size());
+        assertThrows(UnsupportedOperationException.class, () -> registryIndex.getAttributes().clear());
+    }
+}
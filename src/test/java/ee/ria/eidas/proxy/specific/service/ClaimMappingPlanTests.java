@@ -0,0 +1,78 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.nimbusds.openid.connect.sdk.claims.IDTokenClaimsSet;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.IdTokenClaimMappingProperties;
+import ee.ria.eidas.proxy.specific.service.IdTokenClaimExtractor.Claims;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.protocol.eidas.spec.EidasSpec;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createDefaultLightRequest;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createLightRequest;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClaimMappingPlanTests {
+    private static final String ID_TOKEN_CLAIMS = "{\"jti\":\"7d02cecd-6a63-4124-97fa-74999817fb08\"," +
+            "\"iss\":\"https://localhost:9877\",\"aud\":\"openIdDemo\",\"exp\":4745035342,\"iat\":1589358983," +
+            "\"sub\":\"EE60001019906\",\"acr\":\"high\",\"profile_attributes\":{\"date_of_birth\":\"2000-01-01\"," +
+            "\"family_name\":\"O’CONNEŽ-ŠUSLIK TESTNUMBER\",\"given_name\":\"MARY ÄNN\"}}";
+
+    private final ClaimMappingPlan claimMappingPlan = new ClaimMappingPlan(createClaimMapping(), new AttributeRegistryIndex(EidasSpec.REGISTRY));
+    private final Claims claims = claimMappingPlan.extract(parseClaims());
+
+    @Test
+    void attributesExtractedAndPostProcessed() {
+        ImmutableAttributeMap attributes = claimMappingPlan.getAttributes(createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES), claims);
+
+        assertEquals("60001019906", attributes.getFirstValue(EidasSpec.Definitions.PERSON_IDENTIFIER));
+        assertEquals("MARY ÄNN", attributes.getFirstValue(EidasSpec.Definitions.CURRENT_GIVEN_NAME));
+        assertEquals("O’CONNEŽ-ŠUSLIK TESTNUMBER", attributes.getFirstValue(EidasSpec.Definitions.CURRENT_FAMILY_NAME));
+        assertEquals("EE60001019906", claimMappingPlan.getSubject(claims, false));
+        assertEquals("7d02cecd-6a63-4124-97fa-74999817fb08", claimMappingPlan.getId(claims));
+        assertEquals("https://localhost:9877", claimMappingPlan.getIssuer(claims));
+        assertEquals("high", claimMappingPlan.getAcr(claims));
+    }
+
+    @Test
+    void extractorsCachedPerRequestedAttributes() {
+        ILightRequest lightRequest = createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES);
+
+        assertSame(claimMappingPlan.getExtractors(lightRequest), claimMappingPlan.getExtractors(createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES)));
+        assertNotSame(claimMappingPlan.getExtractors(lightRequest), claimMappingPlan.getExtractors(createDefaultLightRequest()));
+    }
+
+    @Test
+    void missingClaimReportedWithConfiguredJsonPath() {
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> claimMappingPlan.getSubject(claims, true));
+
+        assertEquals("Failed to read attribute (subject) value from ID-token with jsonpath ($.profile_attributes.represents_legal_person.registry_code). Please check your configuration", exception.getMessage());
+    }
+
+    @SneakyThrows
+    private static IDTokenClaimsSet parseClaims() {
+        return IDTokenClaimsSet.parse(ID_TOKEN_CLAIMS);
+    }
+
+    private static IdTokenClaimMappingProperties createClaimMapping() {
+        IdTokenClaimMappingProperties claimMapping = new IdTokenClaimMappingProperties();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("FirstName", "$.profile_attributes.given_name");
+        attributes.put("FamilyName", "$.profile_attributes.family_name");
+        attributes.put("DateOfBirth", "$.profile_attributes.date_of_birth");
+        attributes.put("PersonIdentifier", "$.sub");
+        claimMapping.setAttributes(attributes);
+        Map<String, String> attributesPostProcessing = new HashMap<>();
+        attributesPostProcessing.put("PersonIdentifier", "^EE(?<attributeValue>[\\d]{11,11})$");
+        claimMapping.setAttributesPostProcessing(attributesPostProcessing);
+        return claimMapping;
+    }
+}
@@ -0,0 +1,56 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+import com.nimbusds.openid.connect.sdk.claims.IDTokenClaimsSet;
+import ee.ria.eidas.proxy.specific.service.IdTokenClaimExtractor.Claims;
+import lombok.SneakyThrows;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IdTokenClaimExtractorTests {
+    private static final String LEGAL_PERSON_CLAIMS = "{\"jti\":\"7d02cecd-6a63-4124-97fa-74999817fb08\"," +
+            "\"iss\":\"https://localhost:9877\",\"aud\":\"openIdDemo\",\"exp\":4745035342,\"iat\":1589358983," +
+            "\"sub\":\"EE60001019906\",\"acr\":\"high\",\"amr\":[\"mID\"],\"nonce\":null,\"profile_attributes\":{" +
+            "\"date_of_birth\":\"2000-01-01\",\"given_name\":\"MARY ÄNN\",\"family_name\":null," +
+            "\"represents_legal_person\":{\"name\":\"Legal Name\",\"registry_code\":\"test123\"}}}";
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "$.sub",
+            "$.nonce",
+            "$.missing",
+            "$.profile_attributes.given_name",
+            "$.profile_attributes.family_name",
+            "$.profile_attributes.missing",
+            "$.profile_attributes.represents_legal_person.name",
+            "$['profile_attributes']['represents_legal_person']['registry_code']",
+            "$.profile_attributes.represents_legal_person.missing",
+            "$.sub.missing",
+            "$.nonce.missing",
+            "$.missing.missing",
+            "$.amr.missing",
+            "$.amr[0]",
+            "$.amr[1]"})
+    @SneakyThrows
+    void claimValueMatchesJsonPath(String jsonPath) {
+        IDTokenClaimsSet claimsSet = IDTokenClaimsSet.parse(LEGAL_PERSON_CLAIMS);
+        IdTokenClaimExtractor claimExtractor = new IdTokenClaimExtractor();
+        claimExtractor.register("$.profile_attributes.date_of_birth");
+        int slot = claimExtractor.register(jsonPath);
+
+        Claims claims = claimExtractor.extract(claimsSet);
+
+        assertEquals(readJsonPath(claimsSet, jsonPath), claims.get(slot));
+    }
+
+    private static Object readJsonPath(IDTokenClaimsSet claimsSet, String jsonPath) {
+        try {
+            return JsonPath.read(claimsSet.toJSONObject(), jsonPath);
+        } catch (PathNotFoundException e) {
+            return IdTokenClaimExtractor.MISSING;
+        }
+    }
+}
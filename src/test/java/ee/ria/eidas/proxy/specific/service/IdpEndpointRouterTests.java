@@ -0,0 +1,157 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties.IdpEndpointProperties;
+import ee.ria.eidas.proxy.specific.service.IdpEndpointRouter.IdpEndpoint;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdpEndpointRouterTests {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SpecificProxyServiceProperties properties = new SpecificProxyServiceProperties();
+
+    @BeforeEach
+    void setUp() {
+        properties.getOidc().getEndpoints().add(endpoint("idp-1", "https://idp1.example"));
+        properties.getOidc().getEndpoints().add(endpoint("idp-2", "http://idp2.example:8080"));
+        properties.getOidc().setEndpointFailureThreshold(2);
+    }
+
+    @Test
+    void routingDisabledWhen_NoEndpointsConfigured() {
+        IdpEndpointRouter router = new IdpEndpointRouter(new SpecificProxyServiceProperties(), meterRegistry);
+
+        assertFalse(router.isEnabled());
+    }
+
+    @Test
+    void endpointUriRewrittenToBaseUrl() {
+        IdpEndpointRouter router = new IdpEndpointRouter(properties, meterRegistry);
+        IdpEndpoint endpoint = router.getFailoverOrder("idp-2").get(0);
+
+        URI rewritten = endpoint.rewrite(URI.create("https://idp.example/oidc/token?param=a%20b"));
+
+        assertEquals("http://idp2.example:8080/oidc/token?param=a%20b", rewritten.toString());
+    }
+
+    @Test
+    void unavailableEndpointNotSelected() {
+        IdpEndpointRouter router = new IdpEndpointRouter(properties, meterRegistry);
+        IdpEndpoint unavailableEndpoint = router.getFailoverOrder("idp-1").get(0);
+
+        router.recordUnavailable(unavailableEndpoint, TimeUnit.MILLISECONDS.toNanos(5));
+        router.recordUnavailable(unavailableEndpoint, TimeUnit.MILLISECONDS.toNanos(5));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("idp-2", router.select().getId());
+        }
+        assertEquals(100, meterRegistry.get("eidas.proxy.idp.endpoint.selections").tag("endpoint", "idp-2").counter().count());
+        assertEquals(2, meterRegistry.get("eidas.proxy.idp.endpoint.requests")
+                .tag("endpoint", "idp-1").tag("outcome", "unavailable").timer().count());
+    }
+
+    @Test
+    void endpointSelectedAgainAfterRecoveryInterval() {
+        properties.getOidc().setEndpointRecoveryIntervalInMilliseconds(0);
+        IdpEndpointRouter router = new IdpEndpointRouter(properties, meterRegistry);
+        IdpEndpoint endpoint = router.getFailoverOrder("idp-1").get(0);
+
+        router.recordUnavailable(endpoint, 0);
+        router.recordUnavailable(endpoint, 0);
+
+        assertEquals("idp-1", router.getFailoverOrder("idp-2").get(1).getId());
+        boolean selected = false;
+        for (int i = 0; i < 100 && !selected; i++) {
+            selected = "idp-1".equals(router.select().getId());
+        }
+        assertTrue(selected);
+    }
+
+    @Test
+    void failoverOrderStartsWithPreferredEndpointAndSkipsUnavailable() {
+        properties.getOidc().getEndpoints().add(endpoint("idp-3", "https://idp3.example"));
+        IdpEndpointRouter router = new IdpEndpointRouter(properties, meterRegistry);
+        IdpEndpoint secondEndpoint = router.getFailoverOrder("idp-2").get(0);
+        router.recordUnavailable(secondEndpoint, 0);
+        router.recordUnavailable(secondEndpoint, 0);
+        router.recordSuccess(router.getFailoverOrder("idp-1").get(0), TimeUnit.MILLISECONDS.toNanos(200));
+        router.recordSuccess(router.getFailoverOrder("idp-3").get(0), TimeUnit.MILLISECONDS.toNanos(20));
+
+        List<IdpEndpoint> order = router.getFailoverOrder("idp-1");
+
+        assertEquals("idp-1", order.get(0).getId());
+        assertEquals("idp-3", order.get(1).getId());
+        assertEquals("idp-2", order.get(2).getId());
+    }
+
+    @Test
+    void startupFailsWhen_DuplicateEndpointIds() {
+        properties.getOidc().getEndpoints().add(endpoint("idp-1", "https://idp3.example"));
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> new IdpEndpointRouter(properties, meterRegistry));
+
+        assertEquals("Duplicate IDP endpoint id: idp-1. Please check your configuration", exception.getMessage());
+    }
+
+    @Test
+    void concurrentFailuresAllCounted() throws InterruptedException {
+        int failures = 1000;
+        properties.getOidc().setEndpointFailureThreshold(failures);
+        IdpEndpointRouter router = new IdpEndpointRouter(properties, meterRegistry);
+        IdpEndpoint endpoint = router.getFailoverOrder("idp-1").get(0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(failures);
+        try {
+            for (int i = 0; i < failures; i++) {
+                executor.execute(() -> {
+                    router.recordUnavailable(endpoint, 0);
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("idp-2", router.getFailoverOrder(null).get(0).getId());
+    }
+
+    @Test
+    void connectFailureDetectedInCauseChain() {
+        assertTrue(IdpEndpointRouter.isConnectFailure(new IllegalStateException(new ConnectException("Connection refused"))));
+        assertTrue(IdpEndpointRouter.isConnectFailure(new IllegalStateException(new ConnectTimeoutException("Connect timed out"))));
+        assertFalse(IdpEndpointRouter.isConnectFailure(new IllegalStateException(new SocketTimeoutException("Read timed out"))));
+        assertFalse(IdpEndpointRouter.isConnectFailure(new IllegalStateException("Invalid response status: 500")));
+    }
+
+    @Test
+    void connectionPoolTimeoutNotConnectFailure() {
+        assertFalse(IdpEndpointRouter.isConnectFailure(new IllegalStateException(
+                new ConnectionPoolTimeoutException("Timeout waiting for connection from pool"))));
+    }
+
+    private static IdpEndpointProperties endpoint(String id, String baseUrl) {
+        IdpEndpointProperties endpoint = new IdpEndpointProperties();
+        endpoint.setId(id);
+        endpoint.setBaseUrl(baseUrl);
+        return endpoint;
+    }
+}
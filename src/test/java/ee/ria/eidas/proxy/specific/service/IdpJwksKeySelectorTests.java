@@ -0,0 +1,162 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdpJwksKeySelectorTests {
+    private static final String JWKS_PATH = "/oidc/jwks";
+
+    private final WireMockServer mockIdpServer = new WireMockServer(wireMockConfig().dynamicPort());
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SpecificProxyServiceProperties properties = new SpecificProxyServiceProperties();
+    private IdpHttpClient idpHttpClient;
+    private IdpJwksKeySelector keySelector;
+    private RSAKey firstKey;
+    private RSAKey rotatedKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mockIdpServer.start();
+        idpHttpClient = new IdpHttpClient(properties.getOidc());
+        keySelector = new IdpJwksKeySelector(properties, idpHttpClient, meterRegistry);
+        firstKey = new RSAKeyGenerator(2048).keyID("first").generate();
+        rotatedKey = new RSAKeyGenerator(2048).keyID("rotated").generate();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        idpHttpClient.close();
+        mockIdpServer.stop();
+    }
+
+    @Test
+    void keysSelectedByKidAfterUpdate() throws Exception {
+        stubJwks(firstKey);
+
+        keySelector.update(new URL(mockIdpServer.url(JWKS_PATH)));
+
+        List<? extends Key> keys = keySelector.selectJWSKeys(header("first"), null);
+        assertEquals(1, keys.size());
+        assertEquals(firstKey.toRSAPublicKey(), keys.get(0));
+        assertTrue(keySelector.selectJWSKeys(new JWSHeader(JWSAlgorithm.ES256), null).isEmpty());
+        mockIdpServer.verify(1, getRequestedFor(urlEqualTo(JWKS_PATH)));
+    }
+
+    @Test
+    void unknownKidNotRefetchedWithinMinimumInterval() throws Exception {
+        stubJwks(firstKey);
+        keySelector.update(new URL(mockIdpServer.url(JWKS_PATH)));
+        stubJwks(firstKey, rotatedKey);
+
+        assertTrue(keySelector.selectJWSKeys(header("rotated"), null).isEmpty());
+        assertTrue(keySelector.selectJWSKeys(header("unknown"), null).isEmpty());
+
+        mockIdpServer.verify(1, getRequestedFor(urlEqualTo(JWKS_PATH)));
+        assertEquals(2.0, meterRegistry.get("eidas.proxy.oidc.jwks.kid.misses").counter().count());
+    }
+
+    @Test
+    void unknownKidRefetchedAfterMinimumInterval() throws Exception {
+        properties.getOidc().getJwks().setMinRefreshIntervalInMilliseconds(0);
+        stubJwks(firstKey);
+        keySelector.update(new URL(mockIdpServer.url(JWKS_PATH)));
+        stubJwks(firstKey, rotatedKey);
+
+        List<? extends Key> keys = keySelector.selectJWSKeys(header("rotated"), null);
+
+        assertEquals(1, keys.size());
+        assertEquals(rotatedKey.toRSAPublicKey(), keys.get(0));
+        mockIdpServer.verify(2, getRequestedFor(urlEqualTo(JWKS_PATH)));
+        assertEquals(1, meterRegistry.get("eidas.proxy.oidc.jwks.refresh")
+                .tag("trigger", "unknown_kid").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    void previousKeysKeptWhenRefreshFails() throws Exception {
+        stubJwks(firstKey);
+        keySelector.update(new URL(mockIdpServer.url(JWKS_PATH)));
+        mockIdpServer.stubFor(get(urlEqualTo(JWKS_PATH)).willReturn(aResponse().withStatus(500)));
+
+        keySelector.refreshKeys();
+
+        assertEquals(1, keySelector.selectJWSKeys(header("first"), null).size());
+        assertEquals(1, meterRegistry.get("eidas.proxy.oidc.jwks.refresh")
+                .tag("trigger", "scheduled").tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    void updateFailsWhen_NoKeysLoaded() throws Exception {
+        mockIdpServer.stubFor(get(urlEqualTo(JWKS_PATH)).willReturn(aResponse().withStatus(500)));
+        URL jwkSetUrl = new URL(mockIdpServer.url(JWKS_PATH));
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> keySelector.update(jwkSetUrl));
+
+        assertEquals("Unable to load OIDC JWKS: " + jwkSetUrl, exception.getMessage());
+        assertEquals(1, meterRegistry.get("eidas.proxy.oidc.jwks.refresh")
+                .tag("trigger", "metadata_update").tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    void updateKeepsPreviousKeysWhen_FetchFails() throws Exception {
+        stubJwks(firstKey);
+        keySelector.update(new URL(mockIdpServer.url(JWKS_PATH)));
+        mockIdpServer.stubFor(get(urlEqualTo(JWKS_PATH)).willReturn(aResponse().withStatus(500)));
+
+        keySelector.update(new URL(mockIdpServer.url(JWKS_PATH)));
+
+        assertEquals(1, keySelector.selectJWSKeys(header("first"), null).size());
+    }
+
+    @Test
+    void keysRefetchedForTokenWithoutKidWhen_NoKeysLoaded() throws Exception {
+        properties.getOidc().getJwks().setMinRefreshIntervalInMilliseconds(0);
+        mockIdpServer.stubFor(get(urlEqualTo(JWKS_PATH)).willReturn(aResponse().withStatus(500)));
+        URL jwkSetUrl = new URL(mockIdpServer.url(JWKS_PATH));
+        assertThrows(IllegalStateException.class, () -> keySelector.update(jwkSetUrl));
+        stubJwks(firstKey);
+
+        List<? extends Key> keys = keySelector.selectJWSKeys(new JWSHeader(JWSAlgorithm.RS256), null);
+
+        assertEquals(1, keys.size());
+        assertEquals(firstKey.toRSAPublicKey(), keys.get(0));
+        mockIdpServer.verify(2, getRequestedFor(urlEqualTo(JWKS_PATH)));
+    }
+
+    private void stubJwks(RSAKey... keys) {
+        JWKSet jwkSet = new JWKSet(Arrays.<JWK>asList(keys));
+        mockIdpServer.stubFor(get(urlEqualTo(JWKS_PATH))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(jwkSet.toJSONObject(true).toJSONString())));
+    }
+
+    private static JWSHeader header(String kid) {
+        return new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(kid).build();
+    }
+}
@@ -0,0 +1,45 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IssuerIpResolverTests {
+    private static final String METRIC_REFRESH = "eidas.proxy.oidc.issuer.ip.refresh";
+
+    private final SpecificProxyServiceProperties properties = new SpecificProxyServiceProperties();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final IssuerIpResolver issuerIpResolver = new IssuerIpResolver(properties, meterRegistry);
+
+    @Test
+    void issuerIpResolvedOnRefresh() throws Exception {
+        properties.getOidc().setIssuerUrl("https://127.0.0.1:9877");
+
+        issuerIpResolver.refreshIssuerIp();
+
+        assertEquals("127.0.0.1", issuerIpResolver.getIssuerIp());
+        assertEquals(1, meterRegistry.get(METRIC_REFRESH).tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    void previousIssuerIpKeptWhen_RefreshFails() throws Exception {
+        properties.getOidc().setIssuerUrl("https://127.0.0.1:9877");
+        issuerIpResolver.refreshIssuerIp();
+
+        properties.getOidc().setIssuerUrl("invalid url");
+        issuerIpResolver.refreshIssuerIp();
+
+        assertEquals("127.0.0.1", issuerIpResolver.getIssuerIp());
+        assertEquals(1, meterRegistry.get(METRIC_REFRESH).tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    void issuerIpResolvedOnDemandWhen_NotRefreshedYet() throws Exception {
+        properties.getOidc().setIssuerUrl("https://127.0.0.1:9877");
+
+        assertEquals("127.0.0.1", issuerIpResolver.getIssuerIp());
+    }
+}
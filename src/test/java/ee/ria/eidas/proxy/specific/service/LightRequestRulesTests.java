@@ -0,0 +1,97 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.service.LightRequestRules.Classification;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.protocol.impl.SamlNameIdFormat;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.LEGAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.LEGAL_PERSON_OPTIONAL_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_ALL_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_OPTIONAL_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createLightRequest;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LightRequestRulesTests {
+
+    @Test
+    void countryCodeAcceptedWhen_IsoCountryCode() {
+        LightRequestRules rules = new LightRequestRules(new SpecificProxyServiceProperties());
+        for (String countryCode : Locale.getISOCountries()) {
+            assertTrue(rules.isCountryCode(countryCode), countryCode);
+        }
+        int countryCodes = 0;
+        for (char first = 'A'; first <= 'Z'; first++) {
+            for (char second = 'A'; second <= 'Z'; second++) {
+                if (rules.isCountryCode("" + first + second)) {
+                    countryCodes++;
+                }
+            }
+        }
+        assertEquals(Locale.getISOCountries().length, countryCodes);
+    }
+
+    @Test
+    void countryCodeRejectedWhen_InvalidValue() {
+        LightRequestRules rules = new LightRequestRules(new SpecificProxyServiceProperties());
+
+        for (String countryCode : asList(null, "", "E", "EST", "ee", "Ee", "E1", "[E", "E[", "XX")) {
+            assertFalse(rules.isCountryCode(countryCode), countryCode);
+        }
+    }
+
+    @Test
+    void spTypeAcceptedWhen_Supported() {
+        SpecificProxyServiceProperties properties = new SpecificProxyServiceProperties();
+        properties.setSupportedSpTypes(asList("public", "private"));
+        LightRequestRules rules = new LightRequestRules(properties);
+
+        assertTrue(rules.isSupportedSpType("public"));
+        assertTrue(rules.isSupportedSpType(new String("private")));
+        assertFalse(rules.isSupportedSpType("Public"));
+        assertFalse(rules.isSupportedSpType(null));
+    }
+
+    @Test
+    void nameIdFormatAcceptedWhen_SamlNameIdFormatOrNotSet() {
+        LightRequestRules rules = new LightRequestRules(new SpecificProxyServiceProperties());
+
+        for (SamlNameIdFormat nameIdFormat : SamlNameIdFormat.values()) {
+            assertTrue(rules.isValidNameIdFormat(nameIdFormat.getNameIdFormat()));
+        }
+        assertTrue(rules.isValidNameIdFormat(null));
+        assertFalse(rules.isValidNameIdFormat(""));
+        assertFalse(rules.isValidNameIdFormat("urn:oasis:names:tc:SAML:1.1:nameid-format:invalid"));
+    }
+
+    @Test
+    void requestClassifiedByRequestedAttributes() {
+        LightRequestRules rules = new LightRequestRules(new SpecificProxyServiceProperties());
+
+        assertClassification(rules, NATURAL_PERSON_ALL_ATTRIBUTES, true, false);
+        assertClassification(rules, LEGAL_PERSON_MANDATORY_ATTRIBUTES, false, true);
+        assertClassification(rules, NATURAL_PERSON_OPTIONAL_ATTRIBUTES, false, false);
+        assertClassification(rules, LEGAL_PERSON_OPTIONAL_ATTRIBUTES, false, false);
+        assertClassification(rules, new ImmutableAttributeMap.Builder()
+                .putAll(NATURAL_PERSON_MANDATORY_ATTRIBUTES)
+                .putAll(LEGAL_PERSON_MANDATORY_ATTRIBUTES)
+                .build(), true, true);
+        assertSame(rules.classify(createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES)),
+                rules.classify(createLightRequest(NATURAL_PERSON_ALL_ATTRIBUTES)));
+    }
+
+    private static void assertClassification(LightRequestRules rules, ImmutableAttributeMap requestedAttributes, boolean naturalPerson, boolean legalPerson) {
+        Classification classification = rules.classify(createLightRequest(requestedAttributes));
+
+        assertEquals(naturalPerson, classification.containsNaturalPersonAttributes());
+        assertEquals(legalPerson, classification.containsLegalPersonAttributes());
+    }
+}
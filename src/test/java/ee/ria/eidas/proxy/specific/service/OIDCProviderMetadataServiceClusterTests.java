@@ -0,0 +1,94 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import ee.ria.eidas.proxy.specific.SpecificProxyTest;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.storage.OidcMetadataClusterCache;
+import org.awaitility.Durations;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Collections;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.nimbusds.openid.connect.sdk.op.OIDCProviderConfigurationRequest.OPENID_PROVIDER_WELL_KNOWN_PATH;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {"eidas.proxy.oidc.metadata.cluster.enabled=true",
+        "eidas.proxy.oidc.metadata.cluster.lease-duration-in-milliseconds=60000",
+        "eidas.proxy.oidc.metadata.refresh-jitter-in-milliseconds=0", "eidas.proxy.oidc.metadata.max-attempts=1",
+        "eidas.proxy.communication-cache.cache-name-mapping.oidc-metadata-cache=oidcMetadataClusterTestsCache"})
+@ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = OIDCProviderMetadataServiceClusterTests.TestContextInitializer.class)
+class OIDCProviderMetadataServiceClusterTests extends SpecificProxyTest {
+
+    @Autowired
+    private OIDCProviderMetadataService oidcProviderMetadataService;
+
+    @Autowired
+    private OidcMetadataClusterCache oidcMetadataClusterCache;
+
+    @Test
+    void metadataPublishedAtStartupAndPublishedUpdateUsed() throws Exception {
+        OidcMetadataSnapshot startupSnapshot = OidcMetadataSnapshot.parse(oidcMetadataClusterCache.getPublished());
+        assertEquals("https://localhost:9877", startupSnapshot.getIssuerUrl());
+        assertEquals("https://localhost:9877/oidc/jwks", startupSnapshot.getMetadata().getJWKSetURI().toString());
+        assertNotNull(startupSnapshot.getJwkSet());
+
+        OidcMetadataClusterCache otherNode = new OidcMetadataClusterCache(eidasNodeIgnite, "oidcMetadataClusterTestsCache", 60000);
+        otherNode.tryAcquireLease();
+        OIDCProviderMetadata updatedMetadata = OIDCProviderMetadata.parse(new String(Files.readAllBytes(
+                Paths.get("src/test/resources/__files/mock_responses/idp/openid-configuration-updated.json")), StandardCharsets.UTF_8));
+        JWKSet updatedJwkSet = new JWKSet(Collections.<JWK>singletonList(new RSAKeyGenerator(2048).keyID("updated").generate().toPublicJWK()));
+        otherNode.publish(new OidcMetadataSnapshot("https://localhost:9877", Instant.now(), updatedMetadata, updatedJwkSet).toJSONString());
+
+        oidcProviderMetadataService.scheduleMetadataRefresh();
+
+        await()
+                .atMost(Durations.FIVE_SECONDS)
+                .untilAsserted(() -> assertEquals("https://localhost:9999/oidc/jwks",
+                        oidcProviderMetadataService.getOidcProviderMetadata().getJWKSetURI().toString()));
+        assertEquals(0.0, meterRegistry.get("eidas.proxy.oidc.metadata.lease.owner").gauge().value());
+        assertEquals(1.0, meterRegistry.get("eidas.proxy.oidc.metadata.refresh").tag("outcome", "shared").counter().count());
+        otherNode.releaseLease();
+    }
+
+    @Test
+    void leaseReleasedWhen_RefreshFails() {
+        OidcMetadataClusterCache otherNode = new OidcMetadataClusterCache(eidasNodeIgnite, "oidcMetadataClusterTestsCache", 60000);
+        mockOidcServer.stubFor(get(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH))
+                .willReturn(aResponse()
+                        .withStatus(500)));
+        try {
+            oidcProviderMetadataService.scheduleMetadataRefresh();
+
+            await()
+                    .atMost(Durations.FIVE_SECONDS)
+                    .untilAsserted(() -> assertInfoIsLogged(OIDCProviderMetadataService.class,
+                            "Released OIDC metadata lease after failed refresh"));
+            assertTrue(otherNode.tryAcquireLease());
+            assertEquals(0.0, meterRegistry.get("eidas.proxy.oidc.metadata.lease.owner").gauge().value());
+        } finally {
+            otherNode.releaseLease();
+            mockOidcServer.stubFor(get(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH))
+                    .willReturn(aResponse()
+                            .withStatus(200)
+                            .withHeader("Content-Type", "application/json; charset=UTF-8")
+                            .withBodyFile("mock_responses/idp/openid-configuration.json")));
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import ee.ria.eidas.proxy.specific.SpecificProxyTest;
 import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
 import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Durations;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -19,6 +20,7 @@ import java.net.SocketTimeoutException;
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
 import static com.nimbusds.openid.connect.sdk.op.OIDCProviderConfigurationRequest.OPENID_PROVIDER_WELL_KNOWN_PATH;
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -27,7 +29,7 @@ import static org.springframework.boot.test.context.SpringBootTest.WebEnvironmen
 @Slf4j
 @SpringBootTest(webEnvironment = RANDOM_PORT, properties = {"eidas.proxy.oidc.metadata.update-schedule=-",
         "eidas.proxy.oidc.metadata.max-attempts=3", "eidas.proxy.oidc.metadata.backoff-delay-in-milliseconds=500",
-        "eidas.proxy.oidc.connect-timeout-in-milliseconds=500"})
+        "eidas.proxy.oidc.connect-timeout-in-milliseconds=500", "eidas.proxy.oidc.metadata.refresh-jitter-in-milliseconds=0"})
 @ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = OIDCProviderMetadataServiceRetryTests.TestContextInitializer.class)
 class OIDCProviderMetadataServiceRetryTests extends SpecificProxyTest {
 
@@ -114,6 +116,40 @@ class OIDCProviderMetadataServiceRetryTests extends SpecificProxyTest {
         assertErrorIsLogged(OIDCProviderMetadataService.class, "Unable to update OIDC metadata");
     }
 
+    @Test
+    void failedScheduledRefreshRetried() {
+        setupOidcFirstRequestFailsScenario();
+
+        oidcProviderMetadataService.scheduleMetadataRefresh();
+
+        await()
+                .atMost(Durations.FIVE_SECONDS)
+                .untilAsserted(() -> assertEquals("https://localhost:9999/oidc/jwks",
+                        oidcProviderMetadataService.getOidcProviderMetadata().getJWKSetURI().toString()));
+        mockOidcServer.verify(2, getRequestedFor(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH)));
+        assertInfoIsLogged(OIDCProviderMetadataService.class,
+                "Updating OIDC metadata for issuer: https://localhost:9877",
+                "Updating OIDC metadata for issuer: https://localhost:9877",
+                "Successfully updated OIDC metadata for issuer: https://localhost:9877");
+    }
+
+    @Test
+    void previousMetadataUsedWhen_ScheduledRefreshFailsAfterMaxAttempts() {
+        String jwkSetUri = oidcProviderMetadataService.getOidcProviderMetadata().getJWKSetURI().toString();
+        mockOidcServer.stubFor(get(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH))
+                .willReturn(aResponse()
+                        .withStatus(500)));
+
+        oidcProviderMetadataService.scheduleMetadataRefresh();
+
+        await()
+                .atMost(Durations.FIVE_SECONDS)
+                .untilAsserted(() -> assertErrorIsLogged(OIDCProviderMetadataService.class,
+                        "Unable to update OIDC metadata, using metadata fetched at: "));
+        mockOidcServer.verify(maxAttempts, getRequestedFor(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH)));
+        assertEquals(jwkSetUri, oidcProviderMetadataService.getOidcProviderMetadata().getJWKSetURI().toString());
+    }
+
     private void setupOidcFirstRequestFailsScenario() {
         mockOidcServer.stubFor(get(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH))
                 .inScenario("First request fails")
@@ -0,0 +1,132 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.awaitility.Durations;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static com.nimbusds.openid.connect.sdk.op.OIDCProviderConfigurationRequest.OPENID_PROVIDER_WELL_KNOWN_PATH;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OIDCProviderMetadataServiceSnapshotTests {
+    private final WireMockServer mockIdpServer = new WireMockServer(wireMockConfig().dynamicPort());
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SpecificProxyServiceProperties properties = new SpecificProxyServiceProperties();
+    private IdpHttpClient idpHttpClient;
+    private OIDCProviderMetadataService metadataService;
+    private JWKSet jwkSet;
+
+    @TempDir
+    Path snapshotDirectory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mockIdpServer.start();
+        properties.getOidc().setIssuerUrl(mockIdpServer.baseUrl());
+        properties.getOidc().setClientId("openIdDemo");
+        properties.getOidc().getMetadata().setSnapshotFile(snapshotDirectory.resolve("oidc-metadata.json").toString());
+        idpHttpClient = new IdpHttpClient(properties.getOidc());
+        metadataService = new OIDCProviderMetadataService(properties, idpHttpClient,
+                new IdpJwksKeySelector(properties, idpHttpClient, meterRegistry), meterRegistry);
+        jwkSet = new JWKSet(Collections.<JWK>singletonList(new RSAKeyGenerator(2048).keyID("s81pe3").generate().toPublicJWK()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        metadataService.destroy();
+        idpHttpClient.close();
+        mockIdpServer.stop();
+    }
+
+    @Test
+    void snapshotWrittenAfterSuccessfulUpdate() throws Exception {
+        stubMetadataAndJwks();
+
+        metadataService.init();
+
+        OidcMetadataSnapshot snapshot = OidcMetadataSnapshot.read(getSnapshotFile());
+        assertEquals(mockIdpServer.baseUrl(), snapshot.getIssuerUrl());
+        assertEquals(mockIdpServer.url("/oidc/jwks"), snapshot.getMetadata().getJWKSetURI().toString());
+        assertEquals(jwkSet.toJSONObject(true), snapshot.getJwkSet().toJSONObject(true));
+        assertEquals(1.0, meterRegistry.get("eidas.proxy.oidc.metadata.refresh").tag("outcome", "success").counter().count());
+    }
+
+    @Test
+    void snapshotUsedWhenIdpUnavailableAtStartup() throws Exception {
+        mockIdpServer.stubFor(get(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH)).willReturn(aResponse().withStatus(500)));
+        Instant fetchedAt = Instant.now().minus(1, ChronoUnit.HOURS);
+        OIDCProviderMetadata metadata = OIDCProviderMetadata.parse(readMetadata());
+        new OidcMetadataSnapshot(mockIdpServer.baseUrl(), fetchedAt, metadata, jwkSet).write(getSnapshotFile());
+
+        metadataService.init();
+
+        assertEquals(metadata.getJWKSetURI(), metadataService.getOidcProviderMetadata().getJWKSetURI());
+        assertNotNull(metadataService.getIdTokenValidator());
+        await()
+                .atMost(Durations.FIVE_SECONDS)
+                .untilAsserted(() -> assertEquals(1.0, meterRegistry.get("eidas.proxy.oidc.metadata.refresh")
+                        .tag("outcome", "failure").counter().count()));
+        assertEquals(metadata.getJWKSetURI(), metadataService.getOidcProviderMetadata().getJWKSetURI());
+        assertTrue(meterRegistry.get("eidas.proxy.oidc.metadata.age").gauge().value() >= 3600);
+    }
+
+    @Test
+    void snapshotOfOtherIssuerIgnored() throws Exception {
+        mockIdpServer.stubFor(get(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH)).willReturn(aResponse().withStatus(500)));
+        OIDCProviderMetadata metadata = OIDCProviderMetadata.parse(readMetadata());
+        new OidcMetadataSnapshot("https://other-issuer", Instant.now(), metadata, jwkSet).write(getSnapshotFile());
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> metadataService.init());
+
+        assertTrue(exception.getMessage().startsWith("Failed to fetch OpenID Connect provider metadata from issuer"));
+    }
+
+    private void stubMetadataAndJwks() throws IOException, URISyntaxException {
+        mockIdpServer.stubFor(get(urlEqualTo(OPENID_PROVIDER_WELL_KNOWN_PATH))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json; charset=UTF-8")
+                        .withBody(readMetadata())));
+        mockIdpServer.stubFor(get(urlEqualTo("/oidc/jwks"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json; charset=UTF-8")
+                        .withBody(jwkSet.toJSONObject(true).toJSONString())));
+    }
+
+    private String readMetadata() throws IOException, URISyntaxException {
+        Path metadataFile = Paths.get(getClass().getClassLoader().getResource("__files/mock_responses/idp/openid-configuration.json").toURI());
+        return new String(Files.readAllBytes(metadataFile), StandardCharsets.UTF_8)
+                .replace("https://localhost:9877", mockIdpServer.baseUrl());
+    }
+
+    private Path getSnapshotFile() {
+        return Paths.get(properties.getOidc().getMetadata().getSnapshotFile());
+    }
+}
@@ -19,7 +19,7 @@ import static org.springframework.boot.test.context.SpringBootTest.WebEnvironmen
 @Slf4j
 @SpringBootTest(webEnvironment = RANDOM_PORT, properties = {"eidas.proxy.oidc.metadata.update-schedule=0/1 * * * * ?",
         "eidas.proxy.oidc.metadata.max-attempts=3", "eidas.proxy.oidc.metadata.backoff-delay-in-milliseconds=500",
-        "eidas.proxy.oidc.connect-timeout-in-milliseconds=500"})
+        "eidas.proxy.oidc.connect-timeout-in-milliseconds=500", "eidas.proxy.oidc.metadata.refresh-jitter-in-milliseconds=0"})
 @ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = OIDCProviderMetadataServiceTests.TestContextInitializer.class)
 class OIDCProviderMetadataServiceTests extends SpecificProxyTest {
 
@@ -0,0 +1,174 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.RoutedOidcProviderProperties;
+import ee.ria.eidas.proxy.specific.service.OidcProviderRegistry.OidcProvider;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.light.ILightRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.LEGAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.MOCK_ISSUER_NAME;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.MOCK_LOA_HIGH;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.MOCK_PROVIDER_NAME;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.MOCK_RELAY_STATE;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.MOCK_SP_TYPE;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createLightRequest;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OidcProviderRegistryTests {
+    private static final String MOCK_LOA_SUBSTANTIAL = "http://eidas.europa.eu/LoA/substantial";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SpecificProxyServiceProperties properties = new SpecificProxyServiceProperties();
+    private IdpHttpClient idpHttpClient;
+    private OIDCProviderMetadataService defaultMetadataService;
+    private OidcProviderRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        properties.getOidc().setIssuerUrl("https://idp.example");
+        properties.getOidc().setClientId("defaultClient");
+        properties.getOidcProviders().add(provider("business", "https://business.example", provider ->
+                provider.setRequestedAttributes(asList("LegalPersonIdentifier", "LegalName"))));
+        properties.getOidcProviders().add(provider("nordic-high", "https://nordic.example", provider -> {
+            provider.setCitizenCountries(asList("FI", "SE"));
+            provider.setLevelsOfAssurance(singletonList("high"));
+        }));
+        properties.getOidcProviders().add(provider("nordic", "https://nordic-substantial.example", provider ->
+                provider.setCitizenCountries(asList("FI", "SE"))));
+        idpHttpClient = new IdpHttpClient(properties.getOidc());
+        defaultMetadataService = new OIDCProviderMetadataService(properties, idpHttpClient,
+                new IdpJwksKeySelector(properties, idpHttpClient, meterRegistry), meterRegistry);
+        registry = new OidcProviderRegistry(properties, defaultMetadataService, new IdpEndpointRouter(properties, meterRegistry),
+                idpHttpClient, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        registry.destroy();
+        defaultMetadataService.destroy();
+        idpHttpClient.close();
+    }
+
+    @Test
+    void defaultProviderSelectedWhen_NoProviderRulesMatch() {
+        OidcProvider provider = registry.select(lightRequest("DE", MOCK_LOA_HIGH, NATURAL_PERSON_MANDATORY_ATTRIBUTES));
+
+        assertEquals("default", provider.getId());
+        assertSame(defaultMetadataService, provider.getMetadataService());
+        assertEquals("defaultClient", provider.getProperties().getClientId());
+    }
+
+    @Test
+    void providerSelectedByRequestedAttributes() {
+        OidcProvider provider = registry.select(lightRequest("DE", MOCK_LOA_HIGH, LEGAL_PERSON_MANDATORY_ATTRIBUTES));
+
+        assertEquals("business", provider.getId());
+        assertEquals("https://business.example", provider.getProperties().getIssuerUrl());
+        assertNotSame(defaultMetadataService, provider.getMetadataService());
+    }
+
+    @Test
+    void providerSelectedByCitizenCountryAndLevelOfAssurance() {
+        assertEquals("nordic-high", registry.select(lightRequest("FI", MOCK_LOA_HIGH, NATURAL_PERSON_MANDATORY_ATTRIBUTES)).getId());
+        assertEquals("nordic", registry.select(lightRequest("SE", MOCK_LOA_SUBSTANTIAL, NATURAL_PERSON_MANDATORY_ATTRIBUTES)).getId());
+    }
+
+    @Test
+    void firstMatchingProviderSelected() {
+        OidcProvider provider = registry.select(lightRequest("FI", MOCK_LOA_HIGH, LEGAL_PERSON_MANDATORY_ATTRIBUTES));
+
+        assertEquals("business", provider.getId());
+    }
+
+    @Test
+    void providerSelectionsCounted() {
+        registry.select(lightRequest("FI", MOCK_LOA_HIGH, NATURAL_PERSON_MANDATORY_ATTRIBUTES));
+        registry.select(lightRequest("SE", MOCK_LOA_HIGH, NATURAL_PERSON_MANDATORY_ATTRIBUTES));
+        registry.select(lightRequest("DE", MOCK_LOA_HIGH, NATURAL_PERSON_MANDATORY_ATTRIBUTES));
+
+        assertEquals(2, meterRegistry.get("eidas.proxy.oidc.provider.selections").tag("provider", "nordic-high").counter().count());
+        assertEquals(1, meterRegistry.get("eidas.proxy.oidc.provider.selections").tag("provider", "default").counter().count());
+    }
+
+    @Test
+    void tokenRequestsTimedPerProvider() {
+        OidcProvider provider = registry.get("nordic");
+
+        provider.recordTokenRequest("success", TimeUnit.MILLISECONDS.toNanos(20));
+        provider.recordTokenRequest("error", TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertEquals(1, meterRegistry.get("eidas.proxy.oidc.provider.token.requests")
+                .tag("provider", "nordic").tag("outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("eidas.proxy.oidc.provider.token.requests")
+                .tag("provider", "nordic").tag("outcome", "error").timer().count());
+    }
+
+    @Test
+    void providerFoundById() {
+        assertEquals("default", registry.get(null).getId());
+        assertEquals("default", registry.get("default").getId());
+        assertEquals("business", registry.get("business").getId());
+    }
+
+    @Test
+    void exceptionWhen_UnknownProviderId() {
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> registry.get("removed"));
+
+        assertEquals("Unknown OIDC provider: removed", exception.getMessage());
+    }
+
+    @Test
+    void exceptionWhen_DuplicateProviderId() {
+        properties.getOidcProviders().add(provider("nordic", "https://other.example", provider -> provider.setCitizenCountries(singletonList("DK"))));
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, this::validateProperties);
+
+        assertEquals("Duplicate OIDC provider id: nordic. Please check your configuration", exception.getMessage());
+    }
+
+    @Test
+    void exceptionWhen_ProviderWithoutRoutingRules() {
+        properties.getOidcProviders().add(provider("catch-all", "https://other.example", provider -> {
+        }));
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, this::validateProperties);
+
+        assertEquals("Missing routing rules for OIDC provider: catch-all. Please check your configuration", exception.getMessage());
+    }
+
+    private void validateProperties() {
+        properties.setAskConsent(false);
+        SpecificProxyServiceProperties.NATURAL_PERSON_MANDATORY_ATTRIBUTE_SET.forEach(attribute ->
+                properties.getOidc().getResponseClaimMapping().getAttributes().put(attribute, "$.sub"));
+        properties.init();
+    }
+
+    private static ILightRequest lightRequest(String citizenCountry, String loa, ImmutableAttributeMap requestedAttributes) {
+        return createLightRequest(citizenCountry, MOCK_ISSUER_NAME, MOCK_RELAY_STATE, loa, MOCK_SP_TYPE, MOCK_PROVIDER_NAME,
+                requestedAttributes, null);
+    }
+
+    private static RoutedOidcProviderProperties provider(String id, String issuerUrl, Consumer<RoutedOidcProviderProperties> rules) {
+        RoutedOidcProviderProperties provider = new RoutedOidcProviderProperties();
+        provider.setId(id);
+        provider.setIssuerUrl(issuerUrl);
+        provider.setClientId(id + "Client");
+        rules.accept(provider);
+        return provider;
+    }
+}
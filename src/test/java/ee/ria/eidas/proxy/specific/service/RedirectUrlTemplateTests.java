@@ -0,0 +1,58 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RedirectUrlTemplateTests {
+
+    @Test
+    void expandedUrlEqualsUriComponentsBuilderOutput() {
+        RedirectUrlTemplate template = RedirectUrlTemplate.builder("https://localhost:9877/oidc/authorize")
+                .queryParam("response_type", "code")
+                .queryParam("redirect_uri", "https://localhost:9877/redirect?a=1&b=ä")
+                .build();
+
+        String url = template.expand()
+                .queryParam("scope", "openid idcard mid")
+                .queryParam("state", "b7d4e0a4+/=")
+                .toUriString();
+
+        String expectedUrl = UriComponentsBuilder.fromUri(URI.create("https://localhost:9877/oidc/authorize"))
+                .queryParam("response_type", "code")
+                .queryParam("redirect_uri", "https://localhost:9877/redirect?a=1&b=ä")
+                .queryParam("scope", "openid idcard mid")
+                .queryParam("state", "b7d4e0a4+/=")
+                .encode(StandardCharsets.UTF_8).build().toUriString();
+        assertEquals(expectedUrl, url);
+    }
+
+    @Test
+    void parametersAppendedToExistingQuery() {
+        RedirectUrlTemplate template = RedirectUrlTemplate.builder("https://localhost:8083/EidasNode/SpecificProxyServiceResponse?lang=et").build();
+
+        assertEquals("https://localhost:8083/EidasNode/SpecificProxyServiceResponse?lang=et&token=abc",
+                template.expand().queryParam("token", "abc").toUriString());
+    }
+
+    @Test
+    void nullParametersSkipped() {
+        RedirectUrlTemplate template = RedirectUrlTemplate.builder("https://localhost:8083/EidasNode/SpecificProxyServiceResponse").build();
+
+        assertEquals("https://localhost:8083/EidasNode/SpecificProxyServiceResponse?token=abc",
+                template.expand().queryParam("claims", null).queryParam("token", "abc").toUriString());
+    }
+
+    @Test
+    void baseUrlWithFragmentNotAllowed() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> RedirectUrlTemplate.builder("https://localhost:9877/oidc/authorize#fragment"));
+
+        assertEquals("Redirect base URL may not contain a fragment", exception.getMessage());
+    }
+}
@@ -0,0 +1,64 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import eu.eidas.auth.commons.light.ILightRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.LEGAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_ALL_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createLightRequest;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RequestedAttributesCacheTests {
+    private final AtomicInteger createdCount = new AtomicInteger();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void valueCreatedOncePerRequestedAttributes() {
+        RequestedAttributesCache<Integer> cache = createCache(2);
+
+        assertEquals(1, get(cache, createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES)));
+        assertEquals(1, get(cache, createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES)));
+        assertEquals(2, get(cache, createLightRequest(LEGAL_PERSON_MANDATORY_ATTRIBUTES)));
+
+        assertEquals(2, createdCount.get());
+        assertCacheGets("hit", 1);
+        assertCacheGets("miss", 2);
+    }
+
+    @Test
+    void leastRecentlyUsedRequestedAttributesEvictedWhen_CacheFull() {
+        RequestedAttributesCache<Integer> cache = createCache(2);
+        ILightRequest naturalPersonMandatory = createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES);
+        ILightRequest legalPersonMandatory = createLightRequest(LEGAL_PERSON_MANDATORY_ATTRIBUTES);
+        ILightRequest naturalPersonAll = createLightRequest(NATURAL_PERSON_ALL_ATTRIBUTES);
+
+        assertEquals(1, get(cache, naturalPersonMandatory));
+        assertEquals(2, get(cache, legalPersonMandatory));
+        assertEquals(1, get(cache, naturalPersonMandatory));
+        assertEquals(3, get(cache, naturalPersonAll));
+
+        assertEquals(1, get(cache, naturalPersonMandatory));
+        assertEquals(4, get(cache, legalPersonMandatory));
+        assertEquals(2.0, meterRegistry.get("cache.evictions").tag("cache", "test").functionCounter().count());
+        assertCacheGets("miss", 4);
+    }
+
+    private RequestedAttributesCache<Integer> createCache(int maximumSize) {
+        RequestedAttributesCache<Integer> cache = new RequestedAttributesCache<>("test", maximumSize);
+        cache.bindTo(meterRegistry);
+        return cache;
+    }
+
+    private Integer get(RequestedAttributesCache<Integer> cache, ILightRequest lightRequest) {
+        return cache.get(lightRequest, requestedAttributes -> createdCount.incrementAndGet());
+    }
+
+    private void assertCacheGets(String result, double expected) {
+        assertEquals(expected, meterRegistry.get("cache.gets").tag("cache", "test").tag("result", result).functionCounter().count());
+    }
+}
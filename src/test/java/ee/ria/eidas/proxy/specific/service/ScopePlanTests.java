@@ -0,0 +1,109 @@
+package ee.ria.eidas.proxy.specific.service;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.IdTokenClaimMappingProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.OidcProviderProperties;
+import ee.ria.eidas.proxy.specific.service.ScopePlan.AuthenticationRequestScope;
+import eu.eidas.auth.commons.light.ILightRequest;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.LEGAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_ALL_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createLightRequest;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ScopePlanTests {
+    private static final LightRequestRules LIGHT_REQUEST_RULES = new LightRequestRules(new SpecificProxyServiceProperties());
+
+    @Test
+    void configuredScopesUsedWhen_AttributeScopesNotRequested() {
+        ScopePlan scopePlan = new ScopePlan(createOidcProperties(false, false));
+
+        assertEquals("openid idcard mid", get(scopePlan, createLightRequest(NATURAL_PERSON_ALL_ATTRIBUTES)).getScope());
+        assertEquals("openid idcard mid legalperson", get(scopePlan, createLightRequest(LEGAL_PERSON_MANDATORY_ATTRIBUTES)).getScope());
+        assertNull(get(scopePlan, createLightRequest(NATURAL_PERSON_ALL_ATTRIBUTES)).getClaims());
+    }
+
+    @Test
+    void requestedAttributeScopesAddedWhen_AttributeScopesRequested() {
+        ScopePlan scopePlan = new ScopePlan(createOidcProperties(true, false));
+
+        assertEquals(scopes("openid", "idcard", "mid", "eidas:attribute:first_name", "eidas:attribute:family_name",
+                "eidas:attribute:date_of_birth", "eidas:attribute:person_identifier"),
+                splitScope(get(scopePlan, createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES)).getScope()));
+        assertEquals(scopes("openid", "idcard", "mid", "eidas:attribute:legal_name", "eidas:attribute:legal_person_identifier", "legalperson"),
+                splitScope(get(scopePlan, createLightRequest(LEGAL_PERSON_MANDATORY_ATTRIBUTES)).getScope()));
+    }
+
+    @Test
+    void mappedClaimsRequestedWhen_ClaimsRequested() {
+        ScopePlan scopePlan = new ScopePlan(createOidcProperties(false, true));
+
+        JSONObject claims = (JSONObject) JSONValue.parse(get(scopePlan, createLightRequest(NATURAL_PERSON_ALL_ATTRIBUTES)).getClaims());
+
+        JSONObject idTokenClaims = (JSONObject) claims.get("id_token");
+        assertEquals(new HashSet<>(asList("sub", "profile_attributes", "birth_name")), idTokenClaims.keySet());
+        assertEquals(true, ((JSONObject) idTokenClaims.get("sub")).get("essential"));
+        assertEquals(true, ((JSONObject) idTokenClaims.get("profile_attributes")).get("essential"));
+        assertNull(idTokenClaims.get("birth_name"));
+    }
+
+    @Test
+    void requestScopeCachedPerRequestedAttributes() {
+        ScopePlan scopePlan = new ScopePlan(createOidcProperties(true, true));
+        ILightRequest lightRequest = createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES);
+
+        AuthenticationRequestScope requestScope = get(scopePlan, lightRequest);
+
+        assertSame(requestScope, get(scopePlan, createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES)));
+        assertNotSame(requestScope, get(scopePlan, createLightRequest(LEGAL_PERSON_MANDATORY_ATTRIBUTES)));
+    }
+
+    private static AuthenticationRequestScope get(ScopePlan scopePlan, ILightRequest lightRequest) {
+        return scopePlan.get(lightRequest, LIGHT_REQUEST_RULES.classify(lightRequest));
+    }
+
+    private static Set<String> scopes(String... scopes) {
+        return new HashSet<>(asList(scopes));
+    }
+
+    private static Set<String> splitScope(String scope) {
+        return scopes(scope.split(" "));
+    }
+
+    private static OidcProviderProperties createOidcProperties(boolean requestAttributeScopes, boolean requestClaims) {
+        OidcProviderProperties properties = new OidcProviderProperties();
+        Map<String, String> attributeScopeMapping = new HashMap<>();
+        attributeScopeMapping.put("FirstName", "eidas:attribute:first_name");
+        attributeScopeMapping.put("FamilyName", "eidas:attribute:family_name");
+        attributeScopeMapping.put("DateOfBirth", "eidas:attribute:date_of_birth");
+        attributeScopeMapping.put("PersonIdentifier", "eidas:attribute:person_identifier");
+        attributeScopeMapping.put("LegalName", "eidas:attribute:legal_name");
+        attributeScopeMapping.put("LegalPersonIdentifier", "eidas:attribute:legal_person_identifier");
+        properties.setAttributeScopeMapping(attributeScopeMapping);
+        IdTokenClaimMappingProperties claimMapping = new IdTokenClaimMappingProperties();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("FirstName", "$.profile_attributes.given_name");
+        attributes.put("FamilyName", "$.profile_attributes.family_name");
+        attributes.put("DateOfBirth", "$.profile_attributes.date_of_birth");
+        attributes.put("PersonIdentifier", "$.sub");
+        attributes.put("BirthName", "$['birth_name']");
+        claimMapping.setAttributes(attributes);
+        properties.setResponseClaimMapping(claimMapping);
+        properties.setRequestAttributeScopes(requestAttributeScopes);
+        properties.setRequestClaims(requestClaims);
+        return properties;
+    }
+}
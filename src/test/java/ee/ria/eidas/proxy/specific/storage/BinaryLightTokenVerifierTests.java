@@ -0,0 +1,147 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import eu.eidas.auth.commons.tx.BinaryLightToken;
+import eu.eidas.specificcommunication.BinaryLightTokenHelper;
+import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryLightTokenVerifierTests {
+    private static final String ISSUER = "specificCommunicationDefinitionProxyserviceResponse";
+    private static final String SECRET = "mySecretProxyserviceResponse";
+    private static final String ALGORITHM = "SHA-256";
+
+    private final BinaryLightTokenVerifier verifier = new BinaryLightTokenVerifier(SECRET, ALGORITHM);
+
+    @ParameterizedTest
+    @ValueSource(strings = {"SHA-256", "SHA-512"})
+    void sameTokenIdAsHelperWhen_ValidToken(String algorithm) throws SpecificCommunicationException {
+        BinaryLightTokenVerifier algorithmVerifier = new BinaryLightTokenVerifier(SECRET, algorithm);
+        for (int i = 0; i < 100; i++) {
+            String token = createToken(ISSUER, SECRET, algorithm);
+
+            String tokenId = algorithmVerifier.getTokenId(token);
+
+            assertEquals(BinaryLightTokenHelper.getBinaryLightTokenId(token, SECRET, algorithm), tokenId);
+        }
+    }
+
+    @Test
+    void sameTokenIdAsHelperWhen_ValidTokenOnMultipleThreads() throws Exception {
+        String token = createToken(ISSUER, SECRET, ALGORITHM);
+        String expectedTokenId = BinaryLightTokenHelper.getBinaryLightTokenId(token, SECRET, ALGORITHM);
+        String[] tokenIds = new String[4];
+        Thread[] threads = new Thread[tokenIds.length];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> tokenIds[index] = verifier.getTokenId(token));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (String tokenId : tokenIds) {
+            assertEquals(expectedTokenId, tokenId);
+        }
+    }
+
+    @Test
+    void tokenRejectedWhen_InvalidSecret() throws SpecificCommunicationException {
+        String token = createToken(ISSUER, "otherSecret", ALGORITHM);
+
+        assertRejected(token);
+    }
+
+    @Test
+    void tokenRejectedWhen_InvalidAlgorithm() throws SpecificCommunicationException {
+        String token = createToken(ISSUER, SECRET, "SHA-512");
+
+        assertRejected(token);
+    }
+
+    @Test
+    void tokenRejectedWhen_TamperedParts() throws SpecificCommunicationException {
+        String[] parts = decode(createToken(ISSUER, SECRET, ALGORITHM)).split("\\|");
+
+        assertRejected(encode(parts[0] + "|" + "tamperedId" + "|" + parts[2] + "|" + parts[3]));
+        assertRejected(encode("tamperedIssuer" + "|" + parts[1] + "|" + parts[2] + "|" + parts[3]));
+        assertRejected(encode(parts[0] + "|" + parts[1] + "|" + "2017-12-11 14:12:05 148" + "|" + parts[3]));
+        assertRejected(encode(parts[0] + "|" + parts[1] + "|" + parts[2] + "|" + parts[3].substring(4)));
+        assertRejected(encode(parts[0] + "|" + parts[1] + "|" + parts[2] + "|" + parts[3] + "|x"));
+        assertRejected(encode(parts[0] + "|" + parts[1] + "|" + parts[2]));
+        assertRejected(encode(parts[0] + "|" + parts[1] + "|" + parts[2] + "|"));
+        assertRejected(encode(parts[0] + "|" + " " + "|" + parts[2] + "|" + parts[3]));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"YXNkZmZzZGZzZGZkc2ZzZmQ", "YXNkZmZzZGZzZGZkc2ZzZmQ=", "YXNk*mZzZGZz", "YWJj====", "fHx8", "õäöü"})
+    void tokenRejectedWhen_InvalidValue(String token) {
+        assertRejected(token);
+    }
+
+    @Test
+    void tokenRejectedWhen_TooLong() throws SpecificCommunicationException {
+        String[] parts = decode(createToken(ISSUER, SECRET, ALGORITHM)).split("\\|");
+        StringBuilder issuer = new StringBuilder();
+        while (issuer.length() < BinaryLightTokenVerifier.MAX_TOKEN_LENGTH) {
+            issuer.append(ISSUER);
+        }
+
+        assertRejected(encode(issuer + "|" + parts[1] + "|" + parts[2] + "|" + parts[3]));
+    }
+
+    @Test
+    void base64DecodedWhen_PaddingAndWhitespace() {
+        byte[] target = new byte[16];
+        for (String value : new String[]{"a", "ab", "abc", "abcd", "abcdefghijk"}) {
+            byte[] encoded = (" " + Base64.getMimeEncoder(4, "\r\n".getBytes(UTF_8)).encodeToString(value.getBytes(UTF_8)) + "\n").getBytes(UTF_8);
+
+            int length = BinaryLightTokenVerifier.decodeBase64(encoded, 0, encoded.length, target);
+
+            assertEquals(value, new String(target, 0, length, UTF_8));
+        }
+    }
+
+    @Test
+    void base64RejectedWhen_DoesNotFitTarget() {
+        byte[] encoded = "YWJjZA==".getBytes(UTF_8);
+
+        assertEquals(-1, BinaryLightTokenVerifier.decodeBase64(encoded, 0, encoded.length, new byte[3]));
+        assertEquals(4, BinaryLightTokenVerifier.decodeBase64(encoded, 0, encoded.length, new byte[4]));
+    }
+
+    @Test
+    void exceptionThrownWhen_UnsupportedAlgorithm() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> new BinaryLightTokenVerifier(SECRET, "SHA-999"));
+
+        assertEquals("Unsupported light token algorithm: SHA-999", exception.getMessage());
+    }
+
+    private void assertRejected(String token) {
+        assertNull(verifier.getTokenId(token));
+        assertThrows(Exception.class, () -> BinaryLightTokenHelper.getBinaryLightTokenId(token, SECRET, ALGORITHM));
+    }
+
+    private static String createToken(String issuer, String secret, String algorithm) throws SpecificCommunicationException {
+        BinaryLightToken binaryLightToken = BinaryLightTokenHelper.createBinaryLightToken(issuer, secret, algorithm);
+        return BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken);
+    }
+
+    private static String decode(String token) {
+        return new String(Base64.getDecoder().decode(token), UTF_8);
+    }
+
+    private static String encode(String token) {
+        return Base64.getEncoder().encodeToString(token.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,109 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedObjectPoolTests {
+    private final AtomicInteger createdCount = new AtomicInteger();
+
+    @Test
+    void releasedInstanceReused() {
+        BoundedObjectPool<Object, RuntimeException> pool = createPool(2);
+
+        Object first = pool.borrow();
+        pool.release(first);
+        Object second = pool.borrow();
+
+        assertSame(first, second);
+        assertEquals(1, createdCount.get());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    void newInstanceCreatedWhen_PooledInstanceNotReleased() {
+        BoundedObjectPool<Object, RuntimeException> pool = createPool(2);
+
+        Object failed = pool.borrow();
+        Object next = pool.borrow();
+
+        assertNotSame(failed, next);
+        assertEquals(2, createdCount.get());
+        assertEquals(0, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    void factoryExceptionPropagated() {
+        BoundedObjectPool<Object, IllegalStateException> pool = new BoundedObjectPool<>(1, () -> {
+            throw new IllegalStateException("Creation failed");
+        });
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, pool::borrow);
+
+        assertEquals("Creation failed", exception.getMessage());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    void idleInstancesBoundedWhen_ConcurrentBorrowing() throws Exception {
+        int maxIdle = 4;
+        int threads = 16;
+        BoundedObjectPool<Object, RuntimeException> pool = createPool(maxIdle);
+        CyclicBarrier allBorrowed = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    Object pooledObject = pool.borrow();
+                    allBorrowed.await(10, TimeUnit.SECONDS);
+                    pool.release(pooledObject);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads, createdCount.get());
+        assertEquals(threads, pool.getMisses());
+        assertEquals(maxIdle, pool.getIdleCount());
+    }
+
+    @Test
+    void atLeastOneIdleInstanceKeptWhen_MaxIdleNotPositive() {
+        BoundedObjectPool<Object, RuntimeException> pool = createPool(0);
+
+        pool.release(pool.borrow());
+        pool.release(new Object());
+
+        assertEquals(1, pool.getIdleCount());
+        assertTrue(pool.getMisses() > 0);
+    }
+
+    private BoundedObjectPool<Object, RuntimeException> createPool(int maxIdle) {
+        return new BoundedObjectPool<>(maxIdle, () -> {
+            createdCount.incrementAndGet();
+            return new Object();
+        });
+    }
+}
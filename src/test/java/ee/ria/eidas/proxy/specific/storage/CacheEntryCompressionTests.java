@@ -0,0 +1,146 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties.CompressionProperties;
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.PendingLightResponseHolder;
+import eu.eidas.auth.commons.light.ILightResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ignite.binary.BinaryObjectException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static ee.ria.eidas.proxy.specific.storage.CacheEntryCompression.MAX_PAYLOAD_BYTES;
+import static ee.ria.eidas.proxy.specific.storage.CacheEntryCompression.PAYLOAD_FORMAT_VERSION;
+import static ee.ria.eidas.proxy.specific.storage.CacheEntryCompression.UNCOMPRESSED;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createDefaultLightResponse;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class CacheEntryCompressionTests {
+    private static final AttributeRegistryIndex REGISTRY_INDEX = new AttributeRegistryIndex(SpecificProxyServiceConfiguration.EIDAS_ATTRIBUTE_REGISTRY);
+    private static final DeflatePayloadCompressor DEFLATE = new DeflatePayloadCompressor(Deflater.BEST_SPEED);
+
+    private final CacheEntryCompression enabledCompression = new CacheEntryCompression(true, 0, DEFLATE);
+    private final CacheEntryCompression disabledCompression = new CacheEntryCompression(false, Integer.MAX_VALUE, DEFLATE);
+
+    @Test
+    void compressedPayloadReadableWhen_CompressionDisabled() {
+        ILightResponse lightResponse = createDefaultLightResponse();
+        byte[] payload = LightMessageBinaryFormat.writePendingLightResponse(new PendingLightResponseHolder(lightResponse));
+
+        byte[] compressed = enabledCompression.encode(payload);
+        log.info("Pending consent payload size: uncompressed {} bytes, compressed {} bytes", payload.length, compressed.length);
+
+        assertTrue(compressed.length < payload.length);
+        assertEquals(PAYLOAD_FORMAT_VERSION, compressed[0]);
+        assertEquals(DeflatePayloadCompressor.ID, compressed[1]);
+        ILightResponse deserializedResponse = LightMessageBinaryFormat.readPendingLightResponse(disabledCompression.decode(compressed), REGISTRY_INDEX).getLightResponse();
+        assertEquals(lightResponse.getId(), deserializedResponse.getId());
+        assertEquals(lightResponse.getSubject(), deserializedResponse.getSubject());
+        assertEquals(lightResponse.getAttributes().getDefinitions(), deserializedResponse.getAttributes().getDefinitions());
+    }
+
+    @Test
+    void payloadNotCompressedWhen_BelowThreshold() {
+        byte[] payload = new byte[1024];
+        CacheEntryCompression compression = new CacheEntryCompression(true, payload.length + 1, DEFLATE);
+
+        byte[] encoded = compression.encode(payload);
+
+        assertUncompressed(payload, encoded);
+        assertArrayEquals(payload, enabledCompression.decode(encoded));
+    }
+
+    @Test
+    void payloadNotCompressedWhen_NotSmaller() {
+        byte[] payload = new byte[256];
+        new Random(1).nextBytes(payload);
+
+        byte[] encoded = enabledCompression.encode(payload);
+
+        assertUncompressed(payload, encoded);
+        assertArrayEquals(payload, enabledCompression.decode(encoded));
+    }
+
+    @Test
+    void decodeFailsWhen_UnsupportedPayloadFormatVersion() {
+        byte[] encoded = enabledCompression.encode(new byte[16]);
+        encoded[0] = PAYLOAD_FORMAT_VERSION + 1;
+
+        BinaryObjectException exception = assertThrows(BinaryObjectException.class, () -> enabledCompression.decode(encoded));
+
+        assertEquals("Unsupported cache entry payload format version: 2", exception.getMessage());
+    }
+
+    @Test
+    void decodeFailsWhen_PayloadTruncated() {
+        assertThrows(BinaryObjectException.class, () -> enabledCompression.decode(new byte[]{PAYLOAD_FORMAT_VERSION}));
+        assertThrows(BinaryObjectException.class, () -> enabledCompression.decode(new byte[]{PAYLOAD_FORMAT_VERSION, DeflatePayloadCompressor.ID, 0}));
+
+        byte[] compressed = enabledCompression.encode(new byte[4096]);
+        assertThrows(BinaryObjectException.class, () -> enabledCompression.decode(Arrays.copyOf(compressed, compressed.length - 2)));
+    }
+
+    @Test
+    void decodeFailsWhen_DeclaredLengthExceedsLimit() {
+        byte[] encoded = compressedPayload(MAX_PAYLOAD_BYTES + 1, DEFLATE.compress(new byte[16]));
+
+        BinaryObjectException exception = assertThrows(BinaryObjectException.class, () -> enabledCompression.decode(encoded));
+
+        assertEquals("Cache entry payload size " + (MAX_PAYLOAD_BYTES + 1) + " exceeds the limit of " + MAX_PAYLOAD_BYTES + " bytes", exception.getMessage());
+    }
+
+    @Test
+    void decodeFailsWhen_PayloadInflatesBeyondDeclaredLength() {
+        byte[] encoded = compressedPayload(1024, DEFLATE.compress(new byte[10 * MAX_PAYLOAD_BYTES]));
+
+        BinaryObjectException exception = assertThrows(BinaryObjectException.class, () -> enabledCompression.decode(encoded));
+
+        assertEquals("Unable to decompress cache entry", exception.getMessage());
+    }
+
+    @Test
+    void decodeFailsWhen_UnknownCompressor() {
+        byte[] encoded = compressedPayload(16, DEFLATE.compress(new byte[16]));
+        encoded[1] = 42;
+
+        BinaryObjectException exception = assertThrows(BinaryObjectException.class, () -> enabledCompression.decode(encoded));
+
+        assertEquals("Unsupported cache entry compression: 42", exception.getMessage());
+    }
+
+    @Test
+    void payloadCompressedWhen_BuiltFromEnabledConfiguration() {
+        CompressionProperties properties = new CompressionProperties();
+        properties.setEnabled(true);
+        properties.setThresholdBytes(0);
+
+        byte[] encoded = CacheEntryCompression.build(properties).encode(new byte[4096]);
+
+        assertEquals(DeflatePayloadCompressor.ID, encoded[1]);
+        assertArrayEquals(new byte[4096], disabledCompression.decode(encoded));
+    }
+
+    private static void assertUncompressed(byte[] payload, byte[] encoded) {
+        assertEquals(payload.length + 2, encoded.length);
+        assertEquals(PAYLOAD_FORMAT_VERSION, encoded[0]);
+        assertEquals(UNCOMPRESSED, encoded[1]);
+    }
+
+    private static byte[] compressedPayload(int declaredLength, byte[] compressed) {
+        return ByteBuffer.allocate(6 + compressed.length)
+                .put(PAYLOAD_FORMAT_VERSION)
+                .put(DeflatePayloadCompressor.ID)
+                .putInt(declaredLength)
+                .put(compressed)
+                .array();
+    }
+}
@@ -0,0 +1,318 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.CacheProperties.LightRequestReader;
+import ee.ria.eidas.proxy.specific.service.AttributeRegistryIndex;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.ILightResponse;
+import eu.eidas.auth.commons.light.impl.LightResponse;
+import eu.eidas.auth.commons.light.impl.ResponseStatus;
+import eu.eidas.auth.commons.protocol.eidas.spec.EidasSpec;
+import eu.eidas.specificcommunication.exception.SpecificCommunicationException;
+import eu.eidas.specificcommunication.protocol.util.LightMessagesConverter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.MarshalException;
+import javax.xml.bind.Marshaller;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.UUID;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Slf4j
+class LightJAXBCodecTests {
+    private static final String WHITESPACE_BETWEEN_ELEMENTS = ">\\s+<";
+    private static final String LIGHT_REQUEST_WITH_DOCTYPE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<!DOCTYPE lightRequest [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>" +
+            "<lightRequest xmlns=\"http://cef.eidas.eu/LightRequest\"><id>&xxe;</id></lightRequest>";
+
+    private static final AttributeRegistryIndex REGISTRY_INDEX = new AttributeRegistryIndex(EidasSpec.REGISTRY);
+
+    private final LightJAXBCodec compactCodec = LightJAXBCodec.build(cacheProperties(false));
+    private final LightJAXBCodec formattedCodec = LightJAXBCodec.build(cacheProperties(true));
+    private final LightJAXBCodec staxCodec = LightJAXBCodec.build(staxCacheProperties());
+
+    @Test
+    @SneakyThrows
+    void compactLightRequestWhen_FormattedOutputDisabled() {
+        ILightRequest lightRequest = createDefaultLightRequest();
+
+        String compactXml = compactCodec.marshall(lightRequest);
+        String formattedXml = formattedCodec.marshall(lightRequest);
+
+        assertCompactFormOf(formattedXml, compactXml);
+        assertRoundTrip(lightRequest, compactXml);
+    }
+
+    @Test
+    @SneakyThrows
+    void compactLegalPersonLightRequestWhen_FormattedOutputDisabled() {
+        ILightRequest lightRequest = createLightRequest(LEGAL_PERSON_MANDATORY_ATTRIBUTES);
+
+        String compactXml = compactCodec.marshall(lightRequest);
+        String formattedXml = formattedCodec.marshall(lightRequest);
+
+        assertCompactFormOf(formattedXml, compactXml);
+        assertRoundTrip(lightRequest, compactXml);
+    }
+
+    @Test
+    @SneakyThrows
+    void compactLightResponseWhen_FormattedOutputDisabled() {
+        ILightResponse lightResponse = createDefaultLightResponse();
+
+        String compactXml = compactCodec.marshall(lightResponse);
+        String formattedXml = formattedCodec.marshall(lightResponse);
+
+        assertSizeReduced(formattedXml, compactXml);
+        assertEquals(remarshallWithJaxb(formattedXml), remarshallWithJaxb(compactXml));
+    }
+
+    @Test
+    @SneakyThrows
+    void streamingLightResponseWriterRoundTripsThroughJaxb() {
+        ILightResponse lightResponse = createDefaultLightResponse();
+
+        ILightResponse actual = unmarshallResponseWithJaxb(compactCodec.marshall(lightResponse));
+
+        assertEquals(lightResponse.getId(), actual.getId());
+        assertEquals(lightResponse.getInResponseToId(), actual.getInResponseToId());
+        assertEquals(lightResponse.getIssuer(), actual.getIssuer());
+        assertEquals(lightResponse.getIPAddress(), actual.getIPAddress());
+        assertEquals(lightResponse.getRelayState(), actual.getRelayState());
+        assertEquals(lightResponse.getSubject(), actual.getSubject());
+        assertEquals(lightResponse.getSubjectNameIdFormat(), actual.getSubjectNameIdFormat());
+        assertEquals(lightResponse.getLevelOfAssurance(), actual.getLevelOfAssurance());
+        assertEquals(lightResponse.getStatus().getStatusCode(), actual.getStatus().getStatusCode());
+        assertEquals(lightResponse.getStatus().isFailure(), actual.getStatus().isFailure());
+        assertEquals(lightResponse.getAttributes(), actual.getAttributes());
+    }
+
+    @Test
+    @SneakyThrows
+    void streamingLightResponseWriterEscapesFailureResponse() {
+        ILightResponse lightResponse = LightResponse.builder()
+                .id(UUID.randomUUID().toString())
+                .inResponseToId("<inResponseTo & id>")
+                .issuer(MOCK_ISSUER_NAME)
+                .status(ResponseStatus.builder()
+                        .statusCode("urn:oasis:names:tc:SAML:2.0:status:Requester")
+                        .subStatusCode("urn:oasis:names:tc:SAML:2.0:status:RequestDenied")
+                        .statusMessage("User canceled the authentication process & <left>")
+                        .failure(true)
+                        .build())
+                .build();
+
+        String compactXml = compactCodec.marshall(lightResponse);
+        ILightResponse actual = unmarshallResponseWithJaxb(compactXml);
+
+        assertEquals(remarshallWithJaxb(formattedCodec.marshall(lightResponse)), remarshallWithJaxb(compactXml));
+        assertEquals(lightResponse.getInResponseToId(), actual.getInResponseToId());
+        assertEquals(lightResponse.getStatus().getStatusMessage(), actual.getStatus().getStatusMessage());
+        assertEquals(lightResponse.getStatus().getSubStatusCode(), actual.getStatus().getSubStatusCode());
+        assertTrue(actual.getStatus().isFailure());
+    }
+
+    @Test
+    @SneakyThrows
+    void failureResponseTemplateMatchesLightResponseConversion() {
+        String id = UUID.randomUUID().toString();
+        ILightResponse lightResponse = LightResponse.builder()
+                .id(id)
+                .inResponseToId("<inResponseTo & id>")
+                .issuer(MOCK_ISSUER_NAME)
+                .status(ResponseStatus.builder()
+                        .statusCode("urn:oasis:names:tc:SAML:2.0:status:Requester")
+                        .subStatusCode("urn:oasis:names:tc:SAML:2.0:status:RequestDenied")
+                        .statusMessage("User canceled the authentication process & <left>")
+                        .failure(true)
+                        .build())
+                .build();
+        FailureLightResponseTemplate template = new FailureLightResponseTemplate(MOCK_ISSUER_NAME,
+                "urn:oasis:names:tc:SAML:2.0:status:Requester", "urn:oasis:names:tc:SAML:2.0:status:RequestDenied");
+
+        String templateXml = template.render(id, lightResponse.getInResponseToId(), lightResponse.getStatus().getStatusMessage());
+
+        assertEquals(compactCodec.marshall(lightResponse), templateXml);
+        assertEquals(remarshallWithJaxb(formattedCodec.marshall(lightResponse)), remarshallWithJaxb(templateXml));
+    }
+
+    @Test
+    @SneakyThrows
+    void staxReaderReadsSameLightRequestAsJaxbReader() {
+        ILightRequest lightRequest = createDefaultLightRequest();
+        String xml = formattedCodec.marshall(lightRequest);
+
+        ILightRequest jaxbLightRequest = compactCodec.unmarshallRequest(xml, REGISTRY_INDEX);
+        ILightRequest staxLightRequest = staxCodec.unmarshallRequest(xml, REGISTRY_INDEX);
+
+        assertEquals(jaxbLightRequest.toString(), staxLightRequest.toString());
+    }
+
+    @Test
+    @SneakyThrows
+    void unknownAttributeRejectedWhen_JaxbAndStaxReader() {
+        String xml = formattedCodec.marshall(createDefaultLightRequest())
+                .replace(EidasSpec.Definitions.PERSON_IDENTIFIER.getNameUri().toASCIIString(), "http://eidas.europa.eu/attributes/naturalperson/Unknown");
+
+        SpecificCommunicationException jaxbException = assertThrows(SpecificCommunicationException.class,
+                () -> compactCodec.unmarshallRequest(xml, REGISTRY_INDEX));
+        SpecificCommunicationException staxException = assertThrows(SpecificCommunicationException.class,
+                () -> staxCodec.unmarshallRequest(xml, REGISTRY_INDEX));
+
+        assertEquals("Attribute http://eidas.europa.eu/attributes/naturalperson/Unknown not present in the registry", jaxbException.getMessage());
+        assertEquals(jaxbException.getMessage(), staxException.getMessage());
+    }
+
+    @Test
+    void doctypeRejectedWhen_JaxbReader() {
+        IllegalStateException exception = assertThrows(IllegalStateException.class,
+                () -> compactCodec.unmarshallRequest(LIGHT_REQUEST_WITH_DOCTYPE, REGISTRY_INDEX));
+        assertTrue(exception.getMessage().startsWith("Failed to unmarshal incoming request!"));
+    }
+
+    @Test
+    void doctypeRejectedWhen_StaxReader() {
+        IllegalStateException exception = assertThrows(IllegalStateException.class,
+                () -> staxCodec.unmarshallRequest(LIGHT_REQUEST_WITH_DOCTYPE, REGISTRY_INDEX));
+        assertEquals("Failed to unmarshal incoming request! DOCTYPE is disallowed", exception.getMessage());
+    }
+
+    @Test
+    @SneakyThrows
+    void marshallerReusedBetweenCalls() {
+        LightJAXBCodec codec = LightJAXBCodec.build(cacheProperties(true));
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        codec.bindTo(meterRegistry);
+        ILightRequest lightRequest = createDefaultLightRequest();
+
+        assertEquals(codec.marshall(lightRequest), codec.marshall(lightRequest));
+
+        assertPoolMetrics(meterRegistry, "light-request-marshaller", 1, 1, 1);
+    }
+
+    @Test
+    @SneakyThrows
+    void marshallerDiscardedWhen_MarshallingFails() {
+        JAXBContext jaxbContext = mock(JAXBContext.class);
+        Marshaller failingMarshaller = mock(Marshaller.class);
+        Marshaller workingMarshaller = mock(Marshaller.class);
+        when(jaxbContext.createMarshaller()).thenReturn(failingMarshaller, workingMarshaller);
+        doThrow(new MarshalException("Marshalling failed")).when(failingMarshaller).marshal(any(), any(Writer.class));
+        LightJAXBCodec codec = new LightJAXBCodec(jaxbContext, jaxbContext, cacheProperties(true));
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        codec.bindTo(meterRegistry);
+        ILightRequest lightRequest = createDefaultLightRequest();
+
+        assertThrows(SpecificCommunicationException.class, () -> codec.marshall(lightRequest));
+        codec.marshall(lightRequest);
+        codec.marshall(lightRequest);
+
+        verify(jaxbContext, times(2)).createMarshaller();
+        verify(failingMarshaller, times(1)).marshal(any(), any(Writer.class));
+        verify(workingMarshaller, times(2)).marshal(any(), any(Writer.class));
+        assertPoolMetrics(meterRegistry, "light-request-marshaller", 1, 2, 1);
+    }
+
+    @Test
+    @SneakyThrows
+    void unmarshallerAndXmlReaderDiscardedWhen_UnmarshallingFails() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        compactCodec.bindTo(meterRegistry);
+        String xml = compactCodec.marshall(createDefaultLightRequest());
+
+        assertThrows(IllegalStateException.class, () -> compactCodec.unmarshallRequest(LIGHT_REQUEST_WITH_DOCTYPE, REGISTRY_INDEX));
+        compactCodec.unmarshallRequest(xml, REGISTRY_INDEX);
+
+        assertPoolMetrics(meterRegistry, "light-request-unmarshaller", 0, 2, 1);
+        assertPoolMetrics(meterRegistry, "secure-xml-reader", 0, 2, 1);
+    }
+
+    @Test
+    void poolMetricsExportedForAllPools() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        compactCodec.bindTo(meterRegistry);
+
+        for (String pool : new String[]{"light-request-marshaller", "light-response-marshaller", "light-request-unmarshaller", "secure-xml-reader"}) {
+            assertPoolMetrics(meterRegistry, pool, 0, 0, 0);
+        }
+    }
+
+    private static void assertPoolMetrics(MeterRegistry meterRegistry, String pool, double hits, double misses, double idle) {
+        assertEquals(hits, meterRegistry.get("eidas.proxy.codec.pool.hits").tag("pool", pool).functionCounter().count());
+        assertEquals(misses, meterRegistry.get("eidas.proxy.codec.pool.misses").tag("pool", pool).functionCounter().count());
+        assertEquals(idle, meterRegistry.get("eidas.proxy.codec.pool.idle").tag("pool", pool).gauge().value());
+    }
+
+    private void assertCompactFormOf(String formattedXml, String compactXml) {
+        assertSizeReduced(formattedXml, compactXml);
+        assertEquals(formattedXml.replaceAll(WHITESPACE_BETWEEN_ELEMENTS, "><").trim(), compactXml);
+    }
+
+    private void assertSizeReduced(String formattedXml, String compactXml) {
+        int formattedSize = formattedXml.getBytes(UTF_8).length;
+        int compactSize = compactXml.getBytes(UTF_8).length;
+        log.info("Cache entry size: formatted {} bytes, compact {} bytes ({} bytes saved)", formattedSize, compactSize, formattedSize - compactSize);
+
+        assertTrue(compactSize < formattedSize);
+    }
+
+    @SneakyThrows
+    private static String remarshallWithJaxb(String lightResponseXml) {
+        JAXBContext jaxbContext = JAXBContext.newInstance(eu.eidas.specificcommunication.LightResponse.class);
+        Object xmlLightResponse = jaxbContext.createUnmarshaller().unmarshal(new StringReader(lightResponseXml));
+        StringWriter writer = new StringWriter();
+        jaxbContext.createMarshaller().marshal(xmlLightResponse, writer);
+        return writer.toString();
+    }
+
+    @SneakyThrows
+    private static ILightResponse unmarshallResponseWithJaxb(String lightResponseXml) {
+        JAXBContext jaxbContext = JAXBContext.newInstance(eu.eidas.specificcommunication.LightResponse.class);
+        eu.eidas.specificcommunication.LightResponse xmlLightResponse = (eu.eidas.specificcommunication.LightResponse) jaxbContext
+                .createUnmarshaller().unmarshal(new StringReader(lightResponseXml));
+        return new LightMessagesConverter().convert(xmlLightResponse, EidasSpec.REGISTRY.getAttributes());
+    }
+
+    @SneakyThrows
+    private void assertRoundTrip(ILightRequest expected, String compactXml) {
+        ILightRequest actual = compactCodec.unmarshallRequest(compactXml, REGISTRY_INDEX);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getIssuer(), actual.getIssuer());
+        assertEquals(expected.getCitizenCountryCode(), actual.getCitizenCountryCode());
+        assertEquals(expected.getLevelOfAssurance(), actual.getLevelOfAssurance());
+        assertEquals(expected.getSpType(), actual.getSpType());
+        assertEquals(expected.getProviderName(), actual.getProviderName());
+        assertEquals(expected.getRelayState(), actual.getRelayState());
+        assertEquals(expected.getRequestedAttributes().getDefinitions(), actual.getRequestedAttributes().getDefinitions());
+    }
+
+    private static CacheProperties cacheProperties(boolean formattedOutput) {
+        CacheProperties properties = new CacheProperties();
+        properties.setFormattedOutput(formattedOutput);
+        return properties;
+    }
+
+    private static CacheProperties staxCacheProperties() {
+        CacheProperties properties = new CacheProperties();
+        properties.setLightRequestReader(LightRequestReader.STAX);
+        return properties;
+    }
+}
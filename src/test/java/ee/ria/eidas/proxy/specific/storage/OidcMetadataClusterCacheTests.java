@@ -0,0 +1,63 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.SpecificProxyTest;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import org.awaitility.Durations;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.util.UUID;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT)
+@ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = OidcMetadataClusterCacheTests.TestContextInitializer.class)
+class OidcMetadataClusterCacheTests extends SpecificProxyTest {
+
+    @Test
+    void leaseHeldByOneNodeUntilReleased() {
+        String cacheName = "oidcMetadataCache-" + UUID.randomUUID();
+        OidcMetadataClusterCache proxyNode = new OidcMetadataClusterCache(igniteClient, cacheName, 60000);
+        OidcMetadataClusterCache otherNode = new OidcMetadataClusterCache(eidasNodeIgnite, cacheName, 60000);
+
+        assertTrue(proxyNode.tryAcquireLease());
+        assertFalse(otherNode.tryAcquireLease());
+        assertTrue(proxyNode.tryAcquireLease());
+
+        proxyNode.releaseLease();
+
+        assertTrue(otherNode.tryAcquireLease());
+        assertFalse(proxyNode.tryAcquireLease());
+    }
+
+    @Test
+    void leaseTakenOverAfterExpiry() {
+        String cacheName = "oidcMetadataCache-" + UUID.randomUUID();
+        OidcMetadataClusterCache proxyNode = new OidcMetadataClusterCache(igniteClient, cacheName, 500);
+        OidcMetadataClusterCache otherNode = new OidcMetadataClusterCache(eidasNodeIgnite, cacheName, 500);
+
+        assertTrue(otherNode.tryAcquireLease());
+
+        await()
+                .atMost(Durations.FIVE_SECONDS)
+                .until(proxyNode::tryAcquireLease);
+    }
+
+    @Test
+    void publishedMetadataVisibleToOtherNodes() {
+        String cacheName = "oidcMetadataCache-" + UUID.randomUUID();
+        OidcMetadataClusterCache proxyNode = new OidcMetadataClusterCache(igniteClient, cacheName, 60000);
+        OidcMetadataClusterCache otherNode = new OidcMetadataClusterCache(eidasNodeIgnite, cacheName, 60000);
+        assertNull(proxyNode.getPublished());
+
+        otherNode.publish("{\"issuer\":\"https://localhost:9877\"}");
+
+        assertEquals("{\"issuer\":\"https://localhost:9877\"}", proxyNode.getPublished());
+    }
+}
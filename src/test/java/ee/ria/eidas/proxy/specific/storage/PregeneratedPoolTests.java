@@ -0,0 +1,98 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceProperties.PregeneratedPoolProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PregeneratedPoolTests {
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final List<Runnable> refillTasks = new ArrayList<>();
+    private final PregeneratedPoolProperties properties = new PregeneratedPoolProperties();
+
+    @Test
+    void valuesCreatedOnCallingThreadWhen_PoolDisabled() {
+        PregeneratedPool<Integer, RuntimeException> pool = new PregeneratedPool<>("test", properties, sequence::incrementAndGet, null);
+        pool.scheduleRefill();
+
+        assertEquals(1, pool.take());
+        assertEquals(2, pool.take());
+        assertEquals(0, pool.getSize());
+        assertEquals(0, pool.getStarvations());
+    }
+
+    @Test
+    void valuesTakenFromPoolAndRefilledAtThreshold() {
+        properties.setDepth(4);
+        properties.setRefillThreshold(2);
+        PregeneratedPool<Integer, RuntimeException> pool = createPool();
+        pool.scheduleRefill();
+        runRefillTasks();
+        assertEquals(4, pool.getSize());
+
+        assertEquals(1, pool.take());
+        assertTrue(refillTasks.isEmpty());
+        assertEquals(2, pool.take());
+        assertEquals(1, refillTasks.size());
+        runRefillTasks();
+
+        assertEquals(4, pool.getSize());
+        assertEquals(3, pool.take());
+        assertEquals(0, pool.getStarvations());
+    }
+
+    @Test
+    void valueCreatedOnCallingThreadAndStarvationCountedWhen_PoolEmpty() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PregeneratedPool<Integer, RuntimeException> pool = createPool();
+        pool.bindTo(meterRegistry);
+
+        assertEquals(1, pool.take());
+
+        assertEquals(1, pool.getStarvations());
+        assertEquals(1, refillTasks.size());
+        assertEquals(1.0, meterRegistry.get("eidas.proxy.pregenerated.pool.starvations").tag("pool", "test").functionCounter().count());
+    }
+
+    @Test
+    void expiredValuesDiscarded() throws InterruptedException {
+        properties.setDepth(2);
+        properties.setMaxAgeInMilliseconds(1);
+        PregeneratedPool<Integer, RuntimeException> pool = createPool();
+        pool.scheduleRefill();
+        runRefillTasks();
+        Thread.sleep(10);
+
+        assertEquals(3, pool.take());
+        assertEquals(0, pool.getSize());
+        assertEquals(1, pool.getStarvations());
+    }
+
+    @Test
+    void refillStoppedWhen_GenerationFails() {
+        PregeneratedPool<Integer, IllegalStateException> pool = new PregeneratedPool<>("test", properties, () -> {
+            throw new IllegalStateException("Generation failed");
+        }, refillTasks::add);
+        pool.scheduleRefill();
+
+        runRefillTasks();
+
+        assertEquals(0, pool.getSize());
+    }
+
+    private PregeneratedPool<Integer, RuntimeException> createPool() {
+        return new PregeneratedPool<>("test", properties, sequence::incrementAndGet, refillTasks::add);
+    }
+
+    private void runRefillTasks() {
+        List<Runnable> tasks = new ArrayList<>(refillTasks);
+        refillTasks.clear();
+        tasks.forEach(Runnable::run);
+    }
+}
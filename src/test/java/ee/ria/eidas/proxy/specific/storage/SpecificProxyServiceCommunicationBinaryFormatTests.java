@@ -0,0 +1,191 @@
+package ee.ria.eidas.proxy.specific.storage;
+
+import ee.ria.eidas.proxy.specific.SpecificProxyTest;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.PendingLightResponseHolder;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.ILightResponse;
+import eu.eidas.auth.commons.tx.BinaryLightToken;
+import eu.eidas.specificcommunication.BinaryLightTokenHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.binary.BinaryObjectException;
+import org.apache.ignite.internal.binary.BinaryObjectImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.UUID;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createDefaultLightRequest;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createDefaultLightResponse;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+@Slf4j
+@SpringBootTest(
+        webEnvironment = RANDOM_PORT,
+        properties = {"eidas.proxy.communication-cache.compact-entry-format=true"})
+@ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = IgniteInstanceInitializerTests.TestContextInitializer.class)
+class SpecificProxyServiceCommunicationBinaryFormatTests extends SpecificProxyTest {
+
+    @Autowired
+    private Ignite igniteClient;
+
+    @Autowired
+    private SpecificProxyServiceCommunication specificProxyServiceCommunication;
+
+    @Test
+    void correlatedRequestsRoundTripWithoutAuthenticationRequestUrl() throws Exception {
+        ILightRequest lightRequest = createDefaultLightRequest();
+        String state = UUID.randomUUID().toString();
+        specificProxyServiceCommunication.putIdpRequest(state, new CorrelatedRequestsHolder(lightRequest,
+                Collections.singletonMap(state, new URL("https://idp.example/authorize?state=" + state))));
+
+        assertTrue(idpRequestCommunicationCache.get(state) instanceof CompactCacheEntry);
+        CorrelatedRequestsHolder deserializedHolder = specificProxyServiceCommunication.getAndRemoveCorrelatedRequests(state);
+
+        ILightRequest deserializedRequest = deserializedHolder.getLightRequest();
+        assertEquals(lightRequest.getId(), deserializedRequest.getId());
+        assertEquals(lightRequest.getIssuer(), deserializedRequest.getIssuer());
+        assertEquals(lightRequest.getCitizenCountryCode(), deserializedRequest.getCitizenCountryCode());
+        assertEquals(lightRequest.getLevelOfAssurance(), deserializedRequest.getLevelOfAssurance());
+        assertEquals(lightRequest.getNameIdFormat(), deserializedRequest.getNameIdFormat());
+        assertEquals(lightRequest.getProviderName(), deserializedRequest.getProviderName());
+        assertEquals(lightRequest.getSpType(), deserializedRequest.getSpType());
+        assertEquals(lightRequest.getRelayState(), deserializedRequest.getRelayState());
+        assertEquals(lightRequest.getRequestedAttributes().getDefinitions(), deserializedRequest.getRequestedAttributes().getDefinitions());
+        assertEquals(state, deserializedHolder.getIdpAuthenticationRequestState());
+        assertNull(deserializedHolder.getOidcProviderId());
+        assertNull(deserializedHolder.getIdpEndpointId());
+        IllegalStateException exception = assertThrows(IllegalStateException.class, deserializedHolder::getIdpAuthenticationRequest);
+        assertEquals("IDP authentication request is not kept in the compact cache entry format", exception.getMessage());
+    }
+
+    @Test
+    void correlatedRequestsRoundTripWithOidcProviderAndIdpEndpointId() throws Exception {
+        ILightRequest lightRequest = createDefaultLightRequest();
+        String state = UUID.randomUUID().toString();
+        specificProxyServiceCommunication.putIdpRequest(state, new CorrelatedRequestsHolder(lightRequest,
+                Collections.singletonMap(state, new URL("https://idp.example/authorize?state=" + state)), "business", "idp-2"));
+
+        CorrelatedRequestsHolder deserializedHolder = specificProxyServiceCommunication.getAndRemoveCorrelatedRequests(state);
+
+        assertEquals(lightRequest.getId(), deserializedHolder.getLightRequest().getId());
+        assertEquals(state, deserializedHolder.getIdpAuthenticationRequestState());
+        assertEquals("business", deserializedHolder.getOidcProviderId());
+        assertEquals("idp-2", deserializedHolder.getIdpEndpointId());
+    }
+
+    @Test
+    void legacyCorrelatedRequestsEntryWrittenWithReflectiveFields() throws Exception {
+        ILightRequest lightRequest = createDefaultLightRequest();
+        String state = UUID.randomUUID().toString();
+        URL authenticationRequestUrl = new URL("https://idp.example/authorize?state=" + state);
+        CorrelatedRequestsHolder holder = new CorrelatedRequestsHolder(lightRequest, Collections.singletonMap(state, authenticationRequestUrl));
+
+        BinaryObject binaryHolder = igniteClient.binary().toBinary(holder);
+        assertTrue(binaryHolder.hasField("lightRequest"));
+        assertTrue(binaryHolder.hasField("authenticationRequest"));
+
+        idpRequestCommunicationCache.put(state, holder);
+        CorrelatedRequestsHolder deserializedHolder = specificProxyServiceCommunication.getAndRemoveCorrelatedRequests(state);
+
+        assertEquals(lightRequest.getId(), deserializedHolder.getLightRequest().getId());
+        assertEquals(lightRequest.getRequestedAttributes().getDefinitions(), deserializedHolder.getLightRequest().getRequestedAttributes().getDefinitions());
+        assertEquals(state, deserializedHolder.getIdpAuthenticationRequestState());
+        assertEquals(authenticationRequestUrl, deserializedHolder.getIdpAuthenticationRequest());
+        assertNull(deserializedHolder.getIdpEndpointId());
+    }
+
+    @Test
+    void compactEntryRejectedWhen_UnsupportedFormatVersion() {
+        String state = UUID.randomUUID().toString();
+        idpRequestCommunicationCache.put(state, new CompactCacheEntry(LightMessageBinaryFormat.FORMAT_VERSION + 1, new byte[0]));
+
+        BinaryObjectException exception = assertThrows(BinaryObjectException.class,
+                () -> specificProxyServiceCommunication.getAndRemoveCorrelatedRequests(state));
+
+        assertEquals("Unsupported cache entry format version: 2", exception.getMessage());
+    }
+
+    @Test
+    void legacyPendingLightResponseEntryReadAsHolder() throws Exception {
+        ILightResponse lightResponse = createDefaultLightResponse();
+        BinaryLightToken binaryLightToken = specificProxyServiceCommunication.putPendingLightResponse(lightResponse);
+        idpConsentCommunicationCache.put(binaryLightToken.getToken().getId(), lightResponse);
+
+        PendingLightResponseHolder holder = specificProxyServiceCommunication.getAndRemovePendingLightResponse(
+                BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken));
+
+        assertFalse(holder.isMarshalled());
+        assertEquals(lightResponse.getId(), holder.getLightResponse().getId());
+        assertEquals(lightResponse.getInResponseToId(), holder.getInResponseToId());
+        assertEquals(lightResponse.getAttributes().getDefinitions(), holder.getLightResponse().getAttributes().getDefinitions());
+        assertNull(idpConsentCommunicationCache.get(binaryLightToken.getToken().getId()));
+    }
+
+    @Test
+    void pendingLightResponseRoundTrip() throws Exception {
+        ILightResponse lightResponse = createDefaultLightResponse();
+        BinaryLightToken binaryLightToken = specificProxyServiceCommunication.putPendingLightResponse(lightResponse);
+
+        assertTrue(idpConsentCommunicationCache.get(binaryLightToken.getToken().getId()) instanceof CompactCacheEntry);
+        PendingLightResponseHolder holder = specificProxyServiceCommunication.getAndRemovePendingLightResponse(
+                BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken));
+
+        assertFalse(holder.isMarshalled());
+        ILightResponse deserializedResponse = holder.getLightResponse();
+        assertEquals(lightResponse.getId(), deserializedResponse.getId());
+        assertEquals(lightResponse.getInResponseToId(), deserializedResponse.getInResponseToId());
+        assertEquals(lightResponse.getIssuer(), deserializedResponse.getIssuer());
+        assertEquals(lightResponse.getIPAddress(), deserializedResponse.getIPAddress());
+        assertEquals(lightResponse.getRelayState(), deserializedResponse.getRelayState());
+        assertEquals(lightResponse.getSubject(), deserializedResponse.getSubject());
+        assertEquals(lightResponse.getSubjectNameIdFormat(), deserializedResponse.getSubjectNameIdFormat());
+        assertEquals(lightResponse.getLevelOfAssurance(), deserializedResponse.getLevelOfAssurance());
+        assertEquals(lightResponse.getStatus().isFailure(), deserializedResponse.getStatus().isFailure());
+        assertEquals(lightResponse.getStatus().getStatusCode(), deserializedResponse.getStatus().getStatusCode());
+        assertEquals(lightResponse.getAttributes().getDefinitions(), deserializedResponse.getAttributes().getDefinitions());
+    }
+
+    @Test
+    void correlatedRequestsEntrySmallerThanReflectiveFormat() throws Exception {
+        ILightRequest lightRequest = createDefaultLightRequest();
+        String state = UUID.randomUUID().toString();
+        CorrelatedRequestsHolder holder = new CorrelatedRequestsHolder(lightRequest,
+                Collections.singletonMap(state, new URL("https://idp.example/authorize")));
+        specificProxyServiceCommunication.putIdpRequest(state, holder);
+
+        int compactSize = binarySize(idpRequestCommunicationCache.get(state));
+        int reflectiveSize = binarySize(holder);
+        log.info("Pending IDP request entry size: reflective {} bytes, compact {} bytes", reflectiveSize, compactSize);
+
+        assertTrue(compactSize < reflectiveSize);
+    }
+
+    @Test
+    void pendingLightResponseEntrySmallerThanReflectiveFormat() throws Exception {
+        ILightResponse lightResponse = createDefaultLightResponse();
+        BinaryLightToken binaryLightToken = specificProxyServiceCommunication.putPendingLightResponse(lightResponse);
+
+        int compactSize = binarySize(idpConsentCommunicationCache.get(binaryLightToken.getToken().getId()));
+        int reflectiveSize = binarySize(lightResponse);
+        log.info("Pending consent entry size: reflective {} bytes, compact {} bytes", reflectiveSize, compactSize);
+
+        assertTrue(compactSize < reflectiveSize);
+    }
+
+    private int binarySize(Object value) {
+        return ((BinaryObjectImpl) igniteClient.binary().toBinary(value)).length();
+    }
+}
@@ -3,6 +3,7 @@ package ee.ria.eidas.proxy.specific.web;
 import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
 import eu.eidas.auth.commons.EidasParameterKeys;
 import eu.eidas.auth.commons.light.ILightResponse;
+import eu.eidas.auth.commons.tx.BinaryLightToken;
 import eu.eidas.specificcommunication.BinaryLightTokenHelper;
 import org.apache.http.HttpHeaders;
 import org.hamcrest.Matchers;
@@ -87,6 +88,24 @@ class ConsentControllerEnabledTests extends ControllerTest {
 		assertResponseCommunicationCacheIsEmpty();
 	}
 
+	@Test
+	void badRequestWhenInvalidParameterValue_cancel() {
+		given()
+			.param(EidasParameterKeys.TOKEN.toString(), "YXNkZmZzZGZzZGZkc2ZzZmQ")
+			.param("cancel", "maybe")
+		.when()
+			.get(ENDPOINT_USER_CONSENT)
+		.then()
+			.assertThat()
+			.statusCode(400)
+			.body("error", equalTo("Bad Request"))
+			.body("errors", equalTo("Parameter 'cancel': Failed to convert property value of type 'java.lang.String' to required type 'java.util.List' for property 'cancel'; nested exception is java.lang.IllegalArgumentException: Invalid boolean value [maybe]"))
+			.body("incidentNumber", notNullValue())
+			.body("message", equalTo("Validation failed for object='requestParameters'. Error count: 1"));
+
+		assertResponseCommunicationCacheIsEmpty();
+	}
+
 
 	@Test
 	void redirectToEidasNodeWhenValidUserCancel() throws Exception {
@@ -109,6 +128,32 @@ class ConsentControllerEnabledTests extends ControllerTest {
 
 
 
+	@Test
+	void redirectToEidasNodeWhenLegacyPendingLightResponseEntry() throws Exception {
+		ILightResponse defaultLightResponse = createDefaultLightResponse();
+		BinaryLightToken binaryLightToken = BinaryLightTokenHelper.createBinaryLightToken(
+				specificProxyServiceProperties.getConsentBinaryLightToken().getIssuer(),
+				specificProxyServiceProperties.getConsentBinaryLightToken().getSecret(),
+				specificProxyServiceProperties.getConsentBinaryLightToken().getAlgorithm());
+		getIdpConsentCommunicationCache().put(binaryLightToken.getToken().getId(), defaultLightResponse);
+
+		given()
+			.param("token", BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken))
+		.when()
+			.get(ENDPOINT_USER_CONSENT)
+		.then()
+			.assertThat()
+			.statusCode(302)
+			.header(HttpHeaders.LOCATION, startsWith("https://ee-eidas-proxy:8083/EidasNode/SpecificProxyServiceResponse?token=c3BlY2lmaWNDb"));
+
+		List<Cache.Entry<String, String>> list = getListFromIterator(getEidasNodeResponseCommunicationCache().iterator());
+		assertEquals(1, list.size());
+		Element responseXml = getXmlDocument(list.get(0).getValue());
+		assertThat(responseXml, hasXPath("/lightResponse/id", equalTo(defaultLightResponse.getId())));
+		assertThat(responseXml, hasXPath("/lightResponse/inResponseToId", equalTo(defaultLightResponse.getInResponseToId())));
+		assertThat(responseXml, hasXPath("/lightResponse/subject", equalTo(defaultLightResponse.getSubject())));
+	}
+
 	@Test
 	void redirectToEidasNodeWhenValidUserAccept() throws Exception {
 		ILightResponse defaultLightResponse = createDefaultLightResponse();
@@ -0,0 +1,42 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.storage.CompactCacheEntry;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.PendingLightResponseHolder;
+import eu.eidas.auth.commons.light.ILightResponse;
+import eu.eidas.auth.commons.tx.BinaryLightToken;
+import eu.eidas.specificcommunication.BinaryLightTokenHelper;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createDefaultLightResponse;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+/**
+ * Runs the consent tests with pending LightResponses stored as the final LightResponse XML.
+ */
+@SpringBootTest(
+        webEnvironment = RANDOM_PORT,
+        properties = {"eidas.proxy.store-marshalled-consent-response=true"})
+@ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = ConsentControllerEnabledTests.TestContextInitializer.class)
+class ConsentControllerMarshalledResponseTests extends ConsentControllerEnabledTests {
+
+    @Test
+    void pendingLightResponseStoredAsMarshalledXml() throws Exception {
+        ILightResponse lightResponse = createDefaultLightResponse();
+        BinaryLightToken binaryLightToken = getSpecificProxyServiceCommunication().putPendingLightResponse(lightResponse);
+
+        assertTrue(getIdpConsentCommunicationCache().get(binaryLightToken.getToken().getId()) instanceof CompactCacheEntry);
+        PendingLightResponseHolder pendingLightResponse = getSpecificProxyServiceCommunication().getAndRemovePendingLightResponse(
+                BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken));
+
+        assertTrue(pendingLightResponse.isMarshalled());
+        assertNull(pendingLightResponse.getLightResponse());
+        assertEquals(lightResponse.getInResponseToId(), pendingLightResponse.getInResponseToId());
+        assertEquals(codec.marshall(lightResponse), pendingLightResponse.getMarshalledLightResponse());
+    }
+}
@@ -0,0 +1,54 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
+import io.restassured.RestAssured;
+import org.apache.http.HttpHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static ee.ria.eidas.proxy.specific.web.IdpResponseController.ENDPOINT_IDP_RESPONSE;
+import static io.restassured.RestAssured.given;
+import static io.restassured.config.RedirectConfig.redirectConfig;
+import static org.hamcrest.core.StringStartsWith.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+/**
+ * Runs the IdP callback tests with the callback processed asynchronously on the IdP callback executors.
+ */
+@SpringBootTest(
+		webEnvironment = RANDOM_PORT,
+		properties = {
+				"eidas.proxy.ask-consent=false",
+				"eidas.proxy.async-idp-callback.enabled=true"})
+@ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = IdpResponseControllerConsentNotRequiredTests.TestContextInitializer.class)
+class IdpResponseControllerAsyncTests extends IdpResponseControllerConsentNotRequiredTests {
+
+	@Test
+	void callbackProcessedOnIdpCallbackExecutors() throws Exception {
+		String code = UUID.randomUUID().toString();
+		createMockOidcServerResponse_successfulAuthentication(code, "mock_responses/idp/token-response-ok.json");
+		Map.Entry<String, CorrelatedRequestsHolder> mapEntry = addMockRequestToPendingIdpRequestCommunicationCache();
+
+		given()
+			.param("code", code)
+			.param("state", mapEntry.getKey())
+			.config(RestAssured.config().redirect(redirectConfig().followRedirects(false)))
+		.when()
+			.get(ENDPOINT_IDP_RESPONSE)
+		.then()
+			.assertThat()
+			.statusCode(302)
+			.header(HttpHeaders.LOCATION, startsWith("https://ee-eidas-proxy:8083/EidasNode/SpecificProxyServiceResponse?token="));
+
+		assertNotNull(meterRegistry.get("executor.queued").tag("name", "idp-callback-idp").gauge());
+		assertNotNull(meterRegistry.get("executor.queued").tag("name", "idp-callback-cache").gauge());
+		assertEquals(0.0, meterRegistry.get("eidas.proxy.executor.rejected").tag("name", "idp-callback-idp").counter().count());
+	}
+}
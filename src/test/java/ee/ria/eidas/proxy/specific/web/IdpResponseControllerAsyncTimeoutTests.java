@@ -0,0 +1,65 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
+import org.awaitility.Durations;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.UUID;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createDefaultLightRequest;
+import static ee.ria.eidas.proxy.specific.web.IdpResponseController.ENDPOINT_IDP_RESPONSE;
+import static io.restassured.RestAssured.given;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+@SpringBootTest(
+		webEnvironment = RANDOM_PORT,
+		properties = {
+				"eidas.proxy.ask-consent=false",
+				"eidas.proxy.async-idp-callback.enabled=true",
+				"eidas.proxy.async-idp-callback.timeout-in-milliseconds=500"})
+@ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = IdpResponseControllerAsyncTimeoutTests.TestContextInitializer.class)
+class IdpResponseControllerAsyncTimeoutTests extends ControllerTest {
+
+	@Test
+	void lightResponseNotStoredWhen_CallbackProcessingTimedOut() throws Exception {
+		mockOidcServer.stubFor(post(urlEqualTo("/oidc/token"))
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "application/json; charset=UTF-8")
+						.withBodyFile("mock_responses/idp/token-response-ok.json")
+						.withFixedDelay(1500)));
+		String state = UUID.randomUUID().toString();
+		getIdpRequestCommunicationCache().put(state, new CorrelatedRequestsHolder(createDefaultLightRequest(),
+				Collections.singletonMap(state, new URL("http://oidAuthenticationRequest"))));
+
+		given()
+			.param("code", UUID.randomUUID().toString())
+			.param("state", state)
+		.when()
+			.get(ENDPOINT_IDP_RESPONSE)
+		.then()
+			.assertThat()
+			.statusCode(500)
+			.body("error", equalTo("Internal Server Error"))
+			.body("message", equalTo("Something went wrong internally. Please consult server logs for further details."));
+
+		assertErrorIsLogged("Server encountered an unexpected error: IdP callback processing timed out");
+		await()
+				.atMost(Durations.FIVE_SECONDS)
+				.untilAsserted(() -> assertWarningIsLogged("IdP callback processing timed out, LightResponse with id: "));
+		mockOidcServer.verify(postRequestedFor(urlEqualTo("/oidc/token")));
+		assertPendingIdpRequestCommunicationCacheIsEmpty();
+		assertResponseCommunicationCacheIsEmpty();
+	}
+}
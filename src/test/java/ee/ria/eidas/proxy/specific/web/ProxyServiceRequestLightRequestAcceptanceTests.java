@@ -165,11 +165,11 @@ public class ProxyServiceRequestLightRequestAcceptanceTests extends ControllerTe
     }
 
     private void assertRequestInIdpCommunicationCache(ILightRequest mockLightRequest) {
-        List<Cache.Entry<String, SpecificProxyServiceCommunication.CorrelatedRequestsHolder>> list = getListFromIterator(getIdpRequestCommunicationCache().iterator());
+        List<Cache.Entry<String, Object>> list = getListFromIterator(getIdpRequestCommunicationCache().iterator());
         assertEquals(1, list.size());
         assertThat(list.get(0).getKey(), matchesPattern(UUID_REGEX));
 
-        ILightRequest cachedLightRequest = list.get(0).getValue().getLightRequest();
+        ILightRequest cachedLightRequest = ((SpecificProxyServiceCommunication.CorrelatedRequestsHolder) list.get(0).getValue()).getLightRequest();
         assertEquals(mockLightRequest.getCitizenCountryCode(), cachedLightRequest.getCitizenCountryCode());
         assertEquals(mockLightRequest.getId(), cachedLightRequest.getId());
         assertEquals(mockLightRequest.getLevelOfAssurance(), cachedLightRequest.getLevelOfAssurance());
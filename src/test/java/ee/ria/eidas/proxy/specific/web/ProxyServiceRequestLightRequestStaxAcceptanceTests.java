@@ -0,0 +1,20 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+/**
+ * Runs the LightRequest acceptance tests against the StAX reader to prove that it behaves as the JAXB reader.
+ */
+@SpringBootTest(
+        webEnvironment = RANDOM_PORT,
+        properties = {"eidas.proxy.communication-cache.light-request-reader=stax"})
+@TestMethodOrder(MethodOrderer.Alphanumeric.class)
+@ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = ProxyServiceRequestControllerTests.TestContextInitializer.class)
+class ProxyServiceRequestLightRequestStaxAcceptanceTests extends ProxyServiceRequestLightRequestAcceptanceTests {
+}
@@ -0,0 +1,79 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import com.nimbusds.oauth2.sdk.util.URLUtils;
+import ee.ria.eidas.proxy.specific.config.SpecificProxyServiceConfiguration;
+import ee.ria.eidas.proxy.specific.storage.SpecificProxyServiceCommunication.CorrelatedRequestsHolder;
+import eu.eidas.auth.commons.EidasParameterKeys;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.tx.BinaryLightToken;
+import eu.eidas.specificcommunication.BinaryLightTokenHelper;
+import io.restassured.response.Response;
+import org.apache.http.HttpHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.LEGAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.NATURAL_PERSON_MANDATORY_ATTRIBUTES;
+import static ee.ria.eidas.proxy.specific.util.LightRequestTestHelper.createLightRequest;
+import static ee.ria.eidas.proxy.specific.web.ProxyServiceRequestController.ENDPOINT_PROXY_SERVICE_REQUEST;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.core.StringStartsWith.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+
+@SpringBootTest(
+        webEnvironment = RANDOM_PORT,
+        properties = {
+                "eidas.proxy.oidc-providers[0].id=business",
+                "eidas.proxy.oidc-providers[0].issuer-url=https://localhost:9877",
+                "eidas.proxy.oidc-providers[0].client-id=businessClient",
+                "eidas.proxy.oidc-providers[0].client-secret=businessSecret",
+                "eidas.proxy.oidc-providers[0].redirect-uri=https://localhost:9877/business/redirect",
+                "eidas.proxy.oidc-providers[0].requested-attributes=LegalPersonIdentifier,LegalName"})
+@ContextConfiguration(classes = SpecificProxyServiceConfiguration.class, initializers = ProxyServiceRequestOidcProvidersTests.TestContextInitializer.class)
+class ProxyServiceRequestOidcProvidersTests extends ControllerTest {
+
+    @Test
+    void redirectToRoutedProviderWhen_RequestedAttributesMatch() throws Exception {
+        Map<String, List<String>> urlParameters = sendLightRequest(createLightRequest(LEGAL_PERSON_MANDATORY_ATTRIBUTES));
+
+        assertEquals("businessClient", urlParameters.get("client_id").get(0));
+        assertEquals("https://localhost:9877/business/redirect", urlParameters.get("redirect_uri").get(0));
+        assertPendingRequestRoutedTo(urlParameters.get("state").get(0), "business");
+    }
+
+    @Test
+    void redirectToDefaultProviderWhen_NoProviderRulesMatch() throws Exception {
+        Map<String, List<String>> urlParameters = sendLightRequest(createLightRequest(NATURAL_PERSON_MANDATORY_ATTRIBUTES));
+
+        assertEquals("openIdDemo", urlParameters.get("client_id").get(0));
+        assertEquals("https://localhost:9877/redirect", urlParameters.get("redirect_uri").get(0));
+        assertPendingRequestRoutedTo(urlParameters.get("state").get(0), "default");
+    }
+
+    private Map<String, List<String>> sendLightRequest(ILightRequest lightRequest) throws Exception {
+        BinaryLightToken binaryLightToken = putRequest(lightRequest);
+
+        Response response = given()
+                .param(EidasParameterKeys.TOKEN.toString(), BinaryLightTokenHelper.encodeBinaryLightTokenBase64(binaryLightToken))
+                .when()
+                .get(ENDPOINT_PROXY_SERVICE_REQUEST)
+                .then()
+                .assertThat()
+                .statusCode(302)
+                .header(HttpHeaders.LOCATION, startsWith("https://localhost:9877/oidc/authorize"))
+                .extract().response();
+
+        return URLUtils.parseParameters(new URL(response.getHeader(HttpHeaders.LOCATION)).getQuery());
+    }
+
+    private void assertPendingRequestRoutedTo(String state, String oidcProviderId) {
+        CorrelatedRequestsHolder correlatedRequestsHolder = getSpecificProxyServiceCommunication().getAndRemoveCorrelatedRequests(state);
+        assertEquals(oidcProviderId, correlatedRequestsHolder.getOidcProviderId());
+    }
+}
@@ -0,0 +1,101 @@
+package ee.ria.eidas.proxy.specific.web;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.validation.BindException;
+import org.springframework.validation.FieldError;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static ee.ria.eidas.proxy.specific.error.SpecificProxyServiceExceptionHandler.MULTIPLE_INSTANCES_OF_PARAMETER_IS_NOT_ALLOWED;
+import static ee.ria.eidas.proxy.specific.web.RequestParameterBinder.MUST_NOT_BE_NULL;
+import static ee.ria.eidas.proxy.specific.web.RequestParameterBinder.ONLY_BASE64_CHARACTERS_ALLOWED;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestParameterBinderTests {
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final RequestParameterBinder binder = new RequestParameterBinder(request, "requestParameters");
+
+    @Test
+    void valuesBoundWhen_ValidParameters() throws BindException {
+        request.addParameter("token", "c3BlY2lmaWNDb21tdW5pY2F0aW9u+/==");
+        request.addParameter("state", "a,b");
+        request.addParameter("cancel", "TRUE");
+
+        assertEquals("c3BlY2lmaWNDb21tdW5pY2F0aW9u+/==", binder.getBase64Value("token", MUST_NOT_BE_NULL));
+        assertEquals("a,b", binder.getValue("state", null));
+        assertTrue(binder.getBooleanValue("cancel"));
+        assertNull(binder.getValue("code", null));
+        assertNull(binder.getBooleanValue("missing"));
+        binder.validate();
+    }
+
+    @Test
+    void missingParameterRejectedWhen_Required() {
+        request.addParameter("token", "");
+
+        assertNull(binder.getBase64Value("token", MUST_NOT_BE_NULL));
+
+        assertErrors(asList("token: must not be null"));
+    }
+
+    @Test
+    void parameterRejectedWhen_MultipleInstances() {
+        request.addParameter("token", "YWJj", "'@´<>?");
+
+        binder.getBase64Value("token", MUST_NOT_BE_NULL);
+
+        assertErrors(asList("token: " + MULTIPLE_INSTANCES_OF_PARAMETER_IS_NOT_ALLOWED, "token[1]: " + ONLY_BASE64_CHARACTERS_ALLOWED));
+    }
+
+    @Test
+    void parameterRejectedWhen_InvalidValue() {
+        request.addParameter("token", RandomStringUtils.randomAlphanumeric(1001));
+        request.addParameter("code", RandomStringUtils.randomAlphanumeric(1001));
+        request.addParameter("error", RandomStringUtils.randomAlphanumeric(1000));
+        request.addParameter("cancel", "maybe");
+
+        binder.getBase64Value("token", MUST_NOT_BE_NULL);
+        binder.getValue("code", null);
+        binder.getValue("error", null);
+        assertNull(binder.getBooleanValue("cancel"));
+
+        assertErrors(asList("token[0]: " + ONLY_BASE64_CHARACTERS_ALLOWED, "code[0]: size must be between 1 and 1000",
+                "cancel: Failed to convert property value of type 'java.lang.String' to required type 'java.util.List' for property 'cancel'; " +
+                        "nested exception is java.lang.IllegalArgumentException: Invalid boolean value [maybe]"));
+    }
+
+    @Test
+    void booleanValueBoundWhen_SpringBooleanValues() {
+        for (String value : asList("true", "on", "yes", "1", " TRUE ")) {
+            MockHttpServletRequest booleanRequest = new MockHttpServletRequest();
+            booleanRequest.addParameter("cancel", value);
+            assertTrue(new RequestParameterBinder(booleanRequest, "requestParameters").getBooleanValue("cancel"), value);
+        }
+        for (String value : asList("false", "off", "no", "0")) {
+            MockHttpServletRequest booleanRequest = new MockHttpServletRequest();
+            booleanRequest.addParameter("cancel", value);
+            assertFalse(new RequestParameterBinder(booleanRequest, "requestParameters").getBooleanValue("cancel"), value);
+        }
+    }
+
+    private void assertErrors(List<String> expectedErrors) {
+        BindException exception = assertThrows(BindException.class, binder::validate);
+
+        assertEquals("requestParameters", exception.getObjectName());
+        assertEquals(expectedErrors, exception.getFieldErrors().stream()
+                .map(this::formatError)
+                .collect(Collectors.toList()));
+    }
+
+    private String formatError(FieldError fieldError) {
+        return fieldError.getField() + ": " + fieldError.getDefaultMessage();
+    }
+}